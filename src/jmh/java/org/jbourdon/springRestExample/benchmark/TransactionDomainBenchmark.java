@@ -0,0 +1,83 @@
+package org.jbourdon.springRestExample.benchmark;
+
+import org.jbourdon.springRestExample.domain.Transaction;
+import org.jbourdon.springRestExample.service.TransactionSubtreeUnion;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the tree walks of the Transaction entity, on in-memory graphs,
+ * and of the subtree sums of the same trees loaded as a TransactionSubtreeUnion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionDomainBenchmark {
+
+    @Param({"CHAIN", "STAR", "BALANCED", "RANDOM"})
+    private TreeShape shape;
+
+    @Param({"1000", "10000", "100000"})
+    private int size;
+
+    private Transaction root;
+
+    private Transaction deepest;
+
+    private TransactionSubtreeUnion union;
+
+    private final List<Long> rootId = Collections.singletonList(0L);
+
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        int[] parents = shape.parents(size);
+        Transaction[] transactions = TransactionTrees.entities(parents);
+        root = transactions[0];
+        deepest = transactions[TreeShape.deepest(parents)];
+        TransactionSubtreeUnion.Builder builder = new TransactionSubtreeUnion.Builder();
+        for (int i = 0; i < parents.length; i++) {
+            builder.add(i, parents[i] < 0 ? null : (long) parents[i], TransactionTrees.amountOf(i));
+        }
+        union = builder.build();
+        pool = new ForkJoinPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public double flattenedSum() {
+        return root.flattened().mapToDouble(Transaction::getAmount).sum();
+    }
+
+    @Benchmark
+    public double unionSumSequential() {
+        return union.subtreeSums(rootId, null).get(0L);
+    }
+
+    @Benchmark
+    public double unionSumParallel() {
+        return union.subtreeSums(rootId, pool).get(0L);
+    }
+
+    @Benchmark
+    public boolean hasCycleOfRoot() {
+        return root.hasCycle();
+    }
+
+    @Benchmark
+    public boolean hasCycleOfDeepest() {
+        return deepest.hasCycle();
+    }
+}
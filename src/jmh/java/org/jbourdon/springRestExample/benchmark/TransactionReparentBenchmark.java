@@ -0,0 +1,85 @@
+package org.jbourdon.springRestExample.benchmark;
+
+import org.jbourdon.springRestExample.TransactionsApp;
+import org.jbourdon.springRestExample.service.TransactionService;
+import org.jbourdon.springRestExample.web.rest.TransactionRestWrapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark of the concurrent re-parentings of TransactionService, each thread moving the transactions of its own tree.
+ * The trees are disjoint, so the threads should not wait for each other: compare the time per re-parenting with
+ * -t 1 and with -t 8, it should stay flat as long as there are enough cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionReparentBenchmark {
+
+    @Param({"16"})
+    private int size;
+
+    private ConfigurableApplicationContext context;
+
+    private TransactionService transactionService;
+
+    private final AtomicInteger trees = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(TransactionsApp.class)
+                .web(false)
+                .run("--spring.datasource.url=jdbc:h2:mem:benchmark-reparent-" + size + ";DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.show-sql=false");
+        transactionService = context.getBean(TransactionService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * The tree of one thread, a balanced tree with its own range of ids
+     */
+    @State(Scope.Thread)
+    public static class ThreadTree {
+
+        private long rootId;
+
+        private Random random;
+
+        private final TransactionRestWrapper move = new TransactionRestWrapper();
+
+        @Setup(Level.Trial)
+        public void setUp(TransactionReparentBenchmark benchmark) {
+            int tree = benchmark.trees.getAndIncrement();
+            rootId = 1L + (long) tree * benchmark.size;
+            random = new Random(tree);
+            benchmark.transactionService.saveAll(TransactionTrees.wrappers(TreeShape.BALANCED.parents(benchmark.size), rootId));
+            move.setAmount(1d);
+            move.setType(TransactionTrees.typeOf(0));
+        }
+    }
+
+    @Benchmark
+    public boolean reparent(ThreadTree tree) {
+        long id = tree.rootId + 1 + tree.random.nextInt(size - 1);
+        tree.move.setParentId(tree.rootId + tree.random.nextInt(size));
+        try {
+            transactionService.save(tree.move, id);
+            return true;
+        } catch (IllegalStateException e) {
+            /* The move would have created a cycle */
+            return false;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.jbourdon.springRestExample.benchmark;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.jbourdon.springRestExample.domain.Transaction;
+import org.jbourdon.springRestExample.domain.TransactionView;
+import org.jbourdon.springRestExample.web.rest.SumResult;
+import org.jbourdon.springRestExample.web.rest.TransactionRestSerializer;
+import org.jbourdon.springRestExample.web.rest.TransactionRestWrapper;
+import org.jbourdon.springRestExample.web.rest.UpdateStatus;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the serialization of the REST payloads in JSON and in Smile, configured as in JacksonConfiguration:
+ * a Transaction with the REST view, the request wrapper of a transaction, an array of ids and an array of sums.
+ * The payload sizes of each format are printed at the setup.
+ * <p>
+ * The REST view is serialized both through the bean properties and through the hand-written TransactionRestSerializer;
+ * run with {@code -prof gc} to compare the bytes allocated by operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionSerializationBenchmark {
+
+    private static final int ARRAY_SIZE = 1000;
+
+    @Param({"json", "smile"})
+    private String format;
+
+    private ObjectWriter restWriter;
+
+    private ObjectWriter writer;
+
+    private JsonFactory factory;
+
+    private ObjectReader wrapperReader;
+
+    private ObjectReader idsReader;
+
+    private Transaction transaction;
+
+    private List<Long> ids;
+
+    private List<SumResult> sums;
+
+    private byte[] serializedWrapper;
+
+    private byte[] serializedIds;
+
+    @Setup
+    public void setUp() throws IOException {
+        Jackson2ObjectMapperBuilder builder = new Jackson2ObjectMapperBuilder()
+                .featuresToDisable(MapperFeature.DEFAULT_VIEW_INCLUSION);
+        ObjectMapper mapper;
+        if ("smile".equals(format)) {
+            mapper = new ObjectMapper(new SmileFactory());
+            builder.configure(mapper);
+        } else {
+            mapper = builder.build();
+        }
+        restWriter = mapper.writerWithView(TransactionView.Rest.class);
+        writer = mapper.writer();
+        factory = mapper.getFactory();
+        wrapperReader = mapper.readerFor(TransactionRestWrapper.class);
+        idsReader = mapper.readerFor(new TypeReference<List<Long>>() {});
+        transaction = TransactionTrees.entities(TreeShape.CHAIN.parents(2))[1];
+        ids = new ArrayList<>(ARRAY_SIZE);
+        sums = new ArrayList<>(ARRAY_SIZE);
+        for (int i = 0; i < ARRAY_SIZE; i++) {
+            ids.add(1_000_000L + i * 7L);
+            sums.add(new SumResult(TransactionTrees.amountOf(i) * i));
+        }
+        TransactionRestWrapper wrapper = new TransactionRestWrapper();
+        wrapper.setAmount(transaction.getAmount());
+        wrapper.setType(transaction.getType());
+        wrapper.setParentId(transaction.getParentId());
+        serializedWrapper = writer.writeValueAsBytes(wrapper);
+        serializedIds = writer.writeValueAsBytes(ids);
+        System.out.printf("%n%s payloads: transaction %d bytes, %d ids %d bytes, %d sums %d bytes%n", format,
+                restWriter.writeValueAsBytes(transaction).length, ARRAY_SIZE, serializedIds.length,
+                ARRAY_SIZE, writer.writeValueAsBytes(sums).length);
+    }
+
+    @Benchmark
+    public byte[] serializeRestView() throws IOException {
+        return restWriter.writeValueAsBytes(transaction);
+    }
+
+    @Benchmark
+    public byte[] serializeRestViewHandWritten() throws IOException {
+        return TransactionRestSerializer.toBytes(transaction, factory);
+    }
+
+    @Benchmark
+    public byte[] serializeUpdateStatus() throws IOException {
+        return writer.writeValueAsBytes(UpdateStatus.OK);
+    }
+
+    @Benchmark
+    public TransactionRestWrapper deserializeWrapper() throws IOException {
+        return wrapperReader.readValue(serializedWrapper);
+    }
+
+    @Benchmark
+    public byte[] serializeIds() throws IOException {
+        return writer.writeValueAsBytes(ids);
+    }
+
+    @Benchmark
+    public List<Long> deserializeIds() throws IOException {
+        return idsReader.readValue(serializedIds);
+    }
+
+    @Benchmark
+    public byte[] serializeSums() throws IOException {
+        return writer.writeValueAsBytes(sums);
+    }
+}
@@ -0,0 +1,87 @@
+package org.jbourdon.springRestExample.benchmark;
+
+import org.jbourdon.springRestExample.TransactionsApp;
+import org.jbourdon.springRestExample.domain.Transaction;
+import org.jbourdon.springRestExample.service.TransactionService;
+import org.jbourdon.springRestExample.web.rest.TransactionRestWrapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of TransactionService against the in-memory H2 database of the tests,
+ * with a fresh database for each tree.
+ * The closure table of a chain grows quadratically, so larger sizes are better given with -p size=...
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionServiceBenchmark {
+
+    private static final long ROOT_ID = 1L;
+
+    @Param({"CHAIN", "STAR", "BALANCED", "RANDOM"})
+    private TreeShape shape;
+
+    @Param({"1000"})
+    private int size;
+
+    private ConfigurableApplicationContext context;
+
+    private TransactionService transactionService;
+
+    private long deepestId;
+
+    private TransactionRestWrapper deepestUpdate;
+
+    private double deepestAmount;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(TransactionsApp.class)
+                .web(false)
+                .run("--spring.datasource.url=jdbc:h2:mem:benchmark-" + shape + "-" + size + ";DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.show-sql=false");
+        transactionService = context.getBean(TransactionService.class);
+        int[] parents = shape.parents(size);
+        transactionService.saveAll(TransactionTrees.wrappers(parents, ROOT_ID));
+        int deepest = TreeShape.deepest(parents);
+        deepestId = ROOT_ID + deepest;
+        deepestUpdate = new TransactionRestWrapper();
+        deepestUpdate.setType(TransactionTrees.typeOf(deepest));
+        deepestUpdate.setParentId(parents[deepest] < 0 ? null : ROOT_ID + parents[deepest]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Double sumChildren() {
+        return transactionService.sumChildren(ROOT_ID);
+    }
+
+    @Benchmark
+    public List<Long> findTransactionIdsOfType() {
+        return transactionService.findTransactionIdsOfType(TransactionTrees.typeOf(0));
+    }
+
+    @Benchmark
+    public boolean createsCycle() {
+        return transactionService.createsCycle(ROOT_ID, deepestId);
+    }
+
+    @Benchmark
+    public Transaction saveDeepest() {
+        deepestAmount = deepestAmount == 1d ? 2d : 1d;
+        deepestUpdate.setAmount(deepestAmount);
+        return transactionService.save(deepestUpdate, deepestId);
+    }
+}
@@ -0,0 +1,69 @@
+package org.jbourdon.springRestExample.benchmark;
+
+import org.jbourdon.springRestExample.domain.Transaction;
+import org.jbourdon.springRestExample.web.rest.BulkTransactionRestWrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generators of transaction trees for the benchmarks.
+ */
+public final class TransactionTrees {
+
+    public static final int TYPE_COUNT = 10;
+
+    private TransactionTrees() {
+    }
+
+    public static String typeOf(int index) {
+        return "type-" + (index % TYPE_COUNT);
+    }
+
+    public static double amountOf(int index) {
+        return index % 100 + 0.5;
+    }
+
+    /**
+     * Build a linked graph of Transaction entities, with the ids 1 to size.
+     *
+     * @param parents the index of the parent of each transaction, see TreeShape
+     * @return the transactions, the root first
+     */
+    public static Transaction[] entities(int[] parents) {
+        Transaction[] transactions = new Transaction[parents.length];
+        for (int index = 0; index < parents.length; index++) {
+            Transaction transaction = new Transaction();
+            transaction.setId(index + 1L);
+            transaction.setAmount(amountOf(index));
+            transaction.setType(typeOf(index));
+            if (parents[index] >= 0) {
+                transaction.setParent(transactions[parents[index]]);
+            }
+            transactions[index] = transaction;
+        }
+        return transactions;
+    }
+
+    /**
+     * Build the bulk import wrappers of a tree, with the ids firstId to firstId + size - 1.
+     *
+     * @param parents the index of the parent of each transaction, see TreeShape
+     * @param firstId the id of the root
+     * @return the wrappers, the root first
+     */
+    public static List<BulkTransactionRestWrapper> wrappers(int[] parents, long firstId) {
+        List<BulkTransactionRestWrapper> wrappers = new ArrayList<>(parents.length);
+        for (int index = 0; index < parents.length; index++) {
+            BulkTransactionRestWrapper wrapper = new BulkTransactionRestWrapper();
+            wrapper.setId(firstId + index);
+            wrapper.setAmount(amountOf(index));
+            wrapper.setType(typeOf(index));
+            if (parents[index] >= 0) {
+                wrapper.setParentId(firstId + parents[index]);
+            }
+            wrappers.add(wrapper);
+        }
+        return wrappers;
+    }
+}
@@ -0,0 +1,72 @@
+package org.jbourdon.springRestExample.benchmark;
+
+import java.util.Random;
+
+/**
+ * Shapes of the generated transaction trees. Node 0 is always the root and every parent comes before its children.
+ */
+public enum TreeShape {
+
+    /** every transaction is the child of the previous one */
+    CHAIN {
+        @Override
+        int parentOf(int index, Random random) {
+            return index - 1;
+        }
+    },
+    /** every transaction is a child of the root */
+    STAR {
+        @Override
+        int parentOf(int index, Random random) {
+            return 0;
+        }
+    },
+    /** complete binary tree */
+    BALANCED {
+        @Override
+        int parentOf(int index, Random random) {
+            return (index - 1) / 2;
+        }
+    },
+    /** random recursive tree, reproducible with its fixed seed */
+    RANDOM {
+        @Override
+        int parentOf(int index, Random random) {
+            return random.nextInt(index);
+        }
+    };
+
+    private static final long SEED = 42L;
+
+    abstract int parentOf(int index, Random random);
+
+    /**
+     * @param size the number of transactions
+     * @return the index of the parent of each transaction, -1 for the root
+     */
+    public int[] parents(int size) {
+        Random random = new Random(SEED);
+        int[] parents = new int[size];
+        parents[0] = -1;
+        for (int index = 1; index < size; index++) {
+            parents[index] = parentOf(index, random);
+        }
+        return parents;
+    }
+
+    /**
+     * @param parents the index of the parent of each transaction
+     * @return the index of one of the deepest transactions
+     */
+    public static int deepest(int[] parents) {
+        int[] depths = new int[parents.length];
+        int deepest = 0;
+        for (int index = 1; index < parents.length; index++) {
+            depths[index] = depths[parents[index]] + 1;
+            if (depths[index] > depths[deepest]) {
+                deepest = index;
+            }
+        }
+        return deepest;
+    }
+}
@@ -0,0 +1,50 @@
+package org.jbourdon.springRestExample.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Executors of the asynchronous REST handlers.
+ * The expensive aggregate queries run on their own bounded pool, sized separately from the Tomcat request pool,
+ * so that a few slow aggregates cannot take all the request threads from the cheap reads. The large subtree sums
+ * are computed in parallel on a dedicated fork/join pool rather than on the common pool shared by the JVM.
+ */
+@Configuration
+public class AsyncConfiguration {
+
+    public static final String AGGREGATE_EXECUTOR = "aggregateTaskExecutor";
+
+    public static final String AGGREGATE_FORK_JOIN_POOL = "aggregateForkJoinPool";
+
+    private final Logger log = LoggerFactory.getLogger(AsyncConfiguration.class);
+
+    @Bean(name = AGGREGATE_EXECUTOR)
+    public ThreadPoolTaskExecutor aggregateTaskExecutor(@Value("${transactions.aggregates.pool-size:4}") int poolSize,
+                                                        @Value("${transactions.aggregates.queue-capacity:100}") int queueCapacity) {
+        log.debug("Creating the aggregate executor of {} threads and {} queued tasks", poolSize, queueCapacity);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("aggregate-");
+        return executor;
+    }
+
+    @Bean(name = AGGREGATE_FORK_JOIN_POOL, destroyMethod = "shutdown")
+    public ForkJoinPool aggregateForkJoinPool(@Value("${transactions.aggregates.parallelism:0}") int parallelism) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        log.debug("Creating the aggregate fork/join pool of {} threads", threads);
+        return new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("aggregate-fj-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+}
@@ -1,6 +1,9 @@
 package org.jbourdon.springRestExample.config;
 
 import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.jbourdon.springRestExample.web.util.SmileHttpMessageConverter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
@@ -14,4 +17,14 @@ public class JacksonConfiguration {
                 .featuresToDisable(MapperFeature.DEFAULT_VIEW_INCLUSION);
 
     }
+
+    /**
+     * Smile message converter, configured as the JSON mapper. It is added to the message converters of Spring MVC.
+     */
+    @Bean
+    SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder jackson2ObjectMapperBuilder) {
+        ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+        jackson2ObjectMapperBuilder.configure(smileMapper);
+        return new SmileHttpMessageConverter(smileMapper);
+    }
 }
@@ -0,0 +1,60 @@
+package org.jbourdon.springRestExample.config;
+
+import org.jbourdon.springRestExample.service.TransactionPartitionService;
+import org.jbourdon.springRestExample.web.filter.TransactionRoutingFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.embedded.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+
+import javax.inject.Named;
+
+/**
+ * Routing of the requests of a single transaction to the node owning its tree, when the transaction trees are
+ * partitioned over several nodes with the <code>transactions.partitioning.enabled</code> property.
+ * The requests are forwarded to the owner, or redirected to it when <code>transactions.partitioning.routing</code>
+ * is <code>redirect</code>. The same client carries the requests between the nodes, see TransactionPartitionService.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "transactions.partitioning", name = "enabled", havingValue = "true")
+public class PartitioningConfiguration {
+
+    /**
+     * Name of the client of the requests between the nodes
+     */
+    public static final String PARTITION_REST_TEMPLATE = "partitionRestTemplate";
+
+    @Bean(name = PARTITION_REST_TEMPLATE)
+    public RestTemplate partitionRestTemplate(@Value("${transactions.partitioning.connect-timeout-millis:1000}") int connectTimeout,
+                                              @Value("${transactions.partitioning.read-timeout-millis:30000}") int readTimeout) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeout);
+        requestFactory.setReadTimeout(readTimeout);
+        /* The bodies forwarded by TransactionRoutingFilter are streamed, whatever their size */
+        requestFactory.setBufferRequestBody(false);
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        /* The error statuses of the other nodes are copied back to the client as they are */
+        restTemplate.setErrorHandler(new DefaultResponseErrorHandler() {
+            @Override
+            public boolean hasError(ClientHttpResponse response) {
+                return false;
+            }
+        });
+        return restTemplate;
+    }
+
+    @Bean
+    public FilterRegistrationBean transactionRoutingFilter(TransactionPartitionService transactionPartitionService,
+                                                           @Named(PARTITION_REST_TEMPLATE) RestTemplate restTemplate,
+                                                           @Value("${transactions.partitioning.routing:forward}") String routing) {
+        FilterRegistrationBean registration = new FilterRegistrationBean(
+                new TransactionRoutingFilter(transactionPartitionService, restTemplate, "redirect".equals(routing)));
+        registration.addUrlPatterns("/transactionservice/transaction/*", "/transactionservice/sum/*");
+        return registration;
+    }
+}
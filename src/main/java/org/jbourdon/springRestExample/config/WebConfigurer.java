@@ -1,10 +1,14 @@
 package org.jbourdon.springRestExample.config;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.servlets.MetricsServlet;
+import io.prometheus.client.CollectorRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.context.embedded.ServletContextInitializer;
 import org.springframework.context.annotation.Configuration;
 
+import javax.inject.Inject;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRegistration;
@@ -17,12 +21,34 @@ public class WebConfigurer implements ServletContextInitializer {
 
     private final Logger log = LoggerFactory.getLogger(WebConfigurer.class);
 
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    @Inject
+    private CollectorRegistry collectorRegistry;
+
     @Override
     public void onStartup(ServletContext servletContext) throws ServletException {
         initH2Console(servletContext);
+        initMetrics(servletContext);
         log.info("Web application fully configured");
     }
 
+    /**
+     * Initializes the metrics servlets, in JSON and in the Prometheus text format.
+     */
+    private void initMetrics(ServletContext servletContext) {
+        log.debug("Initialize metrics servlets");
+        ServletRegistration.Dynamic metricsServlet = servletContext.addServlet("MetricsServlet", new MetricsServlet(metricRegistry));
+        metricsServlet.addMapping("/management/metrics");
+        metricsServlet.setLoadOnStartup(2);
+
+        ServletRegistration.Dynamic prometheusServlet = servletContext.addServlet("PrometheusServlet",
+                new io.prometheus.client.exporter.MetricsServlet(collectorRegistry));
+        prometheusServlet.addMapping("/management/prometheus");
+        prometheusServlet.setLoadOnStartup(2);
+    }
+
     /**
      * Initializes H2 console.
      */
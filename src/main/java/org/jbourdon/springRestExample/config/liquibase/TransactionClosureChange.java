@@ -0,0 +1,36 @@
+package org.jbourdon.springRestExample.config.liquibase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Fill the closure table with the ancestors of the existing transactions, each transaction being its own ancestor
+ * at depth 0.
+ */
+public class TransactionClosureChange extends TransactionHierarchyChange {
+
+    @Override
+    protected int backfill(Connection connection, Hierarchy hierarchy) throws SQLException {
+        int rows = 0;
+        try (PreparedStatement statement = connection.prepareStatement(
+                "insert into transaction_closure (ancestor_id, descendant_id, depth) values (?, ?, ?)")) {
+            for (int position = 0; position < hierarchy.size(); position++) {
+                int depth = 0;
+                for (int ancestor = position; ancestor >= 0; ancestor = hierarchy.getParent(ancestor)) {
+                    statement.setLong(1, hierarchy.getId(ancestor));
+                    statement.setLong(2, hierarchy.getId(position));
+                    statement.setInt(3, depth++);
+                    addBatch(statement, ++rows);
+                }
+            }
+            statement.executeBatch();
+        }
+        return rows;
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "Closure table of the existing transactions filled";
+    }
+}
@@ -0,0 +1,193 @@
+package org.jbourdon.springRestExample.config.liquibase;
+
+import com.carrotsearch.hppc.DoubleArrayList;
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongIntHashMap;
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Base of the Liquibase changes deriving a column or a table of the transaction hierarchy from the parents of the
+ * existing transactions, so that an upgraded database answers right from its first start, without a rebuild.
+ * <p>
+ * The parents are read with a single query and walked from the roots, each parent before its children. The
+ * transactions on a cycle, out of reach from the roots, are left out as the rebuilds of TransactionService do.
+ */
+public abstract class TransactionHierarchyChange implements CustomTaskChange {
+
+    private final Logger log = LoggerFactory.getLogger(TransactionHierarchyChange.class);
+
+    protected static final int BATCH_SIZE = 1000;
+
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+        /* The connection of the changeset, so that the rows are written in its database transaction */
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+        try {
+            Hierarchy hierarchy = Hierarchy.read(connection);
+            if (hierarchy.getUnreachable() > 0) {
+                log.warn("{} transactions on a cycle are left out of the migration", hierarchy.getUnreachable());
+            }
+            int rows = backfill(connection, hierarchy);
+            log.info("{}: {} rows written for {} transactions", getConfirmationMessage(), rows, hierarchy.size());
+        } catch (SQLException e) {
+            throw new CustomChangeException(getConfirmationMessage() + " failed", e);
+        }
+    }
+
+    /**
+     * Write the derived rows of the existing transactions.
+     *
+     * @param connection the connection of the changeset
+     * @param hierarchy the transactions reachable from the roots, parents first
+     * @return the number of written rows
+     */
+    protected abstract int backfill(Connection connection, Hierarchy hierarchy) throws SQLException;
+
+    @Override
+    public void setUp() {
+    }
+
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        return new ValidationErrors();
+    }
+
+    /**
+     * Add a row to a JDBC batch, executed every {@link #BATCH_SIZE} rows.
+     *
+     * @param rows the number of rows added so far, this one included
+     */
+    protected static void addBatch(PreparedStatement statement, int rows) throws SQLException {
+        statement.addBatch();
+        if (rows % BATCH_SIZE == 0) {
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * The transactions reachable from the roots, in pre-order: every parent comes before its children.
+     */
+    protected static final class Hierarchy {
+
+        private final long[] ids;
+
+        private final int[] parents;
+
+        private final double[] amounts;
+
+        private final int unreachable;
+
+        private Hierarchy(long[] ids, int[] parents, double[] amounts, int unreachable) {
+            this.ids = ids;
+            this.parents = parents;
+            this.amounts = amounts;
+            this.unreachable = unreachable;
+        }
+
+        static Hierarchy read(Connection connection) throws SQLException {
+            LongArrayList ids = new LongArrayList();
+            LongArrayList parentIds = new LongArrayList();
+            DoubleArrayList amounts = new DoubleArrayList();
+            BitSet roots = new BitSet();
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("select id, parent_id, amount from transaction")) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                    long parentId = rs.getLong(2);
+                    if (rs.wasNull()) {
+                        roots.set(ids.size() - 1);
+                    }
+                    parentIds.add(parentId);
+                    amounts.add(rs.getDouble(3));
+                }
+            }
+            int rows = ids.size();
+            LongIntHashMap rowsById = new LongIntHashMap(rows);
+            for (int row = 0; row < rows; row++) {
+                rowsById.put(ids.get(row), row);
+            }
+            /* Children as linked lists of rows */
+            int[] firstChild = new int[rows];
+            int[] nextSibling = new int[rows];
+            Arrays.fill(firstChild, -1);
+            IntArrayList stack = new IntArrayList();
+            for (int row = rows - 1; row >= 0; row--) {
+                if (roots.get(row)) {
+                    stack.add(row);
+                    continue;
+                }
+                int parentRow = rowsById.getOrDefault(parentIds.get(row), -1);
+                if (parentRow >= 0) {
+                    nextSibling[row] = firstChild[parentRow];
+                    firstChild[parentRow] = row;
+                }
+            }
+
+            /* Iterative pre-order walk from the roots */
+            long[] walkIds = new long[rows];
+            int[] walkParents = new int[rows];
+            double[] walkAmounts = new double[rows];
+            int[] positions = new int[rows];
+            int size = 0;
+            while (!stack.isEmpty()) {
+                int row = stack.remove(stack.size() - 1);
+                positions[row] = size;
+                walkIds[size] = ids.get(row);
+                walkParents[size] = roots.get(row) ? -1 : positions[rowsById.get(parentIds.get(row))];
+                walkAmounts[size] = amounts.get(row);
+                size++;
+                for (int child = firstChild[row]; child >= 0; child = nextSibling[child]) {
+                    stack.add(child);
+                }
+            }
+            return new Hierarchy(Arrays.copyOf(walkIds, size), Arrays.copyOf(walkParents, size),
+                    Arrays.copyOf(walkAmounts, size), rows - size);
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        public long getId(int position) {
+            return ids[position];
+        }
+
+        /**
+         * @return the position of the parent, before the given one, or -1 for a root
+         */
+        public int getParent(int position) {
+            return parents[position];
+        }
+
+        /**
+         * @return the amount, 0 if the transaction has none
+         */
+        public double getAmount(int position) {
+            return amounts[position];
+        }
+
+        public int getUnreachable() {
+            return unreachable;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.jbourdon.springRestExample.config.liquibase;
+
+import org.jbourdon.springRestExample.domain.TransactionPath;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Compute the root, the depth and the materialized path of the existing transactions, see TransactionPath.
+ */
+public class TransactionPathChange extends TransactionHierarchyChange {
+
+    @Override
+    protected int backfill(Connection connection, Hierarchy hierarchy) throws SQLException {
+        long[] roots = new long[hierarchy.size()];
+        int[] depths = new int[hierarchy.size()];
+        String[] paths = new String[hierarchy.size()];
+        int rows = 0;
+        try (PreparedStatement statement = connection.prepareStatement(
+                "update transaction set root_id = ?, depth = ?, path = ? where id = ?")) {
+            for (int position = 0; position < hierarchy.size(); position++) {
+                long id = hierarchy.getId(position);
+                int parent = hierarchy.getParent(position);
+                roots[position] = parent < 0 ? id : roots[parent];
+                depths[position] = parent < 0 ? 0 : depths[parent] + 1;
+                paths[position] = parent < 0 ? TransactionPath.of(null, id) : TransactionPath.ofChild(paths[parent], id);
+                statement.setLong(1, roots[position]);
+                statement.setInt(2, depths[position]);
+                statement.setObject(3, paths[position], Types.VARCHAR);
+                statement.setLong(4, id);
+                addBatch(statement, ++rows);
+            }
+            statement.executeBatch();
+        }
+        return rows;
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "Paths of the existing transactions computed";
+    }
+}
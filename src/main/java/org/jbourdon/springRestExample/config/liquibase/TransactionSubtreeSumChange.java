@@ -0,0 +1,40 @@
+package org.jbourdon.springRestExample.config.liquibase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Compute the subtree sum of the existing transactions, accumulated from the leaves up in a single pass.
+ * Only the sums other than the default 0 of the column are written.
+ */
+public class TransactionSubtreeSumChange extends TransactionHierarchyChange {
+
+    @Override
+    protected int backfill(Connection connection, Hierarchy hierarchy) throws SQLException {
+        double[] sums = new double[hierarchy.size()];
+        for (int position = hierarchy.size() - 1; position >= 0; position--) {
+            sums[position] += hierarchy.getAmount(position);
+            if (hierarchy.getParent(position) >= 0) {
+                sums[hierarchy.getParent(position)] += sums[position];
+            }
+        }
+        int rows = 0;
+        try (PreparedStatement statement = connection.prepareStatement("update transaction set subtree_sum = ? where id = ?")) {
+            for (int position = 0; position < hierarchy.size(); position++) {
+                if (sums[position] != 0d) {
+                    statement.setDouble(1, sums[position]);
+                    statement.setLong(2, hierarchy.getId(position));
+                    addBatch(statement, ++rows);
+                }
+            }
+            statement.executeBatch();
+        }
+        return rows;
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "Subtree sums of the existing transactions computed";
+    }
+}
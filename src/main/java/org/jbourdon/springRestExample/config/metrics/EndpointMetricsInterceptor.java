@@ -0,0 +1,64 @@
+package org.jbourdon.springRestExample.config.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MVC interceptor recording for each REST endpoint its latency, its errors (4xx and 5xx responses or exceptions),
+ * and the number of Hibernate statements and entity loads of each request.
+ * An asynchronous request is timed from its first dispatch to the completion of the dispatch of its result.
+ */
+public class EndpointMetricsInterceptor extends HandlerInterceptorAdapter {
+
+    private static final String START_ATTRIBUTE = EndpointMetricsInterceptor.class.getName() + ".start";
+
+    private static final String COUNTS_ATTRIBUTE = EndpointMetricsInterceptor.class.getName() + ".counts";
+
+    private final MetricRegistry metricRegistry;
+
+    public EndpointMetricsInterceptor(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            HibernateStatementInterceptor.Counts counts = (HibernateStatementInterceptor.Counts) request.getAttribute(COUNTS_ATTRIBUTE);
+            if (counts != null) {
+                HibernateStatementInterceptor.bind(counts);
+            }
+        } else {
+            request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+            request.setAttribute(COUNTS_ATTRIBUTE, HibernateStatementInterceptor.reset());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Long start = (Long) request.getAttribute(START_ATTRIBUTE);
+        HibernateStatementInterceptor.Counts counts = (HibernateStatementInterceptor.Counts) request.getAttribute(COUNTS_ATTRIBUTE);
+        if (start == null || counts == null || !(handler instanceof HandlerMethod)) {
+            return;
+        }
+        HandlerMethod handlerMethod = (HandlerMethod) handler;
+        String name = MetricRegistry.name("rest", handlerMethod.getBeanType().getSimpleName(), handlerMethod.getMethod().getName());
+        HdrMetrics.timer(metricRegistry, name).update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (ex != null || response.getStatus() >= 400) {
+            metricRegistry.meter(MetricRegistry.name(name, "errors")).mark();
+        }
+        HdrMetrics.histogram(metricRegistry, MetricRegistry.name(name, "hibernate", "statements"))
+                .update(counts.getStatementCount());
+        HdrMetrics.histogram(metricRegistry, MetricRegistry.name(name, "hibernate", "entity-loads"))
+                .update(counts.getEntityLoadCount());
+    }
+}
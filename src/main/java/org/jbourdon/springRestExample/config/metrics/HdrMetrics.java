@@ -0,0 +1,37 @@
+package org.jbourdon.springRestExample.config.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.mpierce.metrics.reservoir.hdrhistogram.HdrHistogramReservoir;
+
+/**
+ * Utility class creating timers and histograms backed by HDR histograms, whose percentiles are exact
+ * up to the histogram precision instead of being sampled.
+ */
+public final class HdrMetrics {
+
+    private HdrMetrics() {
+    }
+
+    public static Timer timer(MetricRegistry metricRegistry, String name) {
+        Timer timer = metricRegistry.getTimers().get(name);
+        return timer != null ? timer : register(metricRegistry, name, new Timer(new HdrHistogramReservoir()));
+    }
+
+    public static Histogram histogram(MetricRegistry metricRegistry, String name) {
+        Histogram histogram = metricRegistry.getHistograms().get(name);
+        return histogram != null ? histogram : register(metricRegistry, name, new Histogram(new HdrHistogramReservoir()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Metric> T register(MetricRegistry metricRegistry, String name, T metric) {
+        try {
+            return metricRegistry.register(name, metric);
+        } catch (IllegalArgumentException e) {
+            /* Registered concurrently by another thread */
+            return (T) metricRegistry.getMetrics().get(name);
+        }
+    }
+}
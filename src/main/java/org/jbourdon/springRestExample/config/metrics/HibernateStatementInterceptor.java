@@ -0,0 +1,99 @@
+package org.jbourdon.springRestExample.config.metrics;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hibernate interceptor counting the SQL statements prepared and the entities loaded for the current request,
+ * so that N+1 selects show up in the per request metrics.
+ * The counters are bound to the thread handling the request, and to the threads of the tasks run for it.
+ * It is registered with the <code>hibernate.ejb.interceptor</code> property.
+ */
+public class HibernateStatementInterceptor extends EmptyInterceptor {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadLocal<Counts> COUNTS = ThreadLocal.withInitial(Counts::new);
+
+    /**
+     * Reset the counters of the current thread.
+     *
+     * @return the new counters of the current thread
+     */
+    public static Counts reset() {
+        Counts counts = new Counts();
+        COUNTS.set(counts);
+        return counts;
+    }
+
+    /**
+     * Count the statements of the current thread in existing counters, e.g. those of a request dispatched again.
+     *
+     * @param counts the counters
+     */
+    public static void bind(Counts counts) {
+        COUNTS.set(counts);
+    }
+
+    /**
+     * Wrap a task run by another thread, so that its statements are counted with those of the current thread.
+     *
+     * @param task the task
+     * @param <T> the type of the result of the task
+     * @return the task counting its statements in the counters of the current thread
+     */
+    public static <T> Callable<T> counting(Callable<T> task) {
+        Counts counts = COUNTS.get();
+        return () -> {
+            Counts previous = COUNTS.get();
+            COUNTS.set(counts);
+            try {
+                return task.call();
+            } finally {
+                COUNTS.set(previous);
+            }
+        };
+    }
+
+    public static long getStatementCount() {
+        return COUNTS.get().getStatementCount();
+    }
+
+    public static long getEntityLoadCount() {
+        return COUNTS.get().getEntityLoadCount();
+    }
+
+    @Override
+    public String onPrepareStatement(String sql) {
+        COUNTS.get().statements.increment();
+        return sql;
+    }
+
+    @Override
+    public boolean onLoad(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        COUNTS.get().entityLoads.increment();
+        return false;
+    }
+
+    /**
+     * Counters of a request, incremented by the threads working for it
+     */
+    public static final class Counts {
+
+        private final LongAdder statements = new LongAdder();
+
+        private final LongAdder entityLoads = new LongAdder();
+
+        public long getStatementCount() {
+            return statements.sum();
+        }
+
+        public long getEntityLoadCount() {
+            return entityLoads.sum();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.jbourdon.springRestExample.config.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.dropwizard.DropwizardExports;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Configuration of the application metrics: latency of the REST endpoints and of the repositories,
+ * exposed as JSON and in the Prometheus text format by WebConfigurer.
+ */
+@Configuration
+public class MetricsConfiguration extends WebMvcConfigurerAdapter {
+
+    private static final String REPOSITORY_PACKAGE = "org.jbourdon.springRestExample.repository";
+
+    @Bean
+    public MetricRegistry metricRegistry() {
+        return new MetricRegistry();
+    }
+
+    @Bean
+    public CollectorRegistry collectorRegistry(MetricRegistry metricRegistry) {
+        CollectorRegistry collectorRegistry = new CollectorRegistry();
+        new DropwizardExports(metricRegistry).register(collectorRegistry);
+        return collectorRegistry;
+    }
+
+    /**
+     * Advisor timing the repository calls. As an infrastructure bean, it is applied by the same auto proxy creator
+     * as the transaction advisor, to the Spring Data repositories as well as to the JDBC ones.
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    public Advisor repositoryMetricsAdvisor(MetricRegistry metricRegistry) {
+        RepositoryMetricsInterceptor interceptor = new RepositoryMetricsInterceptor(metricRegistry, REPOSITORY_PACKAGE);
+        return new DefaultPointcutAdvisor(new ComposablePointcut(interceptor::isRepository), interceptor);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new EndpointMetricsInterceptor(metricRegistry()));
+    }
+}
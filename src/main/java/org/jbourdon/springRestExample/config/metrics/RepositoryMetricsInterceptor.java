@@ -0,0 +1,68 @@
+package org.jbourdon.springRestExample.config.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * AOP interceptor timing every call to the repositories of the application.
+ */
+public class RepositoryMetricsInterceptor implements MethodInterceptor {
+
+    private final MetricRegistry metricRegistry;
+
+    private final String repositoryPackage;
+
+    /* Spring Data repositories share the methods of their base interfaces, so the timers are kept per repository */
+    private final Map<Class<?>, Map<Method, Timer>> timers = new ConcurrentHashMap<>();
+
+    public RepositoryMetricsInterceptor(MetricRegistry metricRegistry, String repositoryPackage) {
+        this.metricRegistry = metricRegistry;
+        this.repositoryPackage = repositoryPackage;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object repository = invocation.getThis();
+        Timer timer = timers.computeIfAbsent(repository.getClass(), repositoryClass -> new ConcurrentHashMap<>())
+                .computeIfAbsent(invocation.getMethod(), method ->
+                        HdrMetrics.timer(metricRegistry, MetricRegistry.name("repository", repositoryName(repository), method.getName())));
+        try (Timer.Context ignored = timer.time()) {
+            return invocation.proceed();
+        }
+    }
+
+    /**
+     * Find the name of the repository: the interface of a Spring Data repository, or the class of a plain one.
+     */
+    private String repositoryName(Object repository) {
+        for (Class<?> repositoryInterface : ClassUtils.getAllInterfaces(repository)) {
+            if (repositoryInterface.getName().startsWith(repositoryPackage)) {
+                return repositoryInterface.getSimpleName();
+            }
+        }
+        return ClassUtils.getUserClass(repository).getSimpleName();
+    }
+
+    /**
+     * @param targetClass the class of a bean
+     * @return true if the bean is one of the repositories of the application
+     */
+    public boolean isRepository(Class<?> targetClass) {
+        if (targetClass.getName().startsWith(repositoryPackage)) {
+            return true;
+        }
+        for (Class<?> targetInterface : ClassUtils.getAllInterfacesForClassAsSet(targetClass)) {
+            if (targetInterface.getName().startsWith(repositoryPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -3,20 +3,26 @@ package org.jbourdon.springRestExample.domain;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonView;
+import org.hibernate.annotations.BatchSize;
 
 import javax.persistence.*;
 import java.io.Serializable;
-import java.util.HashSet;
-import java.util.Objects;
-import java.util.Optional;
-import java.util.Set;
+import java.util.*;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A Transaction entity.
+ * The parent is lazy: loading a transaction never walks up its ancestors, the id of the parent is
+ * mapped a second time as a read-only column so that it can be read without initializing the parent.
+ * No entity graph is declared: the REST view only holds columns of the row, so a lookup is already a single select,
+ * and the service reads subtrees through the closure table and the materialized paths rather than the children.
+ * A walk of the children collections costs one select per level and per 100 transactions, through the batch sizes.
+ * The root, the depth and the materialized path of the transaction are maintained by the service layer, see TransactionPath.
  */
 @Entity
 @Table(name = "transaction")
+@BatchSize(size = 100)
 public class Transaction implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -32,11 +38,36 @@ public class Transaction implements Serializable {
     @JsonView(TransactionView.Minimal.class)
     private String type;
 
-    @ManyToOne
+    @Column(name = "type_id")
+    @JsonIgnore
+    private Integer typeId;
+
+    @Column(name = "subtree_sum", nullable = false)
+    @JsonIgnore
+    private Double subtreeSum = 0d;
+
+    @Column(name = "root_id")
+    @JsonIgnore
+    private Long rootId;
+
+    @Column(name = "depth", nullable = false)
+    @JsonIgnore
+    private Integer depth = 0;
+
+    @Column(name = "path", length = TransactionPath.MAX_LENGTH)
+    @JsonIgnore
+    private String path;
+
+    @ManyToOne(fetch = FetchType.LAZY)
     @JsonView(TransactionView.Full.class)
     private Transaction parent;
 
+    @Column(name = "parent_id", insertable = false, updatable = false)
+    @JsonIgnore
+    private Long parentId;
+
     @OneToMany(mappedBy = "parent")
+    @BatchSize(size = 100)
     @JsonIgnore
     private Set<Transaction> children = new HashSet<>();
 
@@ -64,6 +95,83 @@ public class Transaction implements Serializable {
         this.type = type;
     }
 
+    /**
+     * Get the id of the type of this transaction in the transaction type dictionary.
+     * @return the type id
+     */
+    public Integer getTypeId() {
+        return typeId;
+    }
+
+    public void setTypeId(Integer typeId) {
+        this.typeId = typeId;
+    }
+
+    /**
+     * Get the maintained sum of the amounts of this transaction and all its descendants.
+     * It is kept up to date by the service layer on every save and delete.
+     * @return the subtree sum
+     */
+    public Double getSubtreeSum() {
+        return subtreeSum;
+    }
+
+    public void setSubtreeSum(Double subtreeSum) {
+        this.subtreeSum = subtreeSum;
+    }
+
+    /**
+     * Get the id of the root of the tree of this transaction, its own id for a root.
+     * @return the root id
+     */
+    public Long getRootId() {
+        return rootId;
+    }
+
+    public void setRootId(Long rootId) {
+        this.rootId = rootId;
+    }
+
+    /**
+     * Get the number of ancestors of this transaction, 0 for a root.
+     * @return the depth
+     */
+    public Integer getDepth() {
+        return depth;
+    }
+
+    public void setDepth(Integer depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * Get the materialized path of this transaction, encoded by TransactionPath.
+     * @return the path, or null if the transaction is too deep to have one
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Compute the root, the depth and the path of this transaction from its id and the ones of its parent.
+     * The path is left null if it would be too long, see TransactionPath.
+     */
+    public void updatePath() {
+        if (parent == null) {
+            rootId = id;
+            depth = 0;
+            path = TransactionPath.of(null, id);
+        } else {
+            rootId = parent.getRootId();
+            depth = parent.getDepth() + 1;
+            path = TransactionPath.ofChild(parent.getPath(), id);
+        }
+    }
+
     public Transaction getParent() {
         return parent;
     }
@@ -71,11 +179,16 @@ public class Transaction implements Serializable {
     @JsonProperty(value = "parent_id")
     @JsonView(TransactionView.Rest.class)
     public Long getParentId() {
-        return Optional.ofNullable(parent).map(Transaction::getId).orElse(null);
+        if (parent == null) {
+            return null;
+        }
+        /* The parent may not have had its id yet when it was set */
+        return parentId != null ? parentId : parent.getId();
     }
 
     public void setParent(Transaction transaction) {
         this.parent = transaction;
+        this.parentId = transaction == null ? null : transaction.getId();
         if (transaction != null) {
             transaction.addChild(this);
         }
@@ -97,29 +210,55 @@ public class Transaction implements Serializable {
     }
 
     /**
-     * Get a flattened stream of this transaction and its children.
+     * Get a flattened stream of this transaction and its descendants, walked with an explicit stack
+     * so that deep trees cannot overflow the thread stack.
      * This method can be used to do further operations such as sum or filtering
-     * @return the stream of this transaction and its children
+     * @return the stream of this transaction and its descendants, this transaction first
      */
     public Stream<Transaction> flattened() {
-        return Stream.concat(Stream.of(this), children.stream().flatMap(Transaction::flattened));
+        Deque<Transaction> stack = new ArrayDeque<>();
+        stack.push(this);
+        Iterator<Transaction> iterator = new Iterator<Transaction>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Transaction next() {
+                Transaction transaction = stack.pop();
+                transaction.getChildren().forEach(stack::push);
+                return transaction;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false);
     }
 
     /**
-     * Detect if a transaction creates a cycle in the parent-child transaction tree structure
+     * Detect if a transaction creates a cycle in the parent-child transaction tree structure.
+     * Children are the inverse of the parent relation, so only the ancestors are walked: the cost
+     * is the depth of the transaction, whatever the size of its subtree.
      * @return true if we detect a cycle
      */
     public boolean hasCycle() {
-        /* Detect if transaction is transitively its own parent */
+        /* Detect if transaction is transitively its own parent, the tortoise catches loops above it */
+        Transaction tortoise = this;
+        boolean advanceTortoise = false;
         Transaction parent = this.getParent();
         while (parent != null) {
             if (this.equals(parent)) {
                 return true;
             }
+            if (advanceTortoise) {
+                tortoise = tortoise.getParent();
+                if (parent.equals(tortoise)) {
+                    return true;
+                }
+            }
+            advanceTortoise = !advanceTortoise;
             parent = parent.getParent();
         }
-        /* Detect if transaction is transitively its own child */
-        return this.flattened().filter(this::equals).count() > 1;
+        return false;
     }
 
     @Override
@@ -127,11 +266,12 @@ public class Transaction implements Serializable {
         if (this == o) {
             return true;
         }
-        if (o == null || getClass() != o.getClass()) {
+        /* The other transaction may be a lazy proxy, a subclass whose fields are not populated */
+        if (!(o instanceof Transaction)) {
             return false;
         }
-        Transaction transaction = (Transaction) o;
-        return !(transaction.id == null || id == null) && Objects.equals(id, transaction.id);
+        Long otherId = ((Transaction) o).getId();
+        return !(otherId == null || id == null) && Objects.equals(id, otherId);
     }
 
     @Override
@@ -145,7 +285,7 @@ public class Transaction implements Serializable {
                 "id=" + id +
                 ", amount='" + amount + "'" +
                 ", type='" + type + "'" +
-                ", parent='" + parent + "'" +
+                ", parentId='" + getParentId() + "'" +
                 '}';
     }
 }
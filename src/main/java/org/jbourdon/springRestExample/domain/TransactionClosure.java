@@ -0,0 +1,98 @@
+package org.jbourdon.springRestExample.domain;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * A row of the closure table of the transaction tree: one row per (ancestor, descendant) pair,
+ * including the (transaction, transaction) pair at depth 0.
+ */
+@Entity
+@Table(name = "transaction_closure")
+@IdClass(TransactionClosure.Key.class)
+public class TransactionClosure implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "ancestor_id")
+    private Long ancestorId;
+
+    @Id
+    @Column(name = "descendant_id")
+    private Long descendantId;
+
+    @Column(name = "depth", nullable = false)
+    private Integer depth;
+
+    public Long getAncestorId() {
+        return ancestorId;
+    }
+
+    public void setAncestorId(Long ancestorId) {
+        this.ancestorId = ancestorId;
+    }
+
+    public Long getDescendantId() {
+        return descendantId;
+    }
+
+    public void setDescendantId(Long descendantId) {
+        this.descendantId = descendantId;
+    }
+
+    public Integer getDepth() {
+        return depth;
+    }
+
+    public void setDepth(Integer depth) {
+        this.depth = depth;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionClosure{" +
+                "ancestorId=" + ancestorId +
+                ", descendantId=" + descendantId +
+                ", depth=" + depth +
+                '}';
+    }
+
+    /**
+     * Composite identifier of a closure row
+     */
+    public static class Key implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private Long ancestorId;
+
+        private Long descendantId;
+
+        public Key() {
+        }
+
+        public Key(Long ancestorId, Long descendantId) {
+            this.ancestorId = ancestorId;
+            this.descendantId = descendantId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(ancestorId, key.ancestorId) && Objects.equals(descendantId, key.descendantId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ancestorId, descendantId);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.jbourdon.springRestExample.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encoding of the materialized path of a transaction: the ids of its root, of its ancestors and of itself, in this
+ * order, each one in base 36 and terminated by a separator, such as "1/2s/a1b/".
+ * <p>
+ * The path of a transaction is a prefix of the paths of all its descendants and of none other, so that the subtree
+ * of a transaction is a range of the index of the path column.
+ * <p>
+ * The paths are at most {@link #MAX_LENGTH} characters long, which is a depth of 142 transactions with the
+ * largest ids, and more with smaller ones. A transaction whose path would be longer has none, and neither do its
+ * descendants, whose paths would be longer still. The ancestry of those transactions is read from the closure table.
+ */
+public final class TransactionPath {
+
+    /**
+     * Maximum length of a path, the size of the path column. The entries of a PostgreSQL btree index are limited to
+     * a third of a page, 2704 bytes, and the paths are ASCII.
+     */
+    public static final int MAX_LENGTH = 2000;
+
+    private static final char SEPARATOR = '/';
+
+    private static final int RADIX = Character.MAX_RADIX;
+
+    /**
+     * Length of the longest id in the path, with its separator
+     */
+    private static final int MAX_SEGMENT_LENGTH = Long.toString(Long.MIN_VALUE, RADIX).length() + 1;
+
+    private TransactionPath() {
+    }
+
+    /**
+     * @param parentPath the path of the parent, or null for a root
+     * @param id the id of the transaction
+     * @return the path of the transaction, or null if it is longer than {@link #MAX_LENGTH}
+     */
+    public static String of(String parentPath, Long id) {
+        String path = (parentPath == null ? "" : parentPath) + Long.toString(id, RADIX) + SEPARATOR;
+        return path.length() > MAX_LENGTH ? null : path;
+    }
+
+    /**
+     * @param parentPath the path of the parent, null if the parent has none
+     * @param id the id of the transaction
+     * @return the path of the child transaction, or null if the parent has none or if it is longer than {@link #MAX_LENGTH}
+     */
+    public static String ofChild(String parentPath, Long id) {
+        return parentPath == null ? null : of(parentPath, id);
+    }
+
+    /**
+     * @param length the length of the longest path of a subtree
+     * @return true if every child of the transactions of the subtree has a path, so that their paths all follow the
+     * ones of their parents
+     */
+    public static boolean fitsChildren(int length) {
+        return length + MAX_SEGMENT_LENGTH <= MAX_LENGTH;
+    }
+
+    /**
+     * @param path the path of a transaction
+     * @return the LIKE pattern matching the paths of all the descendants of the transaction, not the transaction itself
+     */
+    public static String descendantsPattern(String path) {
+        return path + "_%";
+    }
+
+    /**
+     * @param path the path of a transaction
+     * @return the ids of the ancestors of the transaction, parent first
+     */
+    public static List<Long> ancestorIds(String path) {
+        List<Long> ids = new ArrayList<>();
+        int end = path.length() - 1;
+        int start = path.lastIndexOf(SEPARATOR, end - 1) + 1;
+        while (start > 0) {
+            end = start - 1;
+            start = path.lastIndexOf(SEPARATOR, end - 1) + 1;
+            ids.add(Long.parseLong(path.substring(start, end), RADIX));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,63 @@
+package org.jbourdon.springRestExample.domain;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * An entry of the transaction type dictionary: each distinct type name is interned as a small integer id.
+ */
+@Entity
+@Table(name = "transaction_type")
+public class TransactionType implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "name", nullable = false, unique = true)
+    private String name;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        TransactionType transactionType = (TransactionType) o;
+        return !(transactionType.id == null || id == null) && Objects.equals(id, transactionType.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id);
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionType{" +
+                "id=" + id +
+                ", name='" + name + "'" +
+                '}';
+    }
+}
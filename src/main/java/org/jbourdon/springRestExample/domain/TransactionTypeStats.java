@@ -0,0 +1,100 @@
+package org.jbourdon.springRestExample.domain;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * The aggregates of the amounts of the transactions of one type, maintained by each write.
+ * The sum is 0 and the bounds are null while no transaction of the type has an amount.
+ */
+@Entity
+@Table(name = "transaction_type_stats")
+public class TransactionTypeStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "type_id")
+    private Integer typeId;
+
+    @Column(name = "transaction_count", nullable = false)
+    private Long count;
+
+    @Column(name = "amount_sum", nullable = false)
+    private Double sum;
+
+    @Column(name = "amount_min")
+    private Double min;
+
+    @Column(name = "amount_max")
+    private Double max;
+
+    public Integer getTypeId() {
+        return typeId;
+    }
+
+    public void setTypeId(Integer typeId) {
+        this.typeId = typeId;
+    }
+
+    public Long getCount() {
+        return count;
+    }
+
+    public void setCount(Long count) {
+        this.count = count;
+    }
+
+    public Double getSum() {
+        return sum;
+    }
+
+    public void setSum(Double sum) {
+        this.sum = sum;
+    }
+
+    public Double getMin() {
+        return min;
+    }
+
+    public void setMin(Double min) {
+        this.min = min;
+    }
+
+    public Double getMax() {
+        return max;
+    }
+
+    public void setMax(Double max) {
+        this.max = max;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        TransactionTypeStats transactionTypeStats = (TransactionTypeStats) o;
+        return !(transactionTypeStats.typeId == null || typeId == null) && Objects.equals(typeId, transactionTypeStats.typeId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(typeId);
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionTypeStats{" +
+                "typeId=" + typeId +
+                ", count=" + count +
+                ", sum=" + sum +
+                ", min=" + min +
+                ", max=" + max +
+                '}';
+    }
+}
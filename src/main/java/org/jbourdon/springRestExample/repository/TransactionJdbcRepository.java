@@ -0,0 +1,312 @@
+package org.jbourdon.springRestExample.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * JDBC repository for the bulk operations on transactions, too large to go through JPA:
+ * cursors streaming rows one by one and batched inserts.
+ */
+@Repository
+public class TransactionJdbcRepository {
+
+    private final Logger log = LoggerFactory.getLogger(TransactionJdbcRepository.class);
+
+    private static final int FETCH_SIZE = 1000;
+
+    private static final int IN_CLAUSE_SIZE = 1000;
+
+    /**
+     * Database products known to support WITH RECURSIVE, as named by JdbcUtils.commonDatabaseName
+     */
+    private static final Set<String> RECURSIVE_CTE_DATABASES = new HashSet<>(Arrays.asList("H2", "PostgreSQL", "HSQL Database Engine"));
+
+    /*
+     * The union of the subtrees of several transactions. H2 ignores the parameters of the anchor member of a recursive
+     * query, the ids are written as literals instead, they are longs so there is nothing to escape. The walk does not
+     * descend into the given transactions a second time, so that each transaction of the union is read once.
+     */
+    private static final String SUBTREE_UNION_CTE = "with recursive subtree(id, parent_id, amount) as (" +
+            "select id, parent_id, amount from transaction where id in (%1$s) " +
+            "union all select t.id, t.parent_id, t.amount from transaction t, subtree s " +
+            "where t.parent_id = s.id and t.id not in (%1$s)) ";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private final SubtreeQueries subtreeQueries;
+
+    @Inject
+    public TransactionJdbcRepository(DataSource dataSource,
+                                     @Value("${transactions.hierarchy.subtree-queries:}") String subtreeQueries) {
+        this(dataSource, subtreeQueries.isEmpty() ? detectSubtreeQueries(dataSource) : SubtreeQueries.fromProperty(subtreeQueries));
+    }
+
+    public TransactionJdbcRepository(DataSource dataSource, SubtreeQueries subtreeQueries) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.subtreeQueries = subtreeQueries;
+        log.debug("Subtree queries use {}", subtreeQueries);
+    }
+
+    public SubtreeQueries getSubtreeQueries() {
+        return subtreeQueries;
+    }
+
+    /**
+     * Read the maintained columns of a transaction as they are in the database. Unlike a JPA query, it does not
+     * flush the persistence context first, so the changes made in place to a managed entity are not written yet.
+     *
+     * @param id the id of the transaction
+     * @return the stored transaction, or null if there is no such transaction
+     */
+    public StoredTransaction findStoredTransaction(long id) {
+        List<StoredTransaction> stored = jdbcTemplate.query(
+                "select parent_id, type_id, amount, subtree_sum, path, depth from transaction where id = ?",
+                (rs, rowNum) -> new StoredTransaction(
+                        (Long) JdbcUtils.getResultSetValue(rs, 1, Long.class),
+                        (Integer) JdbcUtils.getResultSetValue(rs, 2, Integer.class),
+                        (Double) JdbcUtils.getResultSetValue(rs, 3, Double.class),
+                        rs.getDouble(4), rs.getString(5), rs.getInt(6)),
+                id);
+        return stored.isEmpty() ? null : stored.get(0);
+    }
+
+    /**
+     * Stream the ids of the transactions of a type, in ascending order.
+     * It runs in a read-only transaction so that drivers such as PostgreSQL really use a server side cursor.
+     *
+     * @param typeId the id of the type in the transaction type dictionary
+     * @param consumer the consumer called for each id
+     */
+    @Transactional(readOnly = true)
+    public void streamIdsByTypeId(Integer typeId, LongConsumer consumer) {
+        jdbcTemplate.query("select id from transaction where type_id = ? order by id",
+                (RowCallbackHandler) rs -> consumer.accept(rs.getLong(1)),
+                typeId);
+    }
+
+    /**
+     * Stream the hierarchy of all the transactions, one row at a time.
+     *
+     * @param consumer the consumer called for each transaction
+     */
+    @Transactional(readOnly = true)
+    public void streamHierarchy(HierarchyRowConsumer consumer) {
+        jdbcTemplate.query("select id, parent_id, amount, type_id from transaction",
+                (RowCallbackHandler) rs -> {
+                    long parentId = rs.getLong(2);
+                    Long parent = rs.wasNull() ? null : parentId;
+                    double amount = rs.getDouble(3);
+                    int typeId = rs.getInt(4);
+                    consumer.accept(rs.getLong(1), parent, amount, rs.wasNull() ? HierarchyRowConsumer.NO_TYPE : typeId);
+                });
+    }
+
+    /**
+     * Stream all the transactions with their maintained subtree sum, from a single query so that they are all
+     * read as of the same point in time.
+     *
+     * @param consumer the consumer called for each transaction
+     */
+    @Transactional(readOnly = true)
+    public void streamSnapshot(SnapshotRowConsumer consumer) {
+        jdbcTemplate.query("select id, parent_id, amount, type_id, subtree_sum from transaction",
+                (RowCallbackHandler) rs -> {
+                    long parentId = rs.getLong(2);
+                    Long parent = rs.wasNull() ? null : parentId;
+                    double amount = rs.getDouble(3);
+                    Double nullableAmount = rs.wasNull() ? null : amount;
+                    int typeId = rs.getInt(4);
+                    int nullableTypeId = rs.wasNull() ? HierarchyRowConsumer.NO_TYPE : typeId;
+                    consumer.accept(rs.getLong(1), parent, nullableAmount, nullableTypeId, rs.getDouble(5));
+                });
+    }
+
+    /**
+     * Insert transactions with JDBC batches, the parent of each one being already inserted or before it in the rows.
+     *
+     * @param rows the (id, amount, type, type id, subtree sum, parent id, root id, depth, path) rows
+     */
+    public void batchInsertTransactions(List<Object[]> rows) {
+        jdbcTemplate.batchUpdate("insert into transaction (id, amount, type, type_id, subtree_sum, parent_id, root_id, depth, path) " +
+                "values (?, ?, ?, ?, ?, ?, ?, ?, ?)", rows);
+    }
+
+    /**
+     * Insert closure table rows with JDBC batches.
+     *
+     * @param rows the (ancestor id, descendant id, depth) rows
+     */
+    public void batchInsertClosures(List<Object[]> rows) {
+        jdbcTemplate.batchUpdate("insert into transaction_closure (ancestor_id, descendant_id, depth) values (?, ?, ?)", rows);
+    }
+
+    /**
+     * Read the union of the subtrees of several transactions by walking the parent links in the database,
+     * each transaction of the union being given once.
+     *
+     * @param ids the ids of the transactions, at most 1000
+     * @param consumer the consumer called for each transaction of the union, without type
+     */
+    @Transactional(readOnly = true)
+    public void streamSubtreeUnion(Collection<Long> ids, HierarchyRowConsumer consumer) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        if (ids.size() > IN_CLAUSE_SIZE) {
+            throw new IllegalArgumentException("At most " + IN_CLAUSE_SIZE + " subtrees can be read at once");
+        }
+        RowCallbackHandler handler = rs -> {
+            long parentId = rs.getLong(2);
+            Long parent = rs.wasNull() ? null : parentId;
+            consumer.accept(rs.getLong(1), parent, rs.getDouble(3), HierarchyRowConsumer.NO_TYPE);
+        };
+        if (subtreeQueries == SubtreeQueries.RECURSIVE_CTE) {
+            String literals = ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+            jdbcTemplate.query(String.format(SUBTREE_UNION_CTE, literals) + "select id, parent_id, amount from subtree", handler);
+            return;
+        }
+        Set<Long> visited = new HashSet<>();
+        List<Long> level = new ArrayList<>();
+        namedParameterJdbcTemplate.query("select id, parent_id, amount from transaction where id in (:ids)",
+                Collections.singletonMap("ids", ids),
+                (RowCallbackHandler) rs -> {
+                    visited.add(rs.getLong(1));
+                    level.add(rs.getLong(1));
+                    handler.processRow(rs);
+                });
+        while (!level.isEmpty()) {
+            List<Long> nextLevel = new ArrayList<>();
+            for (int from = 0; from < level.size(); from += IN_CLAUSE_SIZE) {
+                List<Long> chunk = level.subList(from, Math.min(from + IN_CLAUSE_SIZE, level.size()));
+                namedParameterJdbcTemplate.query("select id, parent_id, amount from transaction where parent_id in (:ids)",
+                        Collections.singletonMap("ids", chunk),
+                        (RowCallbackHandler) rs -> {
+                            /* The given transactions are already read, and a corrupted hierarchy could cycle */
+                            if (visited.add(rs.getLong(1))) {
+                                nextLevel.add(rs.getLong(1));
+                                handler.processRow(rs);
+                            }
+                        });
+            }
+            level.clear();
+            level.addAll(nextLevel);
+        }
+    }
+
+    private static SubtreeQueries detectSubtreeQueries(DataSource dataSource) {
+        try {
+            String product = JdbcUtils.commonDatabaseName(
+                    (String) JdbcUtils.extractDatabaseMetaData(dataSource, "getDatabaseProductName"));
+            return RECURSIVE_CTE_DATABASES.contains(product) ? SubtreeQueries.RECURSIVE_CTE : SubtreeQueries.BREADTH_FIRST;
+        } catch (MetaDataAccessException e) {
+            return SubtreeQueries.BREADTH_FIRST;
+        }
+    }
+
+    /**
+     * How the subtree of a transaction is read from the database
+     */
+    public enum SubtreeQueries {
+        /**
+         * One WITH RECURSIVE query
+         */
+        RECURSIVE_CTE,
+        /**
+         * One query per level of the subtree
+         */
+        BREADTH_FIRST;
+
+        static SubtreeQueries fromProperty(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    /**
+     * The maintained columns of a transaction, as stored in the database
+     */
+    public static final class StoredTransaction {
+
+        private final Long parentId;
+
+        private final Integer typeId;
+
+        private final Double amount;
+
+        private final double subtreeSum;
+
+        private final String path;
+
+        private final int depth;
+
+        StoredTransaction(Long parentId, Integer typeId, Double amount, double subtreeSum, String path, int depth) {
+            this.parentId = parentId;
+            this.typeId = typeId;
+            this.amount = amount;
+            this.subtreeSum = subtreeSum;
+            this.path = path;
+            this.depth = depth;
+        }
+
+        public Long getParentId() {
+            return parentId;
+        }
+
+        public Integer getTypeId() {
+            return typeId;
+        }
+
+        public Double getAmount() {
+            return amount;
+        }
+
+        public double getSubtreeSum() {
+            return subtreeSum;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+    }
+
+    /**
+     * Consumer of the rows of the transaction hierarchy
+     */
+    @FunctionalInterface
+    public interface HierarchyRowConsumer {
+
+        int NO_TYPE = -1;
+
+        void accept(long id, Long parentId, double amount, int typeId);
+    }
+
+    /**
+     * Consumer of the rows of a snapshot of the transactions
+     */
+    @FunctionalInterface
+    public interface SnapshotRowConsumer {
+
+        void accept(long id, Long parentId, Double amount, int typeId, double subtreeSum);
+    }
+}
@@ -2,8 +2,12 @@ package org.jbourdon.springRestExample.repository;
 
 import org.jbourdon.springRestExample.domain.Transaction;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.*;
 
+import javax.persistence.LockModeType;
+
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -12,5 +16,242 @@ import java.util.List;
 @SuppressWarnings("unused")
 public interface TransactionRepository extends JpaRepository<Transaction,Long> {
 
-    List<Transaction> findAllByType(String type);
+    long countByIdIn(Collection<Long> ids);
+
+    /**
+     * Get the ids of the transactions of a type, answered from the (type_id, id) index without loading any entity.
+     *
+     * @param typeId the id of the type in the transaction type dictionary
+     * @return the transaction ids
+     */
+    @Query("select t.id from Transaction t where t.typeId = ?1")
+    List<Long> findIdsByTypeId(Integer typeId);
+
+    /**
+     * Get a page of the ids of the transactions of a type, using the last id of the previous page as a cursor.
+     *
+     * @param typeId the id of the type in the transaction type dictionary
+     * @param after the last id of the previous page
+     * @param pageable the page size, the page number is expected to always be 0
+     * @return the transaction ids greater than the cursor, in ascending order
+     */
+    @Query("select t.id from Transaction t where t.typeId = ?1 and t.id > ?2 order by t.id")
+    List<Long> findIdsByTypeIdAfter(Integer typeId, Long after, Pageable pageable);
+
+    /**
+     * Read the maintained subtree sum of a transaction without loading the entity.
+     *
+     * @param id the id of the transaction
+     * @return the subtree sum, or null if the transaction does not exist
+     */
+    @Query("select t.subtreeSum from Transaction t where t.id = ?1")
+    Double findSubtreeSumById(Long id);
+
+    /**
+     * Read the maintained subtree sums of several transactions without loading the entities.
+     *
+     * @param ids the ids of the transactions
+     * @return the (id, subtree sum) tuples of the existing transactions
+     */
+    @Query("select t.id, t.subtreeSum from Transaction t where t.id in ?1")
+    List<Object[]> findSubtreeSumsByIdIn(Collection<Long> ids);
+
+    /**
+     * Get every transaction as an (id, parent id, amount, subtree sum) tuple, used to check the subtree sums.
+     *
+     * @return the list of tuples
+     */
+    @Query("select t.id, p.id, t.amount, t.subtreeSum from Transaction t left join t.parent p")
+    List<Object[]> findAllSubtreeSumEntries();
+
+    @Modifying
+    @Query("update Transaction t set t.subtreeSum = ?2 where t.id = ?1")
+    int updateSubtreeSum(Long id, Double subtreeSum);
+
+    /**
+     * Add to the subtree sums of a transaction and all its ancestors, found in the closure table.
+     *
+     * @param id the id of the transaction
+     * @param delta the amount to add
+     * @return the number of updated transactions
+     */
+    @Modifying
+    @Query("update Transaction t set t.subtreeSum = t.subtreeSum + ?2 " +
+            "where t.id in (select c.ancestorId from TransactionClosure c where c.descendantId = ?1)")
+    int addToSubtreeSums(Long id, double delta);
+
+    /**
+     * Get the ids of all the descendants of a transaction from the closure table, closest first.
+     *
+     * @param id the id of the transaction
+     * @return the ids of the descendants
+     */
+    @Query("select c.descendantId from TransactionClosure c where c.ancestorId = ?1 and c.depth > 0 order by c.depth")
+    List<Long> findDescendantIds(Long id);
+
+    /**
+     * Get the ids of all the ancestors of a transaction from the closure table, parent first.
+     *
+     * @param id the id of the transaction
+     * @return the ids of the ancestors
+     */
+    @Query("select c.ancestorId from TransactionClosure c where c.descendantId = ?1 and c.depth > 0 order by c.depth")
+    List<Long> findAncestorIds(Long id);
+
+    /**
+     * Get the ids of the roots of the trees of some transactions from their maintained root column.
+     *
+     * @param ids the ids of the transactions
+     * @return the distinct ids of their roots, the transactions which do not exist have none
+     */
+    @Query("select distinct t.rootId from Transaction t where t.id in ?1 and t.rootId is not null")
+    List<Long> findRootIds(Collection<Long> ids);
+
+    /**
+     * Lock the rows of the roots of some trees until the end of the current database transaction, in the order
+     * of their ids so that two writers locking the same roots cannot deadlock.
+     *
+     * @param rootIds the ids of the roots
+     * @return the ids of the locked roots
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select t.id from Transaction t where t.id in ?1 order by t.id")
+    List<Long> lockRoots(Collection<Long> rootIds);
+
+    /**
+     * Read the maintained depth of a transaction without loading the entity.
+     *
+     * @param id the id of the transaction
+     * @return the number of ancestors of the transaction, or null if the transaction does not exist
+     */
+    @Query("select t.depth from Transaction t where t.id = ?1")
+    Integer findDepthById(Long id);
+
+    /**
+     * Read the materialized path of a transaction without loading the entity, see TransactionPath.
+     *
+     * @param id the id of the transaction
+     * @return the path, or null if the transaction does not exist
+     */
+    @Query("select t.path from Transaction t where t.id = ?1")
+    String findPathById(Long id);
+
+    /**
+     * Check ancestry by comparing the materialized paths of two transactions, two primary key lookups.
+     * A tentative descendant too deep to have a path is looked up in the closure table instead.
+     *
+     * @param ancestorId the id of the tentative ancestor
+     * @param descendantId the id of the tentative descendant
+     * @return 1 if the first transaction is an ancestor of (or equal to) the second one, 0 otherwise
+     */
+    @Query("select count(d) from Transaction a, Transaction d " +
+            "where a.id = ?1 and d.id = ?2 and (d.path like concat(a.path, '%') " +
+            "or (d.path is null and exists (select c from TransactionClosure c where c.ancestorId = a.id and c.descendantId = d.id)))")
+    long countPathAncestry(Long ancestorId, Long descendantId);
+
+    /**
+     * Get the descendants of a transaction from the closure table, to compute their paths again one by one.
+     *
+     * @param id the id of the transaction
+     * @return the (id, parent id, distance to the transaction) tuples of the descendants, closest first
+     */
+    @Query("select t.id, t.parentId, c.depth from TransactionClosure c, Transaction t " +
+            "where c.ancestorId = ?1 and c.descendantId = t.id and c.depth > 0 order by c.depth")
+    List<Object[]> findDescendantPathEntries(Long id);
+
+    /**
+     * Move the descendants of a transaction too deep to have paths, see TransactionPath.
+     *
+     * @param id the id of the transaction
+     * @param depthDelta the change of depth of the moved transactions
+     * @param rootId the id of the new root of the moved transactions
+     * @return the number of moved transactions
+     */
+    @Modifying
+    @Query("update Transaction t set t.path = null, t.depth = t.depth + ?2, t.rootId = ?3 " +
+            "where t.id in (select c.descendantId from TransactionClosure c where c.ancestorId = ?1 and c.depth > 0)")
+    int moveDescendantsWithoutPaths(Long id, int depthDelta, Long rootId);
+
+    /**
+     * Get the length of the longest path matching a pattern, to check that a subtree can be moved.
+     *
+     * @param pathPattern a path prefix followed by a wildcard, see TransactionPath.descendantsPattern
+     * @return the maximum length, or null if no path matches
+     */
+    @Query("select max(length(t.path)) from Transaction t where t.path like ?1")
+    Integer findMaxPathLengthByPathLike(String pathPattern);
+
+    /**
+     * Move the paths matching a pattern under a new prefix, with one index range update.
+     *
+     * @param pathPattern the previous prefix followed by a wildcard
+     * @param previousLength the length of the previous prefix
+     * @param path the new prefix
+     * @param depthDelta the change of depth of the moved transactions
+     * @param rootId the id of the new root of the moved transactions
+     * @return the number of moved transactions
+     */
+    @Modifying
+    @Query("update Transaction t set t.path = concat(?3, substring(t.path, ?2 + 1, length(t.path) - ?2)), t.depth = t.depth + ?4, t.rootId = ?5 " +
+            "where t.path like ?1")
+    int movePaths(String pathPattern, int previousLength, String path, int depthDelta, Long rootId);
+
+    /**
+     * Get every transaction as an (id, parent id, root id, depth, path) tuple, used to check the materialized paths.
+     *
+     * @return the list of tuples
+     */
+    @Query("select t.id, t.parentId, t.rootId, t.depth, t.path from Transaction t")
+    List<Object[]> findAllPathEntries();
+
+    @Modifying
+    @Query("update Transaction t set t.rootId = ?2, t.depth = ?3, t.path = ?4 where t.id = ?1")
+    int updatePath(Long id, Long rootId, Integer depth, String path);
+
+    /**
+     * Sum the amounts of a transaction and its descendants using the closure table.
+     *
+     * @param id the id of the transaction
+     * @return the sum, 0 if the transaction does not exist
+     */
+    @Query("select coalesce(sum(t.amount), 0) from TransactionClosure c, Transaction t where c.ancestorId = ?1 and t.id = c.descendantId")
+    Double sumSubtreeAmounts(Long id);
+
+    @Modifying
+    @Query(value = "insert into transaction_closure (ancestor_id, descendant_id, depth) values (?1, ?2, ?3)", nativeQuery = true)
+    int insertClosure(Long ancestorId, Long descendantId, Integer depth);
+
+    /**
+     * Link a new transaction to all the ancestors of its parent in the closure table.
+     */
+    @Modifying
+    @Query(value = "insert into transaction_closure (ancestor_id, descendant_id, depth) " +
+            "select a.ancestor_id, ?1, a.depth + 1 from transaction_closure a where a.descendant_id = ?2", nativeQuery = true)
+    int insertClosureAncestors(Long id, Long parentId);
+
+    /**
+     * Unlink the subtree of a transaction from all the ancestors of this transaction in the closure table.
+     */
+    @Modifying
+    @Query(value = "delete from transaction_closure " +
+            "where descendant_id in (select s.descendant_id from transaction_closure s where s.ancestor_id = ?1) " +
+            "and ancestor_id not in (select s.descendant_id from transaction_closure s where s.ancestor_id = ?1)", nativeQuery = true)
+    int deleteClosureSubtreeLinks(Long id);
+
+    /**
+     * Link the subtree of a transaction to its new parent and all the ancestors of this parent in the closure table.
+     */
+    @Modifying
+    @Query(value = "insert into transaction_closure (ancestor_id, descendant_id, depth) " +
+            "select a.ancestor_id, d.descendant_id, a.depth + d.depth + 1 from transaction_closure a, transaction_closure d " +
+            "where a.descendant_id = ?2 and d.ancestor_id = ?1", nativeQuery = true)
+    int insertClosureSubtreeLinks(Long id, Long parentId);
+
+    @Modifying
+    @Query("delete from TransactionClosure c where c.ancestorId = ?1 or c.descendantId = ?1")
+    int deleteClosure(Long id);
+
+    @Modifying
+    @Query("delete from TransactionClosure c")
+    int deleteAllClosures();
 }
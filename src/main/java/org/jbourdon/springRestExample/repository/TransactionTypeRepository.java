@@ -0,0 +1,14 @@
+package org.jbourdon.springRestExample.repository;
+
+import org.jbourdon.springRestExample.domain.TransactionType;
+
+import org.springframework.data.jpa.repository.*;
+
+/**
+ * Spring Data JPA repository for the TransactionType entity.
+ */
+@SuppressWarnings("unused")
+public interface TransactionTypeRepository extends JpaRepository<TransactionType,Integer> {
+
+    TransactionType findOneByName(String name);
+}
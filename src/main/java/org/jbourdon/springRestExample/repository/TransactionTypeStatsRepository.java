@@ -0,0 +1,52 @@
+package org.jbourdon.springRestExample.repository;
+
+import org.jbourdon.springRestExample.domain.TransactionTypeStats;
+
+import org.springframework.data.jpa.repository.*;
+
+/**
+ * Spring Data JPA repository for the TransactionTypeStats entity.
+ * The aggregates are only changed by relative updates, so that concurrent writes of the same type add up,
+ * the row lock of the first update serializing them until the commit.
+ */
+@SuppressWarnings("unused")
+public interface TransactionTypeStatsRepository extends JpaRepository<TransactionTypeStats,Integer> {
+
+    @Modifying
+    @Query(value = "insert into transaction_type_stats (type_id, transaction_count, amount_sum) values (?1, 0, 0)", nativeQuery = true)
+    int insertEmpty(Integer typeId);
+
+    @Modifying
+    @Query("update TransactionTypeStats s set s.count = s.count + ?2, s.sum = s.sum + ?3 where s.typeId = ?1")
+    int addToTotals(Integer typeId, Long count, Double sum);
+
+    @Modifying
+    @Query("update TransactionTypeStats s set s.min = ?2 where s.typeId = ?1 and (s.min is null or s.min > ?2)")
+    int lowerMin(Integer typeId, Double amount);
+
+    @Modifying
+    @Query("update TransactionTypeStats s set s.max = ?2 where s.typeId = ?1 and (s.max is null or s.max < ?2)")
+    int raiseMax(Integer typeId, Double amount);
+
+    /**
+     * Read the bounds of a type again from the (type_id, amount) index, after its minimum or maximum was removed.
+     * The transaction changes have to be flushed first.
+     */
+    @Modifying
+    @Query(value = "update transaction_type_stats set " +
+            "amount_min = (select min(t.amount) from transaction t where t.type_id = ?1), " +
+            "amount_max = (select max(t.amount) from transaction t where t.type_id = ?1) " +
+            "where type_id = ?1", nativeQuery = true)
+    int recomputeBounds(Integer typeId);
+
+    /**
+     * Compute the aggregates of every type again from the transactions.
+     */
+    @Modifying
+    @Query(value = "update transaction_type_stats set " +
+            "transaction_count = (select count(*) from transaction t where t.type_id = transaction_type_stats.type_id), " +
+            "amount_sum = (select coalesce(sum(t.amount), 0) from transaction t where t.type_id = transaction_type_stats.type_id), " +
+            "amount_min = (select min(t.amount) from transaction t where t.type_id = transaction_type_stats.type_id), " +
+            "amount_max = (select max(t.amount) from transaction t where t.type_id = transaction_type_stats.type_id)", nativeQuery = true)
+    int recomputeAll();
+}
@@ -0,0 +1,94 @@
+package org.jbourdon.springRestExample.service;
+
+import org.jbourdon.springRestExample.config.AsyncConfiguration;
+import org.jbourdon.springRestExample.config.metrics.HibernateStatementInterceptor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncListenableTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Service running the expensive aggregate queries of TransactionService on the bounded aggregate executor.
+ * Each query runs in a read-only database transaction whose timeout is the timeout of the request, so that the
+ * database gives up on it too, and the returned futures can be cancelled to interrupt the waiting ones.
+ *
+ * @see AsyncConfiguration
+ */
+@Service
+public class TransactionAggregateService {
+
+    @Value("${transactions.aggregates.timeout-millis:30000}")
+    private long timeoutMillis;
+
+    @Inject
+    private TransactionService transactionService;
+
+    @Inject
+    @Named(AsyncConfiguration.AGGREGATE_EXECUTOR)
+    private AsyncListenableTaskExecutor taskExecutor;
+
+    @Inject
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * @return the time after which an aggregate query is abandoned, in milliseconds
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @param id the id of the transaction
+     * @return the future sum of the transaction and its descendants
+     * @throws org.springframework.core.task.TaskRejectedException if the aggregate executor is saturated
+     */
+    public ListenableFuture<Double> sumChildren(Long id) {
+        return submit(() -> transactionService.sumChildren(id));
+    }
+
+    /**
+     * @param ids the ids of the transactions, at most 1000
+     * @return the future sums of the transactions and their descendants, by id, without the missing transactions
+     * @throws org.springframework.core.task.TaskRejectedException if the aggregate executor is saturated
+     */
+    public ListenableFuture<Map<Long, Double>> sumChildren(Collection<Long> ids) {
+        return submit(() -> transactionService.sumChildren(ids));
+    }
+
+    /**
+     * @param type the transaction type
+     * @return the future ids of the transactions of this type
+     * @throws org.springframework.core.task.TaskRejectedException if the aggregate executor is saturated
+     */
+    public ListenableFuture<List<Long>> findTransactionIdsOfType(String type) {
+        return submit(() -> transactionService.findTransactionIdsOfType(type));
+    }
+
+    /**
+     * @param type the transaction type
+     * @param after the last id of the previous page, or null for the first page
+     * @param limit the maximum number of ids to return
+     * @return the future page of ids of the transactions of this type
+     * @throws org.springframework.core.task.TaskRejectedException if the aggregate executor is saturated
+     */
+    public ListenableFuture<List<Long>> findTransactionIdsOfType(String type, Long after, int limit) {
+        return submit(() -> transactionService.findTransactionIdsOfType(type, after, limit));
+    }
+
+    private <T> ListenableFuture<T> submit(Supplier<T> query) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        transactionTemplate.setTimeout((int) Math.max(1, (timeoutMillis + 999) / 1000));
+        /* The statements of the query are counted with those of the request */
+        return taskExecutor.submitListenable(HibernateStatementInterceptor.counting(() -> transactionTemplate.execute(status -> query.get())));
+    }
+}
@@ -0,0 +1,192 @@
+package org.jbourdon.springRestExample.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Service caching the serialized REST representations of the transactions, so that hot reads skip both
+ * the database and Jackson. Each media type of a transaction is a separate entry. The cache is bounded in size
+ * and time, and invalidated by TransactionService on every write. Its statistics are published in the metric registry.
+ */
+@Service
+public class TransactionCacheService {
+
+    private final Logger log = LoggerFactory.getLogger(TransactionCacheService.class);
+
+    @Value("${transactions.cache.maximum-size:100000}")
+    private long maximumSize;
+
+    @Value("${transactions.cache.expire-after-write-seconds:600}")
+    private long expireAfterWriteSeconds;
+
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    private Cache<Key, byte[]> cache;
+
+    /**
+     * The media types cached so far, to invalidate all the representations of a transaction
+     */
+    private final Set<MediaType> mediaTypes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Number of invalidations of the transactions of each stripe of ids, bumped before the entries are removed.
+     * The multi-get caches what it loaded only if the stripe of the transaction did not change during the load.
+     */
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+    private static final int VERSION_STRIPES = 1024;
+
+    @PostConstruct
+    public void init() {
+        log.debug("Transaction cache of {} entries for {} seconds", maximumSize, expireAfterWriteSeconds);
+        cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        metricRegistry.register("cache.transaction.hits", (Gauge<Long>) () -> cache.stats().hitCount());
+        metricRegistry.register("cache.transaction.misses", (Gauge<Long>) () -> cache.stats().missCount());
+        metricRegistry.register("cache.transaction.hit-ratio", (Gauge<Double>) () -> cache.stats().hitRate());
+        metricRegistry.register("cache.transaction.evictions", (Gauge<Long>) () -> cache.stats().evictionCount());
+        metricRegistry.register("cache.transaction.size", (Gauge<Long>) () -> cache.estimatedSize());
+    }
+
+    /**
+     * Get the serialized transaction, loading it on a miss. Missing transactions are not cached.
+     *
+     * @param id the transaction id
+     * @param mediaType the media type of the representation
+     * @param loader the function loading and serializing the transaction, returning null if it does not exist
+     * @return the serialized transaction, or null if it does not exist
+     */
+    public byte[] get(Long id, MediaType mediaType, Function<Long, byte[]> loader) {
+        mediaTypes.add(mediaType);
+        return cache.get(new Key(id, mediaType), key -> loader.apply(key.id));
+    }
+
+    /**
+     * Get serialized transactions, loading all the misses at once. Missing transactions are not cached.
+     *
+     * @param ids the transaction ids
+     * @param mediaType the media type of the representations
+     * @param loader the function loading and serializing the transactions of some ids, leaving out the missing ones
+     * @return the serialized transactions by id, without the missing ones
+     */
+    public Map<Long, byte[]> getAll(Collection<Long> ids, MediaType mediaType, Function<Collection<Long>, Map<Long, byte[]>> loader) {
+        mediaTypes.add(mediaType);
+        Map<Long, byte[]> transactions = new HashMap<>(ids.size() * 2);
+        cache.getAllPresent(ids.stream().map(id -> new Key(id, mediaType)).collect(Collectors.toList()))
+                .forEach((key, transaction) -> transactions.put(key.id, transaction));
+        Set<Long> misses = new LinkedHashSet<>(ids);
+        misses.removeAll(transactions.keySet());
+        if (!misses.isEmpty()) {
+            Map<Long, Long> loadVersions = new HashMap<>(misses.size() * 2);
+            for (Long id : misses) {
+                loadVersions.put(id, versions.get(stripeOf(id)));
+            }
+            Map<Long, byte[]> loaded = loader.apply(misses);
+            /* Unlike a plain put, a computation is atomic with the removal of the entry by an invalidation: either the
+             * version bump of the invalidation is seen here and the loaded state is left out, or the entry is removed */
+            loaded.forEach((id, transaction) -> cache.asMap().compute(new Key(id, mediaType), (key, cached) ->
+                    versions.get(stripeOf(id)) == loadVersions.get(id) ? transaction : cached));
+            transactions.putAll(loaded);
+        }
+        return transactions;
+    }
+
+    /**
+     * Invalidate a transaction now, and again once the current database transaction is committed so that a
+     * concurrent read of the previous state cannot stay in the cache.
+     *
+     * @param id the transaction id
+     */
+    public void invalidate(Long id) {
+        invalidateRepresentations(id);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidateRepresentations(id);
+                }
+            });
+        }
+    }
+
+    /**
+     * Invalidate every transaction, when the writes to some of them may have gone through another node.
+     */
+    public void invalidateAll() {
+        for (int stripe = 0; stripe < VERSION_STRIPES; stripe++) {
+            versions.incrementAndGet(stripe);
+        }
+        cache.invalidateAll();
+    }
+
+    private void invalidateRepresentations(Long id) {
+        versions.incrementAndGet(stripeOf(id));
+        for (MediaType mediaType : mediaTypes) {
+            cache.invalidate(new Key(id, mediaType));
+        }
+    }
+
+    private static int stripeOf(Long id) {
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (VERSION_STRIPES - 1);
+    }
+
+    /**
+     * Key of a representation of a transaction
+     */
+    private static final class Key {
+
+        private final Long id;
+
+        private final MediaType mediaType;
+
+        Key(Long id, MediaType mediaType) {
+            this.id = id;
+            this.mediaType = mediaType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return id.equals(key.id) && mediaType.equals(key.mediaType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, mediaType);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package org.jbourdon.springRestExample.service;
+
+import com.carrotsearch.hppc.DoubleArrayList;
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * In-memory representation of the whole transaction forest, made of primitive arrays indexed by a slot number
+ * instead of a graph of Transaction entities.
+ * Children are kept as doubly linked sibling lists so that writes are O(1), and the subtree sums are maintained
+ * along the ancestor path so that a sum is a single array read.
+ * This class is not thread safe, see TransactionForestService.
+ */
+public class TransactionForest {
+
+    /** marker of an absent slot, parent or sibling */
+    public static final int NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final LongIntHashMap indexes;
+
+    private final IntArrayList freeSlots = new IntArrayList();
+
+    private long[] ids;
+
+    private double[] amounts;
+
+    private double[] subtreeSums;
+
+    private int[] typeIds;
+
+    private int[] parents;
+
+    private int[] firstChildren;
+
+    private int[] nextSiblings;
+
+    private int[] previousSiblings;
+
+    private int size;
+
+    public TransactionForest() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private TransactionForest(int capacity) {
+        indexes = new LongIntHashMap(capacity);
+        ids = new long[capacity];
+        amounts = new double[capacity];
+        subtreeSums = new double[capacity];
+        typeIds = new int[capacity];
+        parents = new int[capacity];
+        firstChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        previousSiblings = new int[capacity];
+    }
+
+    /**
+     * @return the number of transactions in the forest
+     */
+    public int size() {
+        return indexes.size();
+    }
+
+    public boolean contains(long id) {
+        return indexes.containsKey(id);
+    }
+
+    /**
+     * Create or update a transaction, moving its subtree if its parent changed.
+     * An unknown parent makes the transaction a root.
+     *
+     * @param id the transaction id
+     * @param parentId the parent id, or null for a root
+     * @param amount the transaction amount
+     * @param typeId the id of the transaction type, or NONE
+     */
+    public void put(long id, Long parentId, double amount, int typeId) {
+        int parent = parentId == null ? NONE : indexes.getOrDefault(parentId, NONE);
+        int index = indexes.getOrDefault(id, NONE);
+        if (index == NONE) {
+            index = allocate(id);
+            amounts[index] = amount;
+            subtreeSums[index] = amount;
+            typeIds[index] = typeId;
+            link(index, parent);
+            addToAncestors(parent, amount);
+            return;
+        }
+        double delta = amount - amounts[index];
+        amounts[index] = amount;
+        typeIds[index] = typeId;
+        if (parents[index] == parent) {
+            addToAncestors(index, delta);
+        } else {
+            addToAncestors(parents[index], -subtreeSums[index]);
+            unlink(index);
+            subtreeSums[index] += delta;
+            link(index, parent);
+            addToAncestors(parent, subtreeSums[index]);
+        }
+    }
+
+    /**
+     * Remove a transaction. Its children, if any, become roots.
+     *
+     * @param id the transaction id
+     */
+    public void remove(long id) {
+        int index = indexes.getOrDefault(id, NONE);
+        if (index == NONE) {
+            return;
+        }
+        addToAncestors(parents[index], -subtreeSums[index]);
+        unlink(index);
+        int child = firstChildren[index];
+        while (child != NONE) {
+            int next = nextSiblings[child];
+            parents[child] = NONE;
+            nextSiblings[child] = NONE;
+            previousSiblings[child] = NONE;
+            child = next;
+        }
+        indexes.remove(id);
+        typeIds[index] = NONE;
+        firstChildren[index] = NONE;
+        freeSlots.add(index);
+    }
+
+    /**
+     * @param id the transaction id
+     * @return the sum of the amounts of the transaction and its descendants, or null if the transaction is unknown
+     */
+    public Double subtreeSum(long id) {
+        int index = indexes.getOrDefault(id, NONE);
+        return index == NONE ? null : subtreeSums[index];
+    }
+
+    /**
+     * Detect if giving a parent to a transaction would create a cycle, walking the ancestors of the parent only.
+     *
+     * @param id the transaction id
+     * @param parentId the id of the proposed parent
+     * @return true if the transaction is the parent or one of its ancestors
+     */
+    public boolean createsCycle(long id, long parentId) {
+        int index = indexes.getOrDefault(id, NONE);
+        if (index == NONE) {
+            return id == parentId;
+        }
+        for (int ancestor = indexes.getOrDefault(parentId, NONE); ancestor != NONE; ancestor = parents[ancestor]) {
+            if (ancestor == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param typeId the id of the transaction type
+     * @return the ids of the transactions of this type, in no particular order
+     */
+    public long[] idsOfType(int typeId) {
+        LongArrayList result = new LongArrayList();
+        for (int index = 0; index < size; index++) {
+            if (typeIds[index] == typeId) {
+                result.add(ids[index]);
+            }
+        }
+        return result.toArray();
+    }
+
+    private int allocate(long id) {
+        int index;
+        if (freeSlots.isEmpty()) {
+            if (size == ids.length) {
+                grow(size + (size >> 1) + 1);
+            }
+            index = size++;
+        } else {
+            index = freeSlots.remove(freeSlots.size() - 1);
+        }
+        ids[index] = id;
+        parents[index] = NONE;
+        firstChildren[index] = NONE;
+        nextSiblings[index] = NONE;
+        previousSiblings[index] = NONE;
+        indexes.put(id, index);
+        return index;
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        subtreeSums = Arrays.copyOf(subtreeSums, capacity);
+        typeIds = Arrays.copyOf(typeIds, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        previousSiblings = Arrays.copyOf(previousSiblings, capacity);
+    }
+
+    private void link(int index, int parent) {
+        parents[index] = parent;
+        previousSiblings[index] = NONE;
+        if (parent == NONE) {
+            nextSiblings[index] = NONE;
+            return;
+        }
+        int next = firstChildren[parent];
+        nextSiblings[index] = next;
+        if (next != NONE) {
+            previousSiblings[next] = index;
+        }
+        firstChildren[parent] = index;
+    }
+
+    private void unlink(int index) {
+        int parent = parents[index];
+        int previous = previousSiblings[index];
+        int next = nextSiblings[index];
+        if (previous != NONE) {
+            nextSiblings[previous] = next;
+        } else if (parent != NONE) {
+            firstChildren[parent] = next;
+        }
+        if (next != NONE) {
+            previousSiblings[next] = previous;
+        }
+        parents[index] = NONE;
+        nextSiblings[index] = NONE;
+        previousSiblings[index] = NONE;
+    }
+
+    private void addToAncestors(int index, double delta) {
+        for (int ancestor = index; ancestor != NONE; ancestor = parents[ancestor]) {
+            subtreeSums[ancestor] += delta;
+        }
+    }
+
+    /**
+     * Builder loading a whole forest at once, whatever the order of the transactions:
+     * the subtree sums are computed in a single pass once every transaction is known.
+     */
+    public static class Builder {
+
+        private final LongArrayList ids = new LongArrayList();
+
+        private final LongArrayList parentIds = new LongArrayList();
+
+        private final DoubleArrayList amounts = new DoubleArrayList();
+
+        private final IntArrayList typeIds = new IntArrayList();
+
+        private final IntArrayList hasParent = new IntArrayList();
+
+        public Builder add(long id, Long parentId, double amount, int typeId) {
+            ids.add(id);
+            parentIds.add(parentId == null ? 0L : parentId);
+            hasParent.add(parentId == null ? 0 : 1);
+            amounts.add(amount);
+            typeIds.add(typeId);
+            return this;
+        }
+
+        public TransactionForest build() {
+            int count = ids.size();
+            TransactionForest forest = new TransactionForest(Math.max(count, INITIAL_CAPACITY));
+            for (int i = 0; i < count; i++) {
+                int index = forest.allocate(ids.get(i));
+                forest.amounts[index] = amounts.get(i);
+                forest.subtreeSums[index] = amounts.get(i);
+                forest.typeIds[index] = typeIds.get(i);
+            }
+            for (int i = 0; i < count; i++) {
+                if (hasParent.get(i) == 1) {
+                    forest.link(i, forest.indexes.getOrDefault(parentIds.get(i), NONE));
+                }
+            }
+            /* Breadth first order from the roots, then accumulate the sums from the deepest transactions */
+            int[] order = new int[count];
+            int length = 0;
+            for (int i = 0; i < count; i++) {
+                if (forest.parents[i] == NONE) {
+                    order[length++] = i;
+                }
+            }
+            for (int position = 0; position < length; position++) {
+                for (int child = forest.firstChildren[order[position]]; child != NONE; child = forest.nextSiblings[child]) {
+                    order[length++] = child;
+                }
+            }
+            for (int position = length - 1; position >= 0; position--) {
+                int parent = forest.parents[order[position]];
+                if (parent != NONE) {
+                    forest.subtreeSums[parent] += forest.subtreeSums[order[position]];
+                }
+            }
+            return forest;
+        }
+    }
+}
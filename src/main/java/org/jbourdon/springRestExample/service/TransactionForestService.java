@@ -0,0 +1,149 @@
+package org.jbourdon.springRestExample.service;
+
+import org.jbourdon.springRestExample.domain.Transaction;
+import org.jbourdon.springRestExample.repository.TransactionJdbcRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * Service keeping the whole transaction forest in memory to answer the read-heavy hierarchy queries.
+ * It is enabled with the <code>transactions.hierarchy.in-memory</code> property. The forest is loaded once the
+ * application is ready, and the writes committed through TransactionService are applied to it afterwards.
+ * Until it is loaded, callers are expected to fall back to the database.
+ */
+@Service
+@ConditionalOnProperty(prefix = "transactions.hierarchy", name = "in-memory", havingValue = "true")
+public class TransactionForestService {
+
+    private final Logger log = LoggerFactory.getLogger(TransactionForestService.class);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile TransactionForest forest;
+
+    @Inject
+    private TransactionJdbcRepository transactionJdbcRepository;
+
+    /**
+     * Load the whole forest from the database.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        log.info("Loading the transaction forest in memory");
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            TransactionForest.Builder builder = new TransactionForest.Builder();
+            transactionJdbcRepository.streamHierarchy(builder::add);
+            forest = builder.build();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Loaded {} transactions in memory in {} ms", forest.size(), System.currentTimeMillis() - start);
+    }
+
+    public boolean isLoaded() {
+        return forest != null;
+    }
+
+    /**
+     * @param id the transaction id
+     * @return the sum of the transaction and its descendants, or null if the transaction is unknown
+     */
+    public Double subtreeSum(Long id) {
+        lock.readLock().lock();
+        try {
+            return forest.subtreeSum(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param typeId the id of the transaction type
+     * @return the ids of the transactions of this type, in ascending order
+     */
+    public List<Long> idsOfType(int typeId) {
+        long[] ids;
+        lock.readLock().lock();
+        try {
+            ids = forest.idsOfType(typeId);
+        } finally {
+            lock.readLock().unlock();
+        }
+        Arrays.sort(ids);
+        return Arrays.stream(ids).boxed().collect(Collectors.toList());
+    }
+
+    /**
+     * @param transactionId the id of the transaction
+     * @param parentId the id of the proposed parent
+     * @return true if giving this parent to the transaction would create a cycle
+     */
+    public boolean createsCycle(Long transactionId, Long parentId) {
+        lock.readLock().lock();
+        try {
+            return forest.createsCycle(transactionId, parentId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Apply the creation or update of a transaction once the current database transaction is committed.
+     *
+     * @param transaction the saved transaction
+     */
+    public void put(Transaction transaction) {
+        long id = transaction.getId();
+        Long parentId = transaction.getParentId();
+        double amount = transaction.getAmount() == null ? 0d : transaction.getAmount();
+        int typeId = transaction.getTypeId() == null ? TransactionForest.NONE : transaction.getTypeId();
+        afterCommit(() -> forest.put(id, parentId, amount, typeId));
+    }
+
+    /**
+     * Apply the deletion of a transaction once the current database transaction is committed.
+     *
+     * @param id the id of the deleted transaction
+     */
+    public void remove(Long id) {
+        afterCommit(() -> forest.remove(id));
+    }
+
+    private void afterCommit(Runnable update) {
+        Runnable lockedUpdate = () -> {
+            lock.writeLock().lock();
+            try {
+                if (forest != null) {
+                    update.run();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    lockedUpdate.run();
+                }
+            });
+        } else {
+            lockedUpdate.run();
+        }
+    }
+}
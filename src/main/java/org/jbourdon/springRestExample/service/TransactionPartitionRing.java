@@ -0,0 +1,133 @@
+package org.jbourdon.springRestExample.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Immutable consistent hash ring assigning the transaction trees, identified by their root, to the nodes of the
+ * deployment. Each node is placed at a number of virtual points on the ring, and a tree belongs to the node of the
+ * first point at or after the hash of its root. When a node joins or leaves, only the trees of the arcs it takes or
+ * gives back change owner, about one in the number of nodes.
+ * <p>
+ * The points are kept in a sorted array searched by bisection, a membership change builds a new ring.
+ */
+public final class TransactionPartitionRing {
+
+    private final List<String> nodes;
+
+    private final int virtualNodes;
+
+    private final long[] points;
+
+    private final String[] owners;
+
+    /**
+     * @param nodes the nodes, identified by their base URL
+     * @param virtualNodes the number of points of each node on the ring
+     */
+    public TransactionPartitionRing(Collection<String> nodes, int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("At least one virtual node is needed, not " + virtualNodes);
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(nodes)));
+        this.virtualNodes = virtualNodes;
+        /* Sort the points with their owners, the ties are broken by the node so that every ring agrees */
+        long[][] placed = new long[this.nodes.size() * virtualNodes][];
+        int count = 0;
+        for (int node = 0; node < this.nodes.size(); node++) {
+            for (int point = 0; point < virtualNodes; point++) {
+                placed[count++] = new long[]{hashOf(this.nodes.get(node) + '#' + point), node};
+            }
+        }
+        Arrays.sort(placed, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        points = new long[count];
+        owners = new String[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = placed[i][0];
+            owners[i] = this.nodes.get((int) placed[i][1]);
+        }
+    }
+
+    /**
+     * @return the nodes of the ring, sorted
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /**
+     * @param node a node to add
+     * @return a ring with the node, this ring if it already has it
+     */
+    public TransactionPartitionRing withNode(String node) {
+        if (nodes.contains(node)) {
+            return this;
+        }
+        List<String> joined = new ArrayList<>(nodes);
+        joined.add(node);
+        return new TransactionPartitionRing(joined, virtualNodes);
+    }
+
+    /**
+     * @param node a node to remove
+     * @return a ring without the node, this ring if it does not have it
+     */
+    public TransactionPartitionRing withoutNode(String node) {
+        if (!nodes.contains(node)) {
+            return this;
+        }
+        List<String> left = new ArrayList<>(nodes);
+        left.remove(node);
+        return new TransactionPartitionRing(left, virtualNodes);
+    }
+
+    /**
+     * @param rootId the id of the root of a transaction tree
+     * @return the node owning the tree, null if the ring has no node
+     */
+    public String ownerOf(long rootId) {
+        if (points.length == 0) {
+            return null;
+        }
+        long hash = mix(rootId);
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            /* Points on the same hash resolve to the first one */
+            while (index > 0 && points[index - 1] == hash) {
+                index--;
+            }
+        }
+        /* Past the last point, the ring wraps around */
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * FNV-1a hash of the UTF-8 bytes, finalized by {@link #mix(long)} to spread the close names
+     */
+    private static long hashOf(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Finalizer of MurmurHash3, so that consecutive root ids land on unrelated points
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb93fe53ce34dL;
+        value ^= value >>> 33;
+        return value;
+    }
+}
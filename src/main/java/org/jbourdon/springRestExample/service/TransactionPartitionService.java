@@ -0,0 +1,255 @@
+package org.jbourdon.springRestExample.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.jbourdon.springRestExample.config.PartitioningConfiguration;
+import org.jbourdon.springRestExample.repository.TransactionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service assigning each transaction tree to the node of the deployment owning it, so that the requests of a tree
+ * are mostly served by the same node and find its transactions in its local cache.
+ * It is enabled with the <code>transactions.partitioning.enabled</code> property.
+ * <p>
+ * The trees are spread over the nodes by a consistent hash of their root, see TransactionPartitionRing. The roots of
+ * the transactions are read from the database and kept for a while, so a request may reach a node which does not own
+ * its tree, and the creations and the requests of several transactions are served by the node receiving them.
+ * The nodes are therefore kept consistent whatever node serves a write: the writes of a tree are serialized across
+ * the nodes by database locks, see TransactionTreeLockService, and the other nodes are told to drop the written
+ * transactions from their cache once the write completes. The in-memory forest, which holds every transaction,
+ * cannot be kept up to date that way and cannot be enabled with the partitioning.
+ * <p>
+ * The nodes are told of each other by a PUT on any of them, which passes the new nodes on to the others.
+ */
+@Service
+@ConditionalOnProperty(prefix = "transactions.partitioning", name = "enabled", havingValue = "true")
+public class TransactionPartitionService {
+
+    /**
+     * Header of the requests sent by a node to another one, which serves them itself
+     */
+    public static final String FORWARDED_HEADER = "X-transactionsApp-forwarded";
+
+    private static final String NODES_PATH = "/transactionservice/partition/nodes";
+
+    private static final String INVALIDATIONS_PATH = "/transactionservice/partition/invalidations";
+
+    private final Logger log = LoggerFactory.getLogger(TransactionPartitionService.class);
+
+    @Value("${transactions.partitioning.self:}")
+    private String self;
+
+    @Value("${transactions.partitioning.nodes:}")
+    private String nodes;
+
+    @Value("${transactions.partitioning.virtual-nodes:128}")
+    private int virtualNodes;
+
+    @Value("${transactions.partitioning.root-cache.maximum-size:100000}")
+    private long rootCacheMaximumSize;
+
+    @Value("${transactions.partitioning.root-cache.expire-after-write-seconds:60}")
+    private long rootCacheExpireAfterWriteSeconds;
+
+    @Inject
+    private TransactionRepository transactionRepository;
+
+    @Inject
+    private TransactionCacheService transactionCacheService;
+
+    @Inject
+    private Optional<TransactionForestService> transactionForestService;
+
+    @Inject
+    @Named(PartitioningConfiguration.PARTITION_REST_TEMPLATE)
+    private RestTemplate restTemplate;
+
+    private volatile TransactionPartitionRing ring;
+
+    private Cache<Long, Long> roots;
+
+    @PostConstruct
+    public void init() {
+        if (transactionForestService.isPresent()) {
+            throw new IllegalStateException("The in-memory transaction forest cannot be kept up to date across the nodes, " +
+                    "transactions.hierarchy.in-memory and transactions.partitioning.enabled cannot be both enabled");
+        }
+        ring = new TransactionPartitionRing(StringUtils.commaDelimitedListToSet(nodes.replace(" ", "")), virtualNodes);
+        roots = Caffeine.newBuilder()
+                .maximumSize(rootCacheMaximumSize)
+                .expireAfterWrite(rootCacheExpireAfterWriteSeconds, TimeUnit.SECONDS)
+                .build();
+        log.info("Node {} of the transaction partitions of {}", self, ring.getNodes());
+    }
+
+    /**
+     * @return the base URL of this node
+     */
+    public String getSelf() {
+        return self;
+    }
+
+    /**
+     * @return the base URLs of the nodes sharing the transaction trees, sorted
+     */
+    public List<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    /**
+     * Get the node owning the tree of a transaction.
+     *
+     * @param id the transaction id
+     * @return the base URL of the owner, or empty if the transaction does not exist, or if no node owns it
+     */
+    @Transactional(readOnly = true)
+    public Optional<String> ownerOf(Long id) {
+        TransactionPartitionRing current = ring;
+        if (current.isEmpty()) {
+            return Optional.empty();
+        }
+        Long rootId = roots.getIfPresent(id);
+        if (rootId == null) {
+            List<Long> rootIds = transactionRepository.findRootIds(Collections.singleton(id));
+            if (rootIds.isEmpty()) {
+                return Optional.empty();
+            }
+            rootId = rootIds.get(0);
+            roots.put(id, rootId);
+        }
+        return Optional.of(current.ownerOf(rootId));
+    }
+
+    /**
+     * @param node the base URL of a node
+     * @return true if the node is this one
+     */
+    public boolean isSelf(String node) {
+        return self.equals(node);
+    }
+
+    /**
+     * Replace the nodes sharing the transaction trees on this node only, moving the trees whose owner changes.
+     *
+     * @param nodes the base URLs of the nodes
+     * @return the nodes, sorted
+     */
+    public List<String> setNodes(Collection<String> nodes) {
+        return rebalance(new TransactionPartitionRing(nodes, virtualNodes));
+    }
+
+    /**
+     * Replace the nodes sharing the transaction trees on this node, then on the previous and the new nodes.
+     * The nodes which cannot be reached are skipped, they are expected to be told again once they are back.
+     *
+     * @param nodes the base URLs of the nodes
+     * @return the nodes, sorted
+     */
+    public List<String> publishNodes(Collection<String> nodes) {
+        Set<String> others = new TreeSet<>(ring.getNodes());
+        List<String> result = setNodes(nodes);
+        others.addAll(result);
+        others.remove(self);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(FORWARDED_HEADER, self);
+        for (String node : others) {
+            send(node, NODES_PATH, HttpMethod.PUT, new HttpEntity<>(result, headers));
+        }
+        return result;
+    }
+
+    /**
+     * Tell the other nodes to drop a written transaction from their cache, once the current database transaction
+     * completes.
+     *
+     * @param id the transaction id
+     */
+    public void invalidateOnOtherNodes(Long id) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            sendInvalidation(id);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                sendInvalidation(id);
+            }
+        });
+    }
+
+    private void sendInvalidation(Long id) {
+        for (String node : ring.getNodes()) {
+            if (!isSelf(node)) {
+                send(node, INVALIDATIONS_PATH, HttpMethod.POST, new HttpEntity<>(Collections.singletonList(id)));
+            }
+        }
+    }
+
+    private void send(String node, String path, HttpMethod method, HttpEntity<?> entity) {
+        try {
+            ResponseEntity<Void> response = restTemplate.exchange(URI.create(node + path), method, entity, Void.class);
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                log.warn("Node {} answered {} to {} {}", node, response.getStatusCode(), method, path);
+            }
+        } catch (RestClientException e) {
+            log.warn("Node {} unreachable for {} {}: {}", node, method, path, e.getMessage());
+        }
+    }
+
+    /**
+     * Add a node sharing the transaction trees, it takes about one in the number of nodes of the trees.
+     *
+     * @param node the base URL of the node
+     * @return the nodes, sorted
+     */
+    public List<String> join(String node) {
+        return rebalance(ring.withNode(node));
+    }
+
+    /**
+     * Remove a node sharing the transaction trees, its trees are spread over the remaining nodes.
+     *
+     * @param node the base URL of the node
+     * @return the nodes, sorted
+     */
+    public List<String> leave(String node) {
+        return rebalance(ring.withoutNode(node));
+    }
+
+    private synchronized List<String> rebalance(TransactionPartitionRing rebalanced) {
+        if (rebalanced.getNodes().equals(ring.getNodes())) {
+            return ring.getNodes();
+        }
+        log.info("Rebalancing the transaction partitions from {} to {}", ring.getNodes(), rebalanced.getNodes());
+        ring = rebalanced;
+        /* A node joining again may have missed the invalidations of the writes made while it was away */
+        transactionCacheService.invalidateAll();
+        return ring.getNodes();
+    }
+}
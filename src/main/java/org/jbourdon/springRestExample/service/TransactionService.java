@@ -1,16 +1,28 @@
 package org.jbourdon.springRestExample.service;
 
+import org.jbourdon.springRestExample.config.AsyncConfiguration;
 import org.jbourdon.springRestExample.domain.Transaction;
+import org.jbourdon.springRestExample.domain.TransactionPath;
+import org.jbourdon.springRestExample.domain.TransactionTypeStats;
+import org.jbourdon.springRestExample.repository.TransactionJdbcRepository;
 import org.jbourdon.springRestExample.repository.TransactionRepository;
+import org.jbourdon.springRestExample.repository.TransactionTypeStatsRepository;
+import org.jbourdon.springRestExample.web.rest.BulkTransactionRestWrapper;
 import org.jbourdon.springRestExample.web.rest.TransactionRestWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.inject.Inject;
-import java.util.List;
-import java.util.stream.Collectors;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongConsumer;
 
 @Service
 @Transactional
@@ -18,18 +30,118 @@ public class TransactionService {
 
     private final Logger log = LoggerFactory.getLogger(TransactionService.class);
 
+    private static final int BULK_BATCH_SIZE = 1000;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
     @Inject
     private TransactionRepository transactionRepository;
 
+    @Inject
+    private TransactionJdbcRepository transactionJdbcRepository;
+
+    @Inject
+    private TransactionTypeService transactionTypeService;
+
+    @Inject
+    private TransactionTypeStatsRepository transactionTypeStatsRepository;
+
+    @Inject
+    private TransactionCacheService transactionCacheService;
+
+    @Inject
+    private TransactionTreeLockService transactionTreeLockService;
+
+    @Inject
+    private Optional<TransactionForestService> transactionForestService;
+
+    @Inject
+    private Optional<TransactionPartitionService> transactionPartitionService;
+
+    @Inject
+    @Named(AsyncConfiguration.AGGREGATE_FORK_JOIN_POOL)
+    private ForkJoinPool aggregateForkJoinPool;
+
+    @Value("${transactions.hierarchy.maintained-sums:true}")
+    private boolean maintainedSums;
+
+    @Value("${transactions.aggregates.parallel-threshold:10000}")
+    private int parallelThreshold;
+
     /**
      * Save a transaction.
+     * The subtree sums of the previous and new ancestors of the transaction, the closure table, the materialized paths
+     * of its subtree and the aggregates of its previous and new types are updated accordingly, the trees of the transaction and of its new parent being locked until the commit.
      *
      * @param transaction the entity to save
      * @return the persisted entity
      */
     public Transaction save(Transaction transaction) {
         log.debug("Request to save transaction : {}", transaction);
-        return transactionRepository.save(transaction);
+        lockTreesOf(transaction.getId(), transaction.getParentId());
+        return doSave(transaction);
+    }
+
+    private Transaction doSave(Transaction transaction) {
+        transaction.setTypeId(transactionTypeService.intern(transaction.getType()));
+        double subtreeSum = amountOf(transaction);
+        /*
+         * The previous state is read from the database rather than from the persistence context, where the
+         * transaction may be the managed entity itself, already modified in place
+         */
+        TransactionJdbcRepository.StoredTransaction previous = transaction.getId() == null
+                ? null : transactionJdbcRepository.findStoredTransaction(transaction.getId());
+        Long previousParentId = null;
+        Integer previousTypeId = null;
+        Double previousAmount = null;
+        String previousPath = null;
+        int previousDepth = 0;
+        if (previous != null) {
+            previousParentId = previous.getParentId();
+            previousTypeId = previous.getTypeId();
+            previousAmount = previous.getAmount();
+            previousPath = previous.getPath();
+            previousDepth = previous.getDepth();
+            subtreeSum += previous.getSubtreeSum() - (previousAmount == null ? 0d : previousAmount);
+            addToAncestors(previousParentId, -previous.getSubtreeSum());
+        }
+        transaction.setSubtreeSum(subtreeSum);
+        Transaction result;
+        if (previous == null) {
+            /* Persisted rather than merged, a merge would also resolve the children not saved yet */
+            entityManager.persist(transaction);
+            result = transaction;
+        } else {
+            result = transactionRepository.save(transaction);
+        }
+        result.updatePath();
+        addToAncestors(result.getParentId(), subtreeSum);
+        /* The closure table references the transaction rows, they have to be written first */
+        transactionRepository.flush();
+        Long parentId = result.getParentId();
+        if (previous == null) {
+            transactionRepository.insertClosure(result.getId(), result.getId(), 0);
+            if (parentId != null) {
+                transactionRepository.insertClosureAncestors(result.getId(), parentId);
+            }
+        } else if (!Objects.equals(previousParentId, parentId)) {
+            transactionRepository.deleteClosureSubtreeLinks(result.getId());
+            if (parentId != null) {
+                transactionRepository.insertClosureSubtreeLinks(result.getId(), parentId);
+            }
+            moveDescendantPaths(previousPath, previousDepth, result);
+        }
+        if (previous == null) {
+            addToTypeStats(result.getTypeId(), 1, amountOf(result), result.getAmount(), result.getAmount());
+        } else if (!Objects.equals(previousTypeId, result.getTypeId()) || !Objects.equals(previousAmount, result.getAmount())) {
+            removeFromTypeStats(previousTypeId, previousAmount);
+            addToTypeStats(result.getTypeId(), 1, amountOf(result), result.getAmount(), result.getAmount());
+        }
+        transactionForestService.ifPresent(forest -> forest.put(result));
+        transactionCacheService.invalidate(result.getId());
+        transactionPartitionService.ifPresent(partitions -> partitions.invalidateOnOtherNodes(result.getId()));
+        return result;
     }
 
     public Transaction save(TransactionRestWrapper transactionRestWrapper) {
@@ -37,26 +149,216 @@ public class TransactionService {
     }
 
     /**
+     * Save a transaction from its REST representation.
+     * The trees of the transaction and of its new parent are locked before the cycle check and until the commit,
+     * so that concurrent re-parentings in the same trees cannot create a cycle together.
      *
      * @param transactionRestWrapper the wrapper representing the transaction we are trying to save
      * @param transactionId the tentative id for the transaction
      * @return the saved transaction
      *
-     * @throws IllegalStateException if a cycle is detected for the transaction we are attempting to save
+     * @throws IllegalStateException if the id is missing, the ids being given by the clients, or if a cycle is
+     * detected for the transaction we are attempting to save
      */
     public Transaction save(TransactionRestWrapper transactionRestWrapper, Long transactionId) {
         log.debug("Request to save transaction with wrapper: {} with id: {}", transactionRestWrapper, transactionId);
+        if (transactionId == null) {
+            throw new IllegalStateException("The id of the transaction must be given");
+        }
+        lockTreesOf(transactionId, transactionRestWrapper.getParentId());
         Transaction transaction = new Transaction();
         transaction.setId(transactionId);
         transaction.setAmount(transactionRestWrapper.getAmount());
         transaction.setType(transactionRestWrapper.getType());
         if (transactionRestWrapper.getParentId() != null) {
+            if (this.createsCycle(transactionId, transactionRestWrapper.getParentId())) {
+                throw new IllegalStateException("Cycle detected in the transaction tree");
+            }
             transaction.setParent(this.findOne(transactionRestWrapper.getParentId()));
         }
-        if (transaction.hasCycle()) {
-            throw new IllegalStateException("Cycle detected in the transaction tree");
+        return doSave(transaction);
+    }
+
+    /**
+     * Save new transactions in bulk.
+     * Parents are resolved inside the batch first, then in the database, and the acyclicity of the whole batch is
+     * checked in a single pass before anything is written. The rows are then inserted parents first, in JDBC batches.
+     *
+     * @param transactionRestWrappers the wrappers representing the transactions to create, with their ids
+     * @return the number of created transactions
+     *
+     * @throws IllegalStateException if an id is missing, duplicated or already used, if a parent does not exist,
+     * or if a cycle is detected in the batch
+     */
+    public int saveAll(List<BulkTransactionRestWrapper> transactionRestWrappers) {
+        log.debug("Request to save {} transactions in bulk", transactionRestWrappers.size());
+        Map<Long, BulkTransactionRestWrapper> batch = new LinkedHashMap<>(transactionRestWrappers.size() * 2);
+        for (BulkTransactionRestWrapper wrapper : transactionRestWrappers) {
+            if (wrapper.getId() == null) {
+                throw new IllegalStateException("Missing id for bulk transaction " + wrapper);
+            }
+            if (batch.put(wrapper.getId(), wrapper) != null) {
+                throw new IllegalStateException("Duplicate id " + wrapper.getId() + " in bulk transactions");
+            }
+        }
+        for (List<Long> ids : chunks(batch.keySet())) {
+            if (transactionRepository.countByIdIn(ids) > 0) {
+                throw new IllegalStateException("Some bulk transactions already exist");
+            }
+        }
+
+        /* Resolve the parents outside of the batch */
+        Set<Long> outsideParentIds = new HashSet<>();
+        batch.values().stream()
+                .map(TransactionRestWrapper::getParentId)
+                .filter(parentId -> parentId != null && !batch.containsKey(parentId))
+                .forEach(outsideParentIds::add);
+        if (!outsideParentIds.isEmpty()) {
+            transactionTreeLockService.lockTrees(() -> findRootIds(outsideParentIds));
+        }
+        Map<Long, Transaction> outsideParents = new HashMap<>(outsideParentIds.size() * 2);
+        for (List<Long> ids : chunks(outsideParentIds)) {
+            transactionRepository.findAll(ids).forEach(parent -> outsideParents.put(parent.getId(), parent));
+        }
+        if (outsideParents.size() != outsideParentIds.size()) {
+            throw new IllegalStateException("Unknown parent for some bulk transactions");
         }
-        return this.save(transaction);
+
+        /* Order the batch parents first, detecting the cycles on the way */
+        List<Long> order = new ArrayList<>(batch.size());
+        Map<Long, Boolean> visited = new HashMap<>(batch.size() * 2);
+        Deque<Long> path = new ArrayDeque<>();
+        for (Long id : batch.keySet()) {
+            Long current = id;
+            while (current != null && batch.containsKey(current) && !visited.containsKey(current)) {
+                visited.put(current, Boolean.FALSE);
+                path.push(current);
+                current = batch.get(current).getParentId();
+            }
+            if (current != null && Boolean.FALSE.equals(visited.get(current))) {
+                throw new IllegalStateException("Cycle detected in the bulk transactions");
+            }
+            while (!path.isEmpty()) {
+                Long done = path.pop();
+                visited.put(done, Boolean.TRUE);
+                order.add(done);
+            }
+        }
+
+        /* Build the entities and their subtree sums, children first */
+        Map<Long, Transaction> transactions = new HashMap<>(batch.size() * 2);
+        for (Long id : order) {
+            BulkTransactionRestWrapper wrapper = batch.get(id);
+            Transaction transaction = new Transaction();
+            transaction.setId(id);
+            transaction.setAmount(wrapper.getAmount());
+            transaction.setType(wrapper.getType());
+            transaction.setTypeId(transactionTypeService.intern(wrapper.getType()));
+            transaction.setSubtreeSum(amountOf(transaction));
+            if (wrapper.getParentId() != null) {
+                Transaction parent = transactions.get(wrapper.getParentId());
+                transaction.setParent(parent != null ? parent : outsideParents.get(wrapper.getParentId()));
+            }
+            transaction.updatePath();
+            transactions.put(id, transaction);
+            transactionForestService.ifPresent(forest -> forest.put(transaction));
+        }
+        Map<Long, Double> outsideDeltas = new HashMap<>(outsideParents.size() * 2);
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Transaction transaction = transactions.get(order.get(i));
+            Transaction parent = transaction.getParent();
+            if (parent != null && transactions.containsKey(parent.getId())) {
+                parent.setSubtreeSum(parent.getSubtreeSum() + transaction.getSubtreeSum());
+            } else if (parent != null) {
+                outsideDeltas.merge(parent.getId(), transaction.getSubtreeSum(), Double::sum);
+            }
+        }
+        outsideDeltas.forEach(this::addToAncestors);
+
+        /* Insert the transactions, then the closure rows which reference them */
+        Map<Long, List<Long>> outsideAncestors = new HashMap<>(outsideParents.size() * 2);
+        outsideParents.values().forEach(parent -> {
+            List<Long> ancestors = new ArrayList<>();
+            ancestors.add(parent.getId());
+            ancestors.addAll(parent.getPath() == null
+                    ? transactionRepository.findAncestorIds(parent.getId()) : TransactionPath.ancestorIds(parent.getPath()));
+            outsideAncestors.put(parent.getId(), ancestors);
+        });
+        for (int i = 0; i < order.size(); i++) {
+            entityManager.persist(transactions.get(order.get(i)));
+            if ((i + 1) % BULK_BATCH_SIZE == 0) {
+                /* Keep the persistence context small, the dirty checking cost grows with it */
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+        List<Object[]> closureRows = new ArrayList<>(BULK_BATCH_SIZE);
+        for (Long id : order) {
+            closureRows.add(new Object[]{id, id, 0});
+            int depth = 1;
+            Long ancestorId = batch.get(id).getParentId();
+            while (ancestorId != null && batch.containsKey(ancestorId)) {
+                closureRows.add(new Object[]{ancestorId, id, depth++});
+                ancestorId = batch.get(ancestorId).getParentId();
+            }
+            if (ancestorId != null) {
+                for (Long outsideAncestorId : outsideAncestors.get(ancestorId)) {
+                    closureRows.add(new Object[]{outsideAncestorId, id, depth++});
+                }
+            }
+            if (closureRows.size() >= BULK_BATCH_SIZE) {
+                transactionJdbcRepository.batchInsertClosures(closureRows);
+                closureRows.clear();
+            }
+        }
+        if (!closureRows.isEmpty()) {
+            transactionJdbcRepository.batchInsertClosures(closureRows);
+        }
+
+        /* One update of the aggregates per type of the batch */
+        Map<Integer, TransactionTypeStats> typeStats = new HashMap<>();
+        for (Transaction transaction : transactions.values()) {
+            if (transaction.getTypeId() == null) {
+                continue;
+            }
+            TransactionTypeStats stats = typeStats.computeIfAbsent(transaction.getTypeId(), typeId -> {
+                TransactionTypeStats empty = new TransactionTypeStats();
+                empty.setCount(0L);
+                empty.setSum(0d);
+                return empty;
+            });
+            stats.setCount(stats.getCount() + 1);
+            stats.setSum(stats.getSum() + amountOf(transaction));
+            if (transaction.getAmount() != null) {
+                stats.setMin(stats.getMin() == null ? transaction.getAmount() : Math.min(stats.getMin(), transaction.getAmount()));
+                stats.setMax(stats.getMax() == null ? transaction.getAmount() : Math.max(stats.getMax(), transaction.getAmount()));
+            }
+        }
+        typeStats.forEach((typeId, stats) -> addToTypeStats(typeId, stats.getCount(), stats.getSum(), stats.getMin(), stats.getMax()));
+        return order.size();
+    }
+
+    /**
+     * Detect if giving a parent to a transaction would create a cycle in the transaction tree,
+     * i.e. if the transaction is the parent itself or one of its ancestors.
+     * This is a single comparison of the materialized paths of both transactions, the subtree of the transaction is never loaded.
+     * A parent too deep to have a path is looked up in the closure table instead.
+     *
+     * @param transactionId the id of the transaction, null for a new one
+     * @param parentId the id of the proposed parent
+     * @return true if a cycle would be created
+     */
+    @Transactional(readOnly = true)
+    public boolean createsCycle(Long transactionId, Long parentId) {
+        if (transactionId == null) {
+            return false;
+        }
+        if (inMemoryHierarchy()) {
+            return transactionForestService.get().createsCycle(transactionId, parentId);
+        }
+        return transactionId.equals(parentId) || transactionRepository.countPathAncestry(transactionId, parentId) > 0;
     }
 
     /**
@@ -71,6 +373,20 @@ public class TransactionService {
         return transactionRepository.findOne(id);
     }
 
+    /**
+     * Get transactions by id, with one IN query per chunk of ids.
+     *
+     * @param ids the ids of the entities
+     * @return the existing entities, in no particular order
+     */
+    @Transactional(readOnly = true)
+    public List<Transaction> findAll(Collection<Long> ids) {
+        log.debug("Request to get {} transactions", ids.size());
+        List<Transaction> transactions = new ArrayList<>(ids.size());
+        chunks(ids).forEach(chunk -> transactions.addAll(transactionRepository.findAll(chunk)));
+        return transactions;
+    }
+
     /**
      * Get all transaction ids of the same type
      *
@@ -80,11 +396,71 @@ public class TransactionService {
     @Transactional(readOnly = true)
     public List<Long> findTransactionIdsOfType(String type) {
         log.debug("Request to get transactions of type : {}", type);
-        return transactionRepository.findAllByType(type).stream().map(Transaction::getId).collect(Collectors.toList());
+        Integer typeId = transactionTypeService.findId(type);
+        if (typeId == null) {
+            return Collections.emptyList();
+        }
+        if (inMemoryHierarchy()) {
+            return transactionForestService.get().idsOfType(typeId);
+        }
+        return transactionRepository.findIdsByTypeId(typeId);
     }
 
     /**
-     * Sum the value of all the children of a transaction
+     * Get a page of the transaction ids of the same type, in ascending order
+     *
+     * @param type the transaction type
+     * @param after the last id of the previous page, or null for the first page
+     * @param limit the maximum number of ids to return
+     * @return the transaction ids of the given type greater than the cursor
+     */
+    @Transactional(readOnly = true)
+    public List<Long> findTransactionIdsOfType(String type, Long after, int limit) {
+        log.debug("Request to get transactions of type : {} after : {} limit : {}", type, after, limit);
+        Integer typeId = transactionTypeService.findId(type);
+        if (typeId == null) {
+            return Collections.emptyList();
+        }
+        return transactionRepository.findIdsByTypeIdAfter(typeId, after == null ? Long.MIN_VALUE : after, new PageRequest(0, limit));
+    }
+
+    /**
+     * Get the maintained aggregates of the amounts of the transactions of a type, a single row read
+     *
+     * @param type the transaction type
+     * @return the aggregates, or null if there is no such type
+     */
+    @Transactional(readOnly = true)
+    public TransactionTypeStats findTypeStats(String type) {
+        log.debug("Request to get the aggregates of type : {}", type);
+        Integer typeId = transactionTypeService.findId(type);
+        TransactionTypeStats stats = typeId == null ? null : transactionTypeStatsRepository.findOne(typeId);
+        if (stats != null) {
+            /* The aggregates are only changed by bulk updates, a managed copy would not follow them */
+            entityManager.detach(stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Stream all the transaction ids of the same type, in ascending order, from a database cursor
+     *
+     * @param type the transaction type
+     * @param consumer the consumer called for each id
+     */
+    @Transactional(readOnly = true)
+    public void streamTransactionIdsOfType(String type, LongConsumer consumer) {
+        log.debug("Request to stream transactions of type : {}", type);
+        Integer typeId = transactionTypeService.findId(type);
+        if (typeId != null) {
+            transactionJdbcRepository.streamIdsByTypeId(typeId, consumer);
+        }
+    }
+
+    /**
+     * Sum the value of all the children of a transaction.
+     * It is read from the in-memory forest when loaded, then from the maintained subtree sums,
+     * or computed from the parent links when transactions.hierarchy.maintained-sums is false, see sumSubtrees.
      *
      * @param id the id of the transaction
      * @return the sum of the children of the transaction with the given id
@@ -92,8 +468,56 @@ public class TransactionService {
     @Transactional(readOnly = true)
     public Double sumChildren(Long id) {
         log.debug("Request to get sum of transaction: {}", id);
-        Transaction transaction = this.findOne(id);
-        return transaction.flattened().map(Transaction::getAmount).reduce((a, b) -> a + b).orElse(0d);
+        if (inMemoryHierarchy()) {
+            return transactionForestService.get().subtreeSum(id);
+        }
+        if (maintainedSums) {
+            return transactionRepository.findSubtreeSumById(id);
+        }
+        return sumSubtrees(Collections.singleton(id)).get(id);
+    }
+
+    /**
+     * Sum the value of the children of several transactions at once.
+     * When the sums are computed from the parent links, the union of the subtrees is read in one walk and summed
+     * in a single post-order pass, so that the transactions shared by several of the subtrees are visited once.
+     *
+     * @param ids the ids of the transactions, at most 1000
+     * @return the sums by id, without the transactions which do not exist
+     */
+    @Transactional(readOnly = true)
+    public Map<Long, Double> sumChildren(Collection<Long> ids) {
+        log.debug("Request to get the sums of {} transactions", ids.size());
+        Map<Long, Double> sums = new HashMap<>(ids.size() * 2);
+        if (inMemoryHierarchy()) {
+            ids.forEach(id -> {
+                Double sum = transactionForestService.get().subtreeSum(id);
+                if (sum != null) {
+                    sums.put(id, sum);
+                }
+            });
+        } else if (maintainedSums) {
+            for (List<Long> chunk : chunks(ids)) {
+                transactionRepository.findSubtreeSumsByIdIn(chunk).forEach(entry -> sums.put((Long) entry[0], (Double) entry[1]));
+            }
+        } else {
+            sums.putAll(sumSubtrees(ids));
+        }
+        return sums;
+    }
+
+    /**
+     * Compute subtree sums from the parent links: the union of the subtrees is read from the database, then summed
+     * with compensated additions, in parallel on the aggregate fork/join pool when it has at least
+     * transactions.aggregates.parallel-threshold transactions, in the calling thread otherwise.
+     */
+    private Map<Long, Double> sumSubtrees(Collection<Long> ids) {
+        /* The subtrees are read through JDBC, the pending changes have to be visible */
+        transactionRepository.flush();
+        TransactionSubtreeUnion.Builder builder = new TransactionSubtreeUnion.Builder();
+        transactionJdbcRepository.streamSubtreeUnion(ids, (id, parentId, amount, typeId) -> builder.add(id, parentId, amount));
+        TransactionSubtreeUnion union = builder.build();
+        return union.subtreeSums(ids, union.size() >= parallelThreshold ? aggregateForkJoinPool : null);
     }
 
     /**
@@ -103,7 +527,276 @@ public class TransactionService {
      */
     public void delete(Long id) {
         log.debug("Request to delete transaction {}", id);
+        lockTreesOf(id, null);
+        Transaction transaction = transactionRepository.findOne(id);
+        if (transaction != null) {
+            addToAncestors(transaction.getParentId(), -transaction.getSubtreeSum());
+            transactionRepository.deleteClosure(id);
+        }
         transactionRepository.delete(id);
+        if (transaction != null && transaction.getTypeId() != null) {
+            /* The bounds of the type may be read again from the remaining transactions */
+            transactionRepository.flush();
+            removeFromTypeStats(transaction.getTypeId(), transaction.getAmount());
+        }
+        transactionForestService.ifPresent(forest -> forest.remove(id));
+        transactionCacheService.invalidate(id);
+        transactionPartitionService.ifPresent(partitions -> partitions.invalidateOnOtherNodes(id));
+    }
+
+    /**
+     * Check the maintained subtree sums against the amounts stored in the database and rebuild the wrong ones.
+     *
+     * @return the number of transactions whose subtree sum has been rebuilt
+     */
+    public int rebuildSubtreeSums() {
+        log.debug("Request to rebuild subtree sums");
+        List<Object[]> entries = transactionRepository.findAllSubtreeSumEntries();
+        Map<Long, Double> expected = new HashMap<>(entries.size() * 2);
+        Map<Long, Long> parents = new HashMap<>(entries.size() * 2);
+        Map<Long, List<Long>> children = new HashMap<>();
+        Deque<Long> stack = new ArrayDeque<>();
+        for (Object[] entry : entries) {
+            Long id = (Long) entry[0];
+            Long parentId = (Long) entry[1];
+            expected.put(id, entry[2] == null ? 0d : (Double) entry[2]);
+            if (parentId == null) {
+                stack.push(id);
+            } else {
+                parents.put(id, parentId);
+                children.computeIfAbsent(parentId, k -> new ArrayList<>()).add(id);
+            }
+        }
+        /* Iterative pre-order walk from the roots, then accumulate the sums in reverse order */
+        List<Long> order = new ArrayList<>(entries.size());
+        while (!stack.isEmpty()) {
+            Long id = stack.pop();
+            order.add(id);
+            children.getOrDefault(id, Collections.emptyList()).forEach(stack::push);
+        }
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Long parentId = parents.get(order.get(i));
+            if (parentId != null) {
+                expected.merge(parentId, expected.get(order.get(i)), Double::sum);
+            }
+        }
+        int rebuilt = 0;
+        for (Object[] entry : entries) {
+            Long id = (Long) entry[0];
+            Double actual = (Double) entry[3];
+            Double sum = expected.get(id);
+            if (actual == null || Math.abs(actual - sum) > 1e-9 * Math.max(1d, Math.abs(sum))) {
+                log.warn("Inconsistent subtree sum for transaction {}: {} instead of {}", id, actual, sum);
+                transactionRepository.updateSubtreeSum(id, sum);
+                rebuilt++;
+            }
+        }
+        return rebuilt;
+    }
+
+    /**
+     * Compute the aggregates of every transaction type again from the transactions.
+     *
+     * @return the number of transaction types
+     */
+    public int rebuildTypeStats() {
+        log.debug("Request to rebuild the transaction type aggregates");
+        transactionRepository.flush();
+        return transactionTypeStatsRepository.recomputeAll();
+    }
+
+    /**
+     * Rebuild the whole closure table from the parent of each transaction.
+     *
+     * @return the number of rows of the rebuilt closure table
+     */
+    public int rebuildClosure() {
+        log.debug("Request to rebuild the transaction closure table");
+        List<Object[]> entries = transactionRepository.findAllSubtreeSumEntries();
+        Map<Long, Long> parents = new HashMap<>(entries.size() * 2);
+        for (Object[] entry : entries) {
+            if (entry[1] != null) {
+                parents.put((Long) entry[0], (Long) entry[1]);
+            }
+        }
+        transactionRepository.deleteAllClosures();
+        int rows = 0;
+        for (Object[] entry : entries) {
+            Long id = (Long) entry[0];
+            int depth = 0;
+            for (Long ancestorId = id; ancestorId != null && depth <= entries.size(); ancestorId = parents.get(ancestorId)) {
+                transactionRepository.insertClosure(ancestorId, id, depth++);
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Check the materialized paths of all the transactions against their parents and rebuild the wrong ones.
+     * The transactions on a cycle, out of reach from the roots, are left as they are.
+     *
+     * @return the number of transactions whose path has been rebuilt
+     */
+    public int rebuildPaths() {
+        log.debug("Request to rebuild the transaction paths");
+        List<Object[]> entries = transactionRepository.findAllPathEntries();
+        Map<Long, Object[]> entriesById = new HashMap<>(entries.size() * 2);
+        Map<Long, List<Long>> children = new HashMap<>();
+        Deque<Long> stack = new ArrayDeque<>();
+        for (Object[] entry : entries) {
+            Long id = (Long) entry[0];
+            Long parentId = (Long) entry[1];
+            entriesById.put(id, entry);
+            if (parentId == null) {
+                stack.push(id);
+            } else {
+                children.computeIfAbsent(parentId, k -> new ArrayList<>()).add(id);
+            }
+        }
+        /* Iterative pre-order walk from the roots, the path of a parent is known before the ones of its children */
+        Map<Long, String> paths = new HashMap<>(entries.size() * 2);
+        int rebuilt = 0;
+        while (!stack.isEmpty()) {
+            Object[] entry = entriesById.get(stack.pop());
+            Long id = (Long) entry[0];
+            Long parentId = (Long) entry[1];
+            String path = parentId == null ? TransactionPath.of(null, id) : TransactionPath.ofChild(paths.get(parentId), id);
+            Long rootId = parentId == null ? id : (Long) entriesById.get(parentId)[2];
+            Integer depth = parentId == null ? 0 : (Integer) entriesById.get(parentId)[3] + 1;
+            paths.put(id, path);
+            if (!Objects.equals(path, entry[4]) || !Objects.equals(rootId, entry[2]) || !Objects.equals(depth, entry[3])) {
+                log.warn("Inconsistent path for transaction {}: {} instead of {}", id, entry[4], path);
+                transactionRepository.updatePath(id, rootId, depth, path);
+                entry[2] = rootId;
+                entry[3] = depth;
+                rebuilt++;
+            }
+            children.getOrDefault(id, Collections.emptyList()).forEach(stack::push);
+        }
+        return rebuilt;
+    }
+
+    /**
+     * Move the paths of the descendants of a re-parented transaction under its new path, with one update of
+     * the range of the path index holding its subtree.
+     * When some of the descendants are too deep to have a path, before or after the move, they are found with the
+     * closure table instead: all at once if the transaction has no path anymore, else one by one to compute their paths.
+     */
+    private void moveDescendantPaths(String previousPath, int previousDepth, Transaction transaction) {
+        int depthDelta = transaction.getDepth() - previousDepth;
+        if (previousPath != null && transaction.getPath() != null) {
+            String pattern = TransactionPath.descendantsPattern(previousPath);
+            Integer longest = transactionRepository.findMaxPathLengthByPathLike(pattern);
+            int length = longest == null ? previousPath.length() : longest;
+            /* Every descendant has a path if the longest one leaves room for the children */
+            if (TransactionPath.fitsChildren(length)
+                    && length - previousPath.length() + transaction.getPath().length() <= TransactionPath.MAX_LENGTH) {
+                if (longest != null) {
+                    transactionRepository.movePaths(pattern, previousPath.length(), transaction.getPath(), depthDelta, transaction.getRootId());
+                }
+                return;
+            }
+        }
+        if (transaction.getPath() == null) {
+            transactionRepository.moveDescendantsWithoutPaths(transaction.getId(), depthDelta, transaction.getRootId());
+            return;
+        }
+        Map<Long, String> paths = new HashMap<>();
+        paths.put(transaction.getId(), transaction.getPath());
+        for (Object[] entry : transactionRepository.findDescendantPathEntries(transaction.getId())) {
+            Long id = (Long) entry[0];
+            String path = TransactionPath.ofChild(paths.get((Long) entry[1]), id);
+            paths.put(id, path);
+            transactionRepository.updatePath(id, transaction.getRootId(), transaction.getDepth() + (Integer) entry[2], path);
+        }
+    }
+
+    private void lockTreesOf(Long id, Long parentId) {
+        List<Long> ids = new ArrayList<>(2);
+        if (id != null) {
+            ids.add(id);
+        }
+        if (parentId != null) {
+            ids.add(parentId);
+        }
+        if (!ids.isEmpty()) {
+            transactionTreeLockService.lockTrees(() -> transactionRepository.findRootIds(ids));
+        }
+    }
+
+    private List<Long> findRootIds(Collection<Long> ids) {
+        List<Long> roots = new ArrayList<>();
+        chunks(ids).forEach(chunk -> roots.addAll(transactionRepository.findRootIds(chunk)));
+        return roots;
+    }
+
+    private boolean inMemoryHierarchy() {
+        return transactionForestService.isPresent() && transactionForestService.get().isLoaded();
+    }
+
+    /**
+     * Add transactions to the aggregates of their type.
+     *
+     * @param min the lowest of their amounts, null if none has an amount
+     * @param max the highest of their amounts, null if none has an amount
+     */
+    private void addToTypeStats(Integer typeId, long count, double sum, Double min, Double max) {
+        if (typeId == null) {
+            return;
+        }
+        transactionTypeStatsRepository.addToTotals(typeId, count, sum);
+        if (min != null) {
+            transactionTypeStatsRepository.lowerMin(typeId, min);
+            transactionTypeStatsRepository.raiseMax(typeId, max);
+        }
+    }
+
+    /**
+     * Remove a transaction from the aggregates of its type. The removal has to be flushed already, as the bounds
+     * are read again from the remaining transactions, two lookups of the (type_id, amount) index.
+     * The totals are updated first, so that the row lock is held before the bounds are read.
+     */
+    private void removeFromTypeStats(Integer typeId, Double amount) {
+        if (typeId == null) {
+            return;
+        }
+        transactionTypeStatsRepository.addToTotals(typeId, -1L, -(amount == null ? 0d : amount));
+        if (amount != null) {
+            transactionTypeStatsRepository.recomputeBounds(typeId);
+        }
+    }
+
+    /**
+     * Add to the maintained subtree sums of a transaction and all its ancestors, a single update of the rows found
+     * in the closure table whatever the depth. The entities already loaded keep their previous sums.
+     *
+     * @param id the id of the transaction, null for none
+     */
+    private void addToAncestors(Long id, double delta) {
+        if (id != null && delta != 0d) {
+            transactionRepository.addToSubtreeSums(id, delta);
+        }
+    }
+
+    private static List<List<Long>> chunks(Collection<Long> ids) {
+        List<List<Long>> chunks = new ArrayList<>();
+        List<Long> chunk = new ArrayList<>(BULK_BATCH_SIZE);
+        for (Long id : ids) {
+            chunk.add(id);
+            if (chunk.size() == BULK_BATCH_SIZE) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>(BULK_BATCH_SIZE);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static double amountOf(Transaction transaction) {
+        return transaction.getAmount() == null ? 0d : transaction.getAmount();
     }
 
 }
@@ -0,0 +1,405 @@
+package org.jbourdon.springRestExample.service;
+
+import com.carrotsearch.hppc.ByteArrayList;
+import com.carrotsearch.hppc.DoubleArrayList;
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Point-in-time snapshot of the transaction forest, in a columnar file memory-mapped when it is read.
+ * <p>
+ * The file starts with <code>[magic: long][version: int][rows: int]</code>, then one
+ * <code>[offset: long][length: long][crc32: int]</code> entry per column and the crc32 of all that header.
+ * The columns follow, each aligned on 8 bytes: the type dictionary, <code>[types: int]</code> then
+ * <code>[type id: int][name length: short][name: UTF-8]</code> per type, and one fixed-width value per row for the
+ * ids, the flags (amount and parent present), the parent ids, the amounts, the type ids and the subtree sums.
+ * The rows are sorted parents first, in a breadth-first order of the trees, so that they can be inserted in order.
+ * <p>
+ * The file is written under a temporary name and moved in place, and every checksum is verified when it is
+ * opened, before any row is read.
+ */
+public final class TransactionSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionSnapshot.class);
+
+    public static final int NO_TYPE = -1;
+
+    private static final long MAGIC = 0x5458534e41505348L;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = (int) align(8 + 4 + 4 + Column.values().length * (8 + 8 + 4) + 4);
+
+    private static final byte HAS_AMOUNT = 1;
+
+    private static final byte HAS_PARENT = 2;
+
+    private final int rows;
+
+    private final Map<Integer, String> types;
+
+    private final LongBuffer ids;
+
+    private final ByteBuffer flags;
+
+    private final LongBuffer parentIds;
+
+    private final DoubleBuffer amounts;
+
+    private final IntBuffer typeIds;
+
+    private final DoubleBuffer subtreeSums;
+
+    private TransactionSnapshot(int rows, Map<Integer, String> types, ByteBuffer[] columns) {
+        this.rows = rows;
+        this.types = types;
+        this.ids = columns[Column.IDS.ordinal()].asLongBuffer();
+        this.flags = columns[Column.FLAGS.ordinal()];
+        this.parentIds = columns[Column.PARENT_IDS.ordinal()].asLongBuffer();
+        this.amounts = columns[Column.AMOUNTS.ordinal()].asDoubleBuffer();
+        this.typeIds = columns[Column.TYPE_IDS.ordinal()].asIntBuffer();
+        this.subtreeSums = columns[Column.SUBTREE_SUMS.ordinal()].asDoubleBuffer();
+    }
+
+    /**
+     * Map a snapshot file and verify its checksums.
+     *
+     * @param file the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file cannot be read, or is not a valid snapshot
+     */
+    public static TransactionSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    break;
+                }
+            }
+            if (header.hasRemaining()) {
+                throw corrupted(file, "truncated header");
+            }
+            header.flip();
+            if (header.getLong() != MAGIC) {
+                throw corrupted(file, "not a transaction snapshot");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw corrupted(file, "unsupported version " + version);
+            }
+            int rows = header.getInt();
+            ByteBuffer[] columns = new ByteBuffer[Column.values().length];
+            long[] offsets = new long[columns.length];
+            long[] lengths = new long[columns.length];
+            int[] checksums = new int[columns.length];
+            for (Column column : Column.values()) {
+                offsets[column.ordinal()] = header.getLong();
+                lengths[column.ordinal()] = header.getLong();
+                checksums[column.ordinal()] = header.getInt();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, header.position());
+            if (header.getInt() != (int) crc.getValue()) {
+                throw corrupted(file, "header checksum mismatch");
+            }
+            if (rows < 0) {
+                throw corrupted(file, "negative row count");
+            }
+            for (Column column : Column.values()) {
+                long offset = offsets[column.ordinal()];
+                long length = lengths[column.ordinal()];
+                if (offset < HEADER_SIZE || length < 0 || length > Integer.MAX_VALUE || offset + length > size
+                        || (column.width > 0 && length != (long) rows * column.width)) {
+                    throw corrupted(file, "bad bounds of the " + column + " column");
+                }
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                crc.reset();
+                crc.update(mapped.duplicate());
+                if ((int) crc.getValue() != checksums[column.ordinal()]) {
+                    throw corrupted(file, "checksum mismatch of the " + column + " column");
+                }
+                columns[column.ordinal()] = mapped;
+            }
+            return new TransactionSnapshot(rows, readTypes(file, columns[Column.TYPES.ordinal()]), columns);
+        }
+    }
+
+    /**
+     * @return the number of transactions of the snapshot
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * @return the type dictionary, type id to name
+     */
+    public Map<Integer, String> getTypes() {
+        return types;
+    }
+
+    public long getId(int row) {
+        return ids.get(row);
+    }
+
+    public Long getParentId(int row) {
+        return (flags.get(row) & HAS_PARENT) != 0 ? parentIds.get(row) : null;
+    }
+
+    public Double getAmount(int row) {
+        return (flags.get(row) & HAS_AMOUNT) != 0 ? amounts.get(row) : null;
+    }
+
+    /**
+     * @return the id of the type in the dictionary of the snapshot, or {@link #NO_TYPE}
+     */
+    public int getTypeId(int row) {
+        return typeIds.get(row);
+    }
+
+    public double getSubtreeSum(int row) {
+        return subtreeSums.get(row);
+    }
+
+    private static Map<Integer, String> readTypes(Path file, ByteBuffer column) throws IOException {
+        ByteBuffer dictionary = column.duplicate();
+        Map<Integer, String> types = new TreeMap<>();
+        try {
+            int count = dictionary.getInt();
+            for (int i = 0; i < count; i++) {
+                int id = dictionary.getInt();
+                byte[] name = new byte[dictionary.getShort() & 0xFFFF];
+                dictionary.get(name);
+                types.put(id, new String(name, StandardCharsets.UTF_8));
+            }
+        } catch (RuntimeException e) {
+            throw corrupted(file, "bad type dictionary");
+        }
+        return Collections.unmodifiableMap(types);
+    }
+
+    private static IOException corrupted(Path file, String reason) {
+        return new IOException("Invalid transaction snapshot " + file + ": " + reason);
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /**
+     * The columns of the file, in order, with the width of their values, 0 for the variable-width dictionary
+     */
+    private enum Column {
+        TYPES(0), IDS(8), FLAGS(1), PARENT_IDS(8), AMOUNTS(8), TYPE_IDS(4), SUBTREE_SUMS(8);
+
+        private final int width;
+
+        Column(int width) {
+            this.width = width;
+        }
+    }
+
+    /**
+     * Accumulator of the transactions of a snapshot, in any order, written sorted parents first
+     */
+    public static final class Writer {
+
+        private final Map<Integer, String> types = new TreeMap<>();
+
+        private final LongArrayList ids = new LongArrayList();
+
+        private final ByteArrayList flags = new ByteArrayList();
+
+        private final LongArrayList parentIds = new LongArrayList();
+
+        private final DoubleArrayList amounts = new DoubleArrayList();
+
+        private final IntArrayList typeIds = new IntArrayList();
+
+        private final DoubleArrayList subtreeSums = new DoubleArrayList();
+
+        public void addType(int id, String name) {
+            types.put(id, name);
+        }
+
+        /**
+         * @param typeId the id of the type in the dictionary, or {@link #NO_TYPE}
+         */
+        public void add(long id, Long parentId, Double amount, int typeId, double subtreeSum) {
+            ids.add(id);
+            flags.add((byte) ((amount != null ? HAS_AMOUNT : 0) | (parentId != null ? HAS_PARENT : 0)));
+            parentIds.add(parentId != null ? parentId : 0L);
+            amounts.add(amount != null ? amount : 0d);
+            typeIds.add(typeId);
+            subtreeSums.add(subtreeSum);
+        }
+
+        /**
+         * Write the snapshot file, replacing an existing one. The transactions out of reach from the roots,
+         * on a cycle of a corrupted hierarchy, are left out.
+         *
+         * @param file the snapshot file
+         * @return the number of written transactions
+         * @throws IOException if the file cannot be written
+         */
+        public int write(Path file) throws IOException {
+            if ((long) ids.size() * 8 > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Too many transactions for a snapshot: " + ids.size());
+            }
+            int[] order = parentsFirst();
+            if (order.length < ids.size()) {
+                log.warn("{} transactions out of reach from the roots are left out of the snapshot", ids.size() - order.length);
+            }
+            byte[][] names = new byte[types.size()][];
+            int dictionaryLength = 4;
+            int type = 0;
+            for (String name : types.values()) {
+                names[type] = name.getBytes(StandardCharsets.UTF_8);
+                if (names[type].length > 0xFFFF) {
+                    throw new IllegalArgumentException("Transaction type name too long: " + name);
+                }
+                dictionaryLength += 4 + 2 + names[type++].length;
+            }
+
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(order.length);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long offset = HEADER_SIZE;
+                for (Column column : Column.values()) {
+                    int length = column.width > 0 ? order.length * column.width : dictionaryLength;
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, offset, length);
+                    switch (column) {
+                        case TYPES:
+                            mapped.putInt(types.size());
+                            type = 0;
+                            for (Integer id : types.keySet()) {
+                                mapped.putInt(id);
+                                mapped.putShort((short) names[type].length);
+                                mapped.put(names[type++]);
+                            }
+                            break;
+                        case IDS:
+                            for (int row : order) {
+                                mapped.putLong(ids.get(row));
+                            }
+                            break;
+                        case FLAGS:
+                            for (int row : order) {
+                                mapped.put(flags.get(row));
+                            }
+                            break;
+                        case PARENT_IDS:
+                            for (int row : order) {
+                                mapped.putLong(parentIds.get(row));
+                            }
+                            break;
+                        case AMOUNTS:
+                            for (int row : order) {
+                                mapped.putDouble(amounts.get(row));
+                            }
+                            break;
+                        case TYPE_IDS:
+                            for (int row : order) {
+                                mapped.putInt(typeIds.get(row));
+                            }
+                            break;
+                        case SUBTREE_SUMS:
+                            for (int row : order) {
+                                mapped.putDouble(subtreeSums.get(row));
+                            }
+                            break;
+                    }
+                    mapped.force();
+                    CRC32 crc = new CRC32();
+                    mapped.flip();
+                    crc.update(mapped);
+                    header.putLong(offset);
+                    header.putLong(length);
+                    header.putInt((int) crc.getValue());
+                    offset = align(offset + length);
+                }
+                CRC32 crc = new CRC32();
+                crc.update(header.array(), 0, header.position());
+                header.putInt((int) crc.getValue());
+                header.rewind();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return order.length;
+        }
+
+        /**
+         * Breadth-first order of the rows from the roots, the children of each row being found through a
+         * compact adjacency array rather than per row lists.
+         */
+        private int[] parentsFirst() {
+            int size = ids.size();
+            LongIntHashMap rowsById = new LongIntHashMap(size);
+            for (int row = 0; row < size; row++) {
+                rowsById.put(ids.get(row), row);
+            }
+            int[] parentRows = new int[size];
+            int[] firstChild = new int[size + 1];
+            for (int row = 0; row < size; row++) {
+                parentRows[row] = (flags.get(row) & HAS_PARENT) != 0 ? rowsById.getOrDefault(parentIds.get(row), -1) : -1;
+                if (parentRows[row] >= 0) {
+                    firstChild[parentRows[row] + 1]++;
+                }
+            }
+            for (int row = 0; row < size; row++) {
+                firstChild[row + 1] += firstChild[row];
+            }
+            int[] children = new int[firstChild[size]];
+            int[] filled = new int[size];
+            for (int row = 0; row < size; row++) {
+                int parentRow = parentRows[row];
+                if (parentRow >= 0) {
+                    children[firstChild[parentRow] + filled[parentRow]++] = row;
+                }
+            }
+            int[] order = new int[size];
+            int tail = 0;
+            for (int row = 0; row < size; row++) {
+                if ((flags.get(row) & HAS_PARENT) == 0) {
+                    order[tail++] = row;
+                }
+            }
+            for (int head = 0; head < tail; head++) {
+                int row = order[head];
+                for (int child = firstChild[row]; child < firstChild[row + 1]; child++) {
+                    order[tail++] = children[child];
+                }
+            }
+            return tail == size ? order : Arrays.copyOf(order, tail);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.jbourdon.springRestExample.service;
+
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongIntHashMap;
+import org.jbourdon.springRestExample.domain.TransactionPath;
+import org.jbourdon.springRestExample.domain.TransactionType;
+import org.jbourdon.springRestExample.repository.TransactionJdbcRepository;
+import org.jbourdon.springRestExample.repository.TransactionRepository;
+import org.jbourdon.springRestExample.repository.TransactionTypeRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service exporting the transaction forest to a {@link TransactionSnapshot} file, and importing such a file into
+ * a database without transactions, on startup when <code>transactions.snapshot.import-file</code> is set.
+ * <p>
+ * The import does not go through TransactionService: the snapshot holds the maintained subtree sums, the roots,
+ * depths, paths and closure rows are derived from the parents while the rows are read in order, and all of them
+ * are inserted with JDBC batches. Only the type aggregates are computed again, by the database.
+ * The batches are committed as they go rather than in one huge database transaction, so a failed import leaves
+ * part of the forest behind, to be deleted before importing again.
+ */
+@Service
+public class TransactionSnapshotService {
+
+    private final Logger log = LoggerFactory.getLogger(TransactionSnapshotService.class);
+
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    @Value("${transactions.snapshot.directory:./target/snapshots}")
+    private String directory;
+
+    @Value("${transactions.snapshot.import-file:}")
+    private String importFile;
+
+    @Value("${transactions.snapshot.batch-size:1000}")
+    private int batchSize;
+
+    @Inject
+    private TransactionJdbcRepository transactionJdbcRepository;
+
+    @Inject
+    private TransactionRepository transactionRepository;
+
+    @Inject
+    private TransactionTypeRepository transactionTypeRepository;
+
+    @Inject
+    private TransactionTypeService transactionTypeService;
+
+    @Inject
+    private TransactionService transactionService;
+
+    private final TransactionTemplate batchTransactionTemplate;
+
+    @Inject
+    public TransactionSnapshotService(PlatformTransactionManager transactionManager) {
+        this.batchTransactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Import the snapshot file of the <code>transactions.snapshot.import-file</code> property, if any, unless the
+     * database already holds transactions. It runs before the application serves any request.
+     *
+     * @throws IOException if the snapshot cannot be read
+     */
+    @PostConstruct
+    public void importOnStartup() throws IOException {
+        if (importFile.isEmpty()) {
+            return;
+        }
+        if (transactionRepository.count() > 0) {
+            log.warn("The database already holds transactions, the snapshot {} is not imported", importFile);
+            return;
+        }
+        importSnapshot(Paths.get(importFile));
+    }
+
+    /**
+     * Write a snapshot of all the transactions to a new file of the <code>transactions.snapshot.directory</code>.
+     *
+     * @return the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    @Transactional(readOnly = true)
+    public Path export() throws IOException {
+        Path file = Paths.get(directory).resolve("transactions-" + LocalDateTime.now().format(FILE_TIMESTAMP) + ".snapshot");
+        Files.createDirectories(file.getParent());
+        export(file);
+        return file;
+    }
+
+    /**
+     * Write a snapshot of all the transactions.
+     *
+     * @param file the snapshot file, replaced if it exists
+     * @return the number of transactions in the snapshot
+     * @throws IOException if the file cannot be written
+     */
+    @Transactional(readOnly = true)
+    public int export(Path file) throws IOException {
+        log.debug("Request to export the transactions to {}", file);
+        long start = System.currentTimeMillis();
+        TransactionSnapshot.Writer writer = new TransactionSnapshot.Writer();
+        transactionJdbcRepository.streamSnapshot(writer::add);
+        /* The dictionary only grows, so read after the transactions it holds all their types */
+        for (TransactionType type : transactionTypeRepository.findAll()) {
+            writer.addType(type.getId(), type.getName());
+        }
+        int rows = writer.write(file);
+        log.info("Exported {} transactions to {} in {} ms", rows, file, System.currentTimeMillis() - start);
+        return rows;
+    }
+
+    /**
+     * Insert all the transactions of a snapshot into a database without transactions.
+     *
+     * @param file the snapshot file
+     * @return the number of imported transactions
+     * @throws IOException if the snapshot cannot be read or is not valid
+     * @throws IllegalStateException if the database already holds transactions
+     */
+    public int importSnapshot(Path file) throws IOException {
+        log.info("Importing the transaction snapshot {}", file);
+        long start = System.currentTimeMillis();
+        TransactionSnapshot snapshot = TransactionSnapshot.open(file);
+        if (transactionRepository.count() > 0) {
+            throw new IllegalStateException("Snapshots can only be imported into a database without transactions");
+        }
+        int rows = snapshot.size();
+        int[] parentRows = parentRowsOf(file, snapshot);
+
+        /* The types are interned again, the ids of the dictionary of this database may differ */
+        Map<Integer, Integer> typeIds = new HashMap<>();
+        for (Map.Entry<Integer, String> type : snapshot.getTypes().entrySet()) {
+            typeIds.put(type.getKey(), transactionTypeService.intern(type.getValue()));
+        }
+
+        List<Object[]> transactions = new ArrayList<>(batchSize);
+        List<Object[]> closures = new ArrayList<>();
+        LongArrayList ancestors = new LongArrayList();
+        for (int row = 0; row < rows; row++) {
+            long id = snapshot.getId(row);
+            /* Ancestors from the transaction itself up to its root */
+            ancestors.clear();
+            for (int ancestor = row; ancestor >= 0; ancestor = parentRows[ancestor]) {
+                ancestors.add(snapshot.getId(ancestor));
+            }
+            int depth = ancestors.size() - 1;
+            String path = null;
+            for (int i = depth; i >= 0; i--) {
+                path = i == depth ? TransactionPath.of(null, ancestors.get(i)) : TransactionPath.ofChild(path, ancestors.get(i));
+                closures.add(new Object[]{ancestors.get(i), id, i});
+            }
+            int typeId = snapshot.getTypeId(row);
+            transactions.add(new Object[]{id, snapshot.getAmount(row),
+                    typeId == TransactionSnapshot.NO_TYPE ? null : snapshot.getTypes().get(typeId),
+                    typeId == TransactionSnapshot.NO_TYPE ? null : typeIds.get(typeId),
+                    snapshot.getSubtreeSum(row), snapshot.getParentId(row), ancestors.get(depth), depth, path});
+            if (transactions.size() >= batchSize) {
+                insert(transactions, closures);
+            }
+        }
+        insert(transactions, closures);
+        transactionService.rebuildTypeStats();
+        log.info("Imported {} transactions from {} in {} ms", rows, file, System.currentTimeMillis() - start);
+        return rows;
+    }
+
+    /**
+     * Check that every transaction of a snapshot is unique and follows its parent, before anything is inserted.
+     *
+     * @return the row of the parent of each row, -1 for the roots
+     */
+    private static int[] parentRowsOf(Path file, TransactionSnapshot snapshot) throws IOException {
+        int rows = snapshot.size();
+        LongIntHashMap rowsById = new LongIntHashMap(rows);
+        int[] parentRows = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            long id = snapshot.getId(row);
+            if (rowsById.containsKey(id)) {
+                throw new IOException("Invalid transaction snapshot " + file + ": transaction " + id + " is duplicated");
+            }
+            Long parentId = snapshot.getParentId(row);
+            parentRows[row] = parentId == null ? -1 : rowsById.getOrDefault(parentId, -1);
+            if (parentId != null && parentRows[row] < 0) {
+                throw new IOException("Invalid transaction snapshot " + file + ": transaction " + id + " precedes its parent " + parentId);
+            }
+            int typeId = snapshot.getTypeId(row);
+            if (typeId != TransactionSnapshot.NO_TYPE && !snapshot.getTypes().containsKey(typeId)) {
+                throw new IOException("Invalid transaction snapshot " + file + ": unknown type " + typeId + " of transaction " + id);
+            }
+            rowsById.put(id, row);
+        }
+        return parentRows;
+    }
+
+    private void insert(List<Object[]> transactions, List<Object[]> closures) {
+        /* One commit per batch rather than per row, the closure rows reference the transactions which go first */
+        batchTransactionTemplate.execute(status -> {
+            transactionJdbcRepository.batchInsertTransactions(transactions);
+            transactionJdbcRepository.batchInsertClosures(closures);
+            return null;
+        });
+        transactions.clear();
+        closures.clear();
+    }
+}
@@ -0,0 +1,300 @@
+package org.jbourdon.springRestExample.service;
+
+import com.carrotsearch.hppc.DoubleArrayList;
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongIntHashMap;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The union of the subtrees of some transactions, made of primitive arrays like TransactionForest, to compute
+ * the subtree sums of all these transactions in a single post-order pass: a transaction shared by several of the
+ * subtrees is visited once.
+ * <p>
+ * The pass walks the subtrees with an explicit stack, so that the depth of the trees does not matter. In parallel,
+ * the children of the transactions near the top of a walk, and of the transactions with a large child set, are
+ * summed by fork/join tasks, the child sets being split into ranges. The amounts are added with a compensated
+ * (Kahan-Babuska) summation, so that the sums do not depend on how the work is split, up to the rounding error.
+ */
+public class TransactionSubtreeUnion {
+
+    private static final int NONE = -1;
+
+    /** size of the ranges of the large child sets summed by a task without splitting them */
+    private static final int CHILDREN_PER_TASK = 1024;
+
+    /** depth of a walk under which the children of a transaction are forked, whatever their number */
+    private static final int FORK_DEPTH = 2;
+
+    /** number of tasks at most summing the children of a transaction near the top of a walk */
+    private static final int TASKS_PER_CHILD_SET = 64;
+
+    /** nesting of the forked walks at most, so that the joins cannot pile up on a thread stack */
+    private static final int MAX_FORK_LEVELS = 4;
+
+    private final LongIntHashMap indexes;
+
+    private final long[] ids;
+
+    private final double[] amounts;
+
+    private final int[] parents;
+
+    /** children of the transaction i are childIndexes[childOffsets[i]] to childIndexes[childOffsets[i + 1] - 1] */
+    private final int[] childOffsets;
+
+    private final int[] childIndexes;
+
+    private TransactionSubtreeUnion(int size) {
+        indexes = new LongIntHashMap(size);
+        ids = new long[size];
+        amounts = new double[size];
+        parents = new int[size];
+        childOffsets = new int[size + 1];
+        childIndexes = new int[size];
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Compute the subtree sums of some transactions of the union.
+     *
+     * @param requestedIds the ids of the transactions
+     * @param pool the pool of the parallel pass, or null to sum sequentially in the calling thread
+     * @return the subtree sums by id, without the ids which are not in the union
+     */
+    public Map<Long, Double> subtreeSums(Collection<Long> requestedIds, ForkJoinPool pool) {
+        IntArrayList roots = new IntArrayList();
+        for (int i = 0; i < ids.length; i++) {
+            if (parents[i] == NONE) {
+                roots.add(i);
+            }
+        }
+        Pass pass = new Pass(pool != null);
+        ChildrenTask task = new ChildrenTask(pass, roots.toArray(), 0, roots.size(), grainOf(roots.size(), 0), 0);
+        if (pool != null) {
+            pool.invoke(task);
+        } else {
+            task.invoke();
+        }
+        Map<Long, Double> result = new HashMap<>(requestedIds.size() * 2);
+        for (Long id : requestedIds) {
+            int index = indexes.getOrDefault(id, NONE);
+            if (index != NONE) {
+                result.put(id, pass.sums[index] + pass.compensations[index]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The state of one pass: the compensated sum of each subtree, each written by the single task walking it
+     */
+    private final class Pass {
+
+        private final boolean parallel;
+
+        private final double[] sums = new double[ids.length];
+
+        private final double[] compensations = new double[ids.length];
+
+        Pass(boolean parallel) {
+            this.parallel = parallel;
+        }
+
+        /**
+         * Sum a subtree with an explicit stack: pre-order first, forking the child sets to split, then each
+         * transaction is added to its parent in reverse order.
+         */
+        void walk(int root, int forkLevel) {
+            boolean fork = parallel && forkLevel < MAX_FORK_LEVELS;
+            IntArrayList order = new IntArrayList();
+            IntArrayList stack = new IntArrayList();
+            IntArrayList depths = new IntArrayList();
+            Map<Integer, ChildrenTask> forked = null;
+            stack.add(root);
+            depths.add(0);
+            while (!stack.isEmpty()) {
+                int index = stack.remove(stack.size() - 1);
+                int depth = depths.remove(depths.size() - 1);
+                order.add(index);
+                sums[index] = 0d;
+                compensations[index] = 0d;
+                int childCount = childOffsets[index + 1] - childOffsets[index];
+                if (fork && childCount > 1 && (depth < FORK_DEPTH || childCount > CHILDREN_PER_TASK)) {
+                    ChildrenTask task = new ChildrenTask(this, childIndexes, childOffsets[index], childOffsets[index + 1],
+                            grainOf(childCount, depth), forkLevel + 1);
+                    task.fork();
+                    if (forked == null) {
+                        forked = new HashMap<>();
+                    }
+                    forked.put(index, task);
+                } else {
+                    for (int c = childOffsets[index]; c < childOffsets[index + 1]; c++) {
+                        stack.add(childIndexes[c]);
+                        depths.add(depth + 1);
+                    }
+                }
+            }
+            for (int position = order.size() - 1; position >= 0; position--) {
+                int index = order.get(position);
+                add(index, amounts[index], 0d);
+                ChildrenTask task = forked == null ? null : forked.get(index);
+                if (task != null) {
+                    double[] children = task.join();
+                    add(index, children[0], children[1]);
+                }
+                if (position > 0) {
+                    add(parents[index], sums[index], compensations[index]);
+                }
+            }
+        }
+
+        /**
+         * Add a compensated value to the compensated sum of a subtree
+         */
+        private void add(int index, double value, double compensation) {
+            double total = sums[index] + value;
+            compensations[index] += roundingError(sums[index], value, total) + compensation;
+            sums[index] = total;
+        }
+    }
+
+    /**
+     * Fork/join task summing the subtrees of a range of children, as a compensated {sum, compensation} pair.
+     * The ranges larger than the grain are split in halves.
+     */
+    private final class ChildrenTask extends RecursiveTask<double[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Pass pass;
+
+        private final int[] children;
+
+        private final int from;
+
+        private final int to;
+
+        private final int grain;
+
+        private final int forkLevel;
+
+        ChildrenTask(Pass pass, int[] children, int from, int to, int grain, int forkLevel) {
+            this.pass = pass;
+            this.children = children;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.forkLevel = forkLevel;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (pass.parallel && to - from > grain) {
+                int middle = (from + to) >>> 1;
+                ChildrenTask right = new ChildrenTask(pass, children, middle, to, grain, forkLevel);
+                right.fork();
+                double[] result = new ChildrenTask(pass, children, from, middle, grain, forkLevel).compute();
+                double[] rightResult = right.join();
+                return combine(result, rightResult[0], rightResult[1]);
+            }
+            double[] result = {0d, 0d};
+            for (int k = from; k < to; k++) {
+                int child = children[k];
+                if (childOffsets[child] == childOffsets[child + 1]) {
+                    /* A leaf, as most of the children of a wide transaction */
+                    pass.sums[child] = amounts[child];
+                } else {
+                    pass.walk(child, forkLevel);
+                }
+                combine(result, pass.sums[child], pass.compensations[child]);
+            }
+            return result;
+        }
+
+        private double[] combine(double[] result, double value, double compensation) {
+            double total = result[0] + value;
+            result[1] += roundingError(result[0], value, total) + compensation;
+            result[0] = total;
+            return result;
+        }
+    }
+
+    /**
+     * @return the number of children summed by a task: near the top of a walk, the child set is split
+     * into many tasks since the subtrees are large, and only in ranges of a large child set under it
+     */
+    private static int grainOf(int childCount, int depth) {
+        if (depth < FORK_DEPTH) {
+            return Math.max(1, Math.min(CHILDREN_PER_TASK, childCount / TASKS_PER_CHILD_SET));
+        }
+        return CHILDREN_PER_TASK;
+    }
+
+    /**
+     * The low-order bits lost by the addition of two doubles (Neumaier), kept apart by the compensated sums
+     */
+    private static double roundingError(double a, double b, double total) {
+        return Math.abs(a) >= Math.abs(b) ? (a - total) + b : (b - total) + a;
+    }
+
+    /**
+     * Builder of the union from its rows, in any order. A transaction whose parent is not in the union
+     * is one of its roots.
+     */
+    public static class Builder {
+
+        private final LongArrayList ids = new LongArrayList();
+
+        private final LongArrayList parentIds = new LongArrayList();
+
+        private final DoubleArrayList amounts = new DoubleArrayList();
+
+        private final IntArrayList hasParent = new IntArrayList();
+
+        public Builder add(long id, Long parentId, double amount) {
+            ids.add(id);
+            parentIds.add(parentId == null ? 0L : parentId);
+            hasParent.add(parentId == null ? 0 : 1);
+            amounts.add(amount);
+            return this;
+        }
+
+        public TransactionSubtreeUnion build() {
+            int count = ids.size();
+            TransactionSubtreeUnion union = new TransactionSubtreeUnion(count);
+            for (int i = 0; i < count; i++) {
+                union.indexes.put(ids.get(i), i);
+                union.ids[i] = ids.get(i);
+                union.amounts[i] = amounts.get(i);
+            }
+            int[] childCounts = new int[count];
+            for (int i = 0; i < count; i++) {
+                int parent = hasParent.get(i) == 1 ? union.indexes.getOrDefault(parentIds.get(i), NONE) : NONE;
+                union.parents[i] = parent;
+                if (parent != NONE) {
+                    childCounts[parent]++;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                union.childOffsets[i + 1] = union.childOffsets[i] + childCounts[i];
+            }
+            int[] positions = new int[count];
+            System.arraycopy(union.childOffsets, 0, positions, 0, count);
+            for (int i = 0; i < count; i++) {
+                if (union.parents[i] != NONE) {
+                    union.childIndexes[positions[union.parents[i]]++] = i;
+                }
+            }
+            return union;
+        }
+    }
+}
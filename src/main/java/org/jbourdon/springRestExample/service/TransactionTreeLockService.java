@@ -0,0 +1,98 @@
+package org.jbourdon.springRestExample.service;
+
+import org.jbourdon.springRestExample.repository.TransactionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Service serializing the writes by transaction tree, so that two concurrent re-parentings cannot each pass the
+ * cycle check and create a cycle together, while the writes to unrelated trees proceed in parallel.
+ * <p>
+ * The trees are identified by their root, and mapped to a fixed set of lock stripes. The locks are taken at the
+ * start of a database transaction, before any write, always in the order of the stripes so that two writes
+ * spanning the same trees cannot deadlock, and they are released once the database transaction completes so that
+ * the next write of the tree reads the committed state.
+ * <p>
+ * When the trees are partitioned over several nodes, a write may still run on a node which does not own its trees,
+ * during a rebalancing or when it spans several trees. The rows of the roots are then locked in the database as well,
+ * so that the writes of a tree are serialized across the nodes.
+ */
+@Service
+public class TransactionTreeLockService {
+
+    @Value("${transactions.concurrency.lock-stripes:1024}")
+    private int lockStripes;
+
+    @Value("${transactions.partitioning.enabled:false}")
+    private boolean partitioned;
+
+    @Inject
+    private TransactionRepository transactionRepository;
+
+    private ReentrantLock[] locks;
+
+    @PostConstruct
+    public void init() {
+        locks = new ReentrantLock[Integer.highestOneBit(Math.max(lockStripes - 1, 1)) << 1];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Lock the trees of the given roots until the end of the current database transaction.
+     * The roots are read again once the locks are held, as a tree may have been moved under another root while
+     * waiting for them, and the locking is retried if they changed.
+     *
+     * @param roots the supplier of the ids of the roots of the trees to lock
+     * @throws IllegalStateException if no database transaction is active
+     */
+    public void lockTrees(Supplier<Collection<Long>> roots) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Transaction trees can only be locked in a database transaction");
+        }
+        Set<Long> lockedRoots = new HashSet<>();
+        Collection<Long> currentRoots = roots.get();
+        TreeSet<Integer> stripes = stripesOf(currentRoots);
+        while (true) {
+            stripes.forEach(stripe -> locks[stripe].lock());
+            TreeSet<Integer> lockedStripes = stripes;
+            if (partitioned && !lockedRoots.containsAll(currentRoots)) {
+                /* The database locks are only released at the end of the transaction, they accumulate on retries */
+                lockedRoots.addAll(transactionRepository.lockRoots(currentRoots));
+            }
+            currentRoots = roots.get();
+            stripes = stripesOf(currentRoots);
+            if (lockedStripes.containsAll(stripes) && (!partitioned || lockedRoots.containsAll(currentRoots))) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        lockedStripes.descendingSet().forEach(stripe -> locks[stripe].unlock());
+                    }
+                });
+                return;
+            }
+            lockedStripes.descendingSet().forEach(stripe -> locks[stripe].unlock());
+        }
+    }
+
+    private TreeSet<Integer> stripesOf(Collection<Long> roots) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (Long root : roots) {
+            long hash = root * 0x9E3779B97F4A7C15L;
+            stripes.add((int) (hash >>> 32) & (locks.length - 1));
+        }
+        return stripes;
+    }
+}
@@ -0,0 +1,98 @@
+package org.jbourdon.springRestExample.service;
+
+import org.jbourdon.springRestExample.domain.TransactionType;
+import org.jbourdon.springRestExample.repository.TransactionTypeRepository;
+import org.jbourdon.springRestExample.repository.TransactionTypeStatsRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.inject.Inject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Service interning the transaction type names into the transaction type dictionary.
+ * The dictionary only grows, so the name to id mapping is cached in memory once read.
+ */
+@Service
+public class TransactionTypeService {
+
+    private final Logger log = LoggerFactory.getLogger(TransactionTypeService.class);
+
+    private final Map<String, Integer> typeIds = new ConcurrentHashMap<>();
+
+    private final TransactionTemplate newTransactionTemplate;
+
+    @Inject
+    private TransactionTypeRepository transactionTypeRepository;
+
+    @Inject
+    private TransactionTypeStatsRepository transactionTypeStatsRepository;
+
+    @Inject
+    public TransactionTypeService(PlatformTransactionManager transactionManager) {
+        /* New types are committed on their own so that a rolled back transaction never leaves a cached id behind */
+        this.newTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.newTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Get the id of a type, creating it in the dictionary, with empty aggregates, if needed.
+     *
+     * @param name the type name
+     * @return the type id, or null for a null name
+     */
+    public Integer intern(String name) {
+        if (name == null) {
+            return null;
+        }
+        Integer id = typeIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        try {
+            id = newTransactionTemplate.execute(status -> {
+                TransactionType type = transactionTypeRepository.findOneByName(name);
+                if (type == null) {
+                    log.debug("Request to create transaction type : {}", name);
+                    type = new TransactionType();
+                    type.setName(name);
+                    type = transactionTypeRepository.saveAndFlush(type);
+                    transactionTypeStatsRepository.insertEmpty(type.getId());
+                }
+                return type.getId();
+            });
+        } catch (DataIntegrityViolationException e) {
+            /* Created concurrently by another request */
+            id = newTransactionTemplate.execute(status -> transactionTypeRepository.findOneByName(name).getId());
+        }
+        typeIds.put(name, id);
+        return id;
+    }
+
+    /**
+     * Get the id of an existing type without creating it.
+     *
+     * @param name the type name
+     * @return the type id, or null if there is no such type
+     */
+    public Integer findId(String name) {
+        if (name == null) {
+            return null;
+        }
+        Integer id = typeIds.get(name);
+        if (id == null) {
+            TransactionType type = transactionTypeRepository.findOneByName(name);
+            if (type != null) {
+                id = type.getId();
+                typeIds.put(name, id);
+            }
+        }
+        return id;
+    }
+}
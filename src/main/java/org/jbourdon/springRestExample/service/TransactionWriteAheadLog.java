@@ -0,0 +1,363 @@
+package org.jbourdon.springRestExample.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the transaction writes, made of memory-mapped segment files.
+ * <p>
+ * Each record is framed as <code>[payload length: int][crc32 of payload: int][payload]</code>, the payload being
+ * <code>[sequence: long][operation: byte][id: long][flags: byte][amount: double][parent id: long][type length: short][type: UTF-8]</code>.
+ * Segments are preallocated with zeros, so a zero length marks the end of the log, and a record whose checksum
+ * does not match is a torn write of a crash: the log is truncated there when it is opened.
+ * <p>
+ * Appends are serialized, {@link #sync(long)} forces the segment to the disk for all the records appended so far,
+ * so that concurrent writers waiting for their record share one fsync (group commit). The sequence of the last
+ * record applied to the database is saved by {@link #checkpoint(long)}, which also deletes the segments that are
+ * entirely applied, and only the records after it are replayed.
+ */
+public class TransactionWriteAheadLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionWriteAheadLog.class);
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    private static final int FIXED_PAYLOAD_SIZE = 8 + 1 + 8 + 1 + 8 + 8 + 2;
+
+    private static final byte HAS_AMOUNT = 1;
+
+    private static final byte HAS_PARENT = 2;
+
+    private static final byte HAS_TYPE = 4;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    /**
+     * First sequence of each segment, to its file
+     */
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+
+    private final Object syncLock = new Object();
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    private long lastSequence;
+
+    private long durableSequence;
+
+    private long checkpointSequence;
+
+    /**
+     * Open the log, creating the directory if needed and truncating a torn record at its end.
+     *
+     * @param directory the directory of the segment files
+     * @param segmentSize the size of each segment file, in bytes
+     * @throws IOException if the log cannot be read or created
+     */
+    public TransactionWriteAheadLog(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            checkpointSequence = Long.parseLong(new String(Files.readAllBytes(checkpoint), StandardCharsets.US_ASCII).trim());
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        if (segments.isEmpty()) {
+            lastSequence = checkpointSequence;
+            openSegment(checkpointSequence + 1);
+        } else {
+            mapSegment(segments.lastEntry().getValue());
+            lastSequence = Math.max(checkpointSequence, segments.lastKey() - 1);
+            while (true) {
+                Record record = read(buffer);
+                if (record == null) {
+                    break;
+                }
+                lastSequence = record.sequence;
+            }
+            /* Clear what may follow the last valid record, so that it is not read back after the next appends */
+            ByteBuffer tail = buffer.duplicate();
+            byte[] zeros = new byte[64 * 1024];
+            while (tail.hasRemaining()) {
+                tail.put(zeros, 0, Math.min(zeros.length, tail.remaining()));
+            }
+        }
+        durableSequence = lastSequence;
+        log.info("Opened the transaction log in {}, last record {}, checkpoint {}", directory, lastSequence, checkpointSequence);
+    }
+
+    /**
+     * Append a record to the log. It is not durable until {@link #sync(long)} is called.
+     *
+     * @return the sequence of the record
+     * @throws IOException if a new segment cannot be created
+     */
+    public synchronized long append(Operation operation, long id, Double amount, String type, Long parentId) throws IOException {
+        byte[] typeBytes = type == null ? new byte[0] : type.getBytes(StandardCharsets.UTF_8);
+        int payloadSize = FIXED_PAYLOAD_SIZE + typeBytes.length;
+        if (typeBytes.length > 0xFFFF || FRAME_HEADER_SIZE + payloadSize > segmentSize) {
+            throw new IllegalArgumentException("Transaction record larger than a log segment");
+        }
+        if (buffer.remaining() < FRAME_HEADER_SIZE + payloadSize) {
+            buffer.force();
+            openSegment(lastSequence + 1);
+        }
+        long sequence = ++lastSequence;
+        ByteBuffer payload = ByteBuffer.allocate(payloadSize);
+        payload.putLong(sequence);
+        payload.put(operation.code);
+        payload.putLong(id);
+        payload.put((byte) ((amount != null ? HAS_AMOUNT : 0) | (parentId != null ? HAS_PARENT : 0) | (type != null ? HAS_TYPE : 0)));
+        payload.putDouble(amount != null ? amount : 0d);
+        payload.putLong(parentId != null ? parentId : 0L);
+        payload.putShort((short) typeBytes.length);
+        payload.put(typeBytes);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        buffer.putInt(payloadSize);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload.array());
+        return sequence;
+    }
+
+    /**
+     * Make a record durable. The segment is forced for all the records appended so far, so the writers waiting
+     * behind the one doing the fsync usually find their record already durable.
+     *
+     * @param sequence the sequence of the record
+     */
+    public void sync(long sequence) {
+        synchronized (syncLock) {
+            if (durableSequence >= sequence) {
+                return;
+            }
+            long target;
+            MappedByteBuffer current;
+            synchronized (this) {
+                target = lastSequence;
+                current = buffer;
+            }
+            current.force();
+            durableSequence = target;
+        }
+    }
+
+    /**
+     * Record that all the records up to a sequence are applied to the database, and delete the segments which
+     * only hold such records.
+     *
+     * @param sequence the sequence of the last applied record
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public synchronized void checkpoint(long sequence) throws IOException {
+        if (sequence <= checkpointSequence) {
+            return;
+        }
+        checkpointSequence = sequence;
+        Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.write(temporary, Long.toString(sequence).getBytes(StandardCharsets.US_ASCII));
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        while (segments.size() > 1) {
+            Long nextFirstSequence = segments.higherKey(segments.firstKey());
+            if (nextFirstSequence - 1 > sequence) {
+                break;
+            }
+            Files.deleteIfExists(segments.pollFirstEntry().getValue());
+        }
+    }
+
+    /**
+     * Read the records following the checkpoint, in order.
+     *
+     * @param consumer the consumer called for each record
+     * @throws IOException if a segment cannot be read
+     */
+    public synchronized void replay(Consumer<Record> consumer) throws IOException {
+        for (Path segment : new ArrayList<>(segments.values())) {
+            ByteBuffer records;
+            try (FileChannel file = FileChannel.open(segment, StandardOpenOption.READ)) {
+                records = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            }
+            Record record;
+            while ((record = read(records)) != null && record.sequence <= lastSequence) {
+                if (record.sequence > checkpointSequence) {
+                    consumer.accept(record);
+                }
+            }
+        }
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    public synchronized long getCheckpointSequence() {
+        return checkpointSequence;
+    }
+
+    List<Path> getSegments() {
+        return new ArrayList<>(segments.values());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private void openSegment(long firstSequence) throws IOException {
+        Path segment = directory.resolve(String.format("%020d%s", firstSequence, SEGMENT_SUFFIX));
+        segments.put(firstSequence, segment);
+        mapSegment(segment);
+    }
+
+    private void mapSegment(Path segment) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    /**
+     * Read the record at the position of the buffer, and move after it.
+     *
+     * @return the record, or null at the end of the log or on a torn record, the position is left unchanged then
+     */
+    private static Record read(ByteBuffer records) {
+        int start = records.position();
+        try {
+            int payloadSize = records.getInt();
+            int checksum = records.getInt();
+            if (payloadSize < FIXED_PAYLOAD_SIZE || payloadSize > records.remaining()) {
+                records.position(start);
+                return null;
+            }
+            byte[] payload = new byte[payloadSize];
+            records.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                records.position(start);
+                return null;
+            }
+            ByteBuffer fields = ByteBuffer.wrap(payload);
+            long sequence = fields.getLong();
+            Operation operation = Operation.fromCode(fields.get());
+            long id = fields.getLong();
+            byte flags = fields.get();
+            double amount = fields.getDouble();
+            long parentId = fields.getLong();
+            byte[] type = new byte[fields.getShort() & 0xFFFF];
+            fields.get(type);
+            return new Record(sequence, operation, id,
+                    (flags & HAS_AMOUNT) != 0 ? amount : null,
+                    (flags & HAS_TYPE) != 0 ? new String(type, StandardCharsets.UTF_8) : null,
+                    (flags & HAS_PARENT) != 0 ? parentId : null);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            records.position(start);
+            return null;
+        }
+    }
+
+    /**
+     * Operation of a record
+     */
+    public enum Operation {
+        CREATE((byte) 1), UPDATE((byte) 2), DELETE((byte) 3);
+
+        private final byte code;
+
+        Operation(byte code) {
+            this.code = code;
+        }
+
+        static Operation fromCode(byte code) {
+            for (Operation operation : values()) {
+                if (operation.code == code) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown transaction log operation " + code);
+        }
+    }
+
+    /**
+     * A record of the log
+     */
+    public static final class Record {
+
+        private final long sequence;
+
+        private final Operation operation;
+
+        private final long id;
+
+        private final Double amount;
+
+        private final String type;
+
+        private final Long parentId;
+
+        Record(long sequence, Operation operation, long id, Double amount, String type, Long parentId) {
+            this.sequence = sequence;
+            this.operation = operation;
+            this.id = id;
+            this.amount = amount;
+            this.type = type;
+            this.parentId = parentId;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Double getAmount() {
+            return amount;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public Long getParentId() {
+            return parentId;
+        }
+    }
+}
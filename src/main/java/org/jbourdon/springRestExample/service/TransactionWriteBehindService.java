@@ -0,0 +1,409 @@
+package org.jbourdon.springRestExample.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.jbourdon.springRestExample.service.TransactionWriteAheadLog.Operation;
+import org.jbourdon.springRestExample.web.rest.BulkTransactionRestWrapper;
+import org.jbourdon.springRestExample.web.rest.TransactionRestWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service acknowledging the transaction writes before they are committed, to absorb write bursts.
+ * It is enabled with the <code>transactions.write-behind.enabled</code> property.
+ * The writes are appended to a bounded queue, drained by a single writer thread which saves them in groups,
+ * one database transaction and JDBC batch per group. When the queue is full the writes are refused instead of
+ * blocking the caller, and the queue is flushed when the application shuts down.
+ * <p>
+ * Unless <code>transactions.write-behind.wal.enabled</code> is false, each write is also appended to a
+ * {@link TransactionWriteAheadLog} and made durable before it is acknowledged. The log is checkpointed after each
+ * saved group, and the writes it holds beyond the checkpoint are replayed when the service starts, before the
+ * application serves any request.
+ */
+@Service
+@ConditionalOnProperty(prefix = "transactions.write-behind", name = "enabled", havingValue = "true")
+public class TransactionWriteBehindService {
+
+    private final Logger log = LoggerFactory.getLogger(TransactionWriteBehindService.class);
+
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    @Value("${transactions.write-behind.queue-capacity:100000}")
+    private int queueCapacity;
+
+    @Value("${transactions.write-behind.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${transactions.write-behind.status-retention:1000000}")
+    private long statusRetention;
+
+    @Value("${transactions.write-behind.shutdown-timeout-seconds:30}")
+    private long shutdownTimeoutSeconds;
+
+    @Value("${transactions.write-behind.wal.enabled:true}")
+    private boolean walEnabled;
+
+    @Value("${transactions.write-behind.wal.directory:./target/wal}")
+    private String walDirectory;
+
+    @Value("${transactions.write-behind.wal.segment-size:67108864}")
+    private int walSegmentSize;
+
+    @Inject
+    private TransactionService transactionService;
+
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * Number of queued writes per transaction id
+     */
+    private final ConcurrentMap<Long, Integer> pending = new ConcurrentHashMap<>();
+
+    private Semaphore capacity;
+
+    private Cache<Long, WriteStatus> completed;
+
+    private TransactionWriteAheadLog writeAheadLog;
+
+    /**
+     * Keeps the queue in the order of the log
+     */
+    private final Object appendLock = new Object();
+
+    private Thread writer;
+
+    private volatile boolean accepting;
+
+    @PostConstruct
+    public void start() throws IOException {
+        log.info("Transaction write-behind queue of {} writes, saved in groups of {}", queueCapacity, batchSize);
+        capacity = new Semaphore(queueCapacity);
+        completed = Caffeine.newBuilder()
+                .maximumSize(statusRetention)
+                .build();
+        metricRegistry.register("write-behind.transaction.queue-size", (Gauge<Integer>) queue::size);
+        if (walEnabled) {
+            writeAheadLog = new TransactionWriteAheadLog(Paths.get(walDirectory), walSegmentSize);
+            replay();
+        }
+        accepting = true;
+        writer = new Thread(this::drain, "transaction-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue the creation or update of a transaction.
+     *
+     * @param transactionRestWrapper the wrapper representing the transaction to save
+     * @param transactionId the id of the transaction
+     * @return false if the queue is full
+     * @throws IllegalStateException if the transaction is its own parent, or if the application is shutting down
+     */
+    public boolean submit(TransactionRestWrapper transactionRestWrapper, Long transactionId) {
+        validate(transactionRestWrapper, transactionId);
+        if (!capacity.tryAcquire()) {
+            return false;
+        }
+        enqueue(Collections.singletonList(new PendingWrite(Operation.UPDATE, transactionId, transactionRestWrapper)));
+        return true;
+    }
+
+    /**
+     * Queue the creation of transactions in bulk. Either all of them or none are queued.
+     *
+     * @param transactionRestWrappers the wrappers representing the transactions to create, with their ids
+     * @return false if the queue cannot take all the transactions
+     * @throws IllegalStateException if an id is missing, if a transaction is its own parent,
+     * or if the application is shutting down
+     */
+    public boolean submitAll(List<BulkTransactionRestWrapper> transactionRestWrappers) {
+        transactionRestWrappers.forEach(wrapper -> validate(wrapper, wrapper.getId()));
+        if (!capacity.tryAcquire(transactionRestWrappers.size())) {
+            return false;
+        }
+        List<PendingWrite> writes = new ArrayList<>(transactionRestWrappers.size());
+        transactionRestWrappers.forEach(wrapper -> writes.add(new PendingWrite(Operation.CREATE, wrapper.getId(), wrapper)));
+        enqueue(writes);
+        return true;
+    }
+
+    /**
+     * Queue the deletion of a transaction.
+     *
+     * @param transactionId the id of the transaction
+     * @return false if the queue is full
+     * @throws IllegalStateException if the application is shutting down
+     */
+    public boolean submitDelete(Long transactionId) {
+        if (!accepting) {
+            throw new IllegalStateException("The application is shutting down");
+        }
+        if (!capacity.tryAcquire()) {
+            return false;
+        }
+        enqueue(Collections.singletonList(new PendingWrite(Operation.DELETE, transactionId, null)));
+        return true;
+    }
+
+    /**
+     * Get the state of the last write of a transaction.
+     *
+     * @param transactionId the id of the transaction
+     * @return the status, or null if no write of this transaction is queued or remembered
+     */
+    public WriteStatus getStatus(Long transactionId) {
+        if (pending.containsKey(transactionId)) {
+            return WriteStatus.PENDING;
+        }
+        return completed.getIfPresent(transactionId);
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Stop accepting writes and wait for the writer thread to save the queued ones.
+     */
+    @PreDestroy
+    public void flush() throws InterruptedException, IOException {
+        accepting = false;
+        log.info("Flushing {} queued transaction writes", queue.size());
+        writer.join(TimeUnit.SECONDS.toMillis(shutdownTimeoutSeconds));
+        if (writer.isAlive()) {
+            log.error("{} transaction writes are left in the log, the writer did not finish in {} seconds", queue.size(), shutdownTimeoutSeconds);
+            writer.interrupt();
+        }
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+    }
+
+    private void validate(TransactionRestWrapper transactionRestWrapper, Long transactionId) {
+        if (!accepting) {
+            throw new IllegalStateException("The application is shutting down");
+        }
+        if (transactionId == null) {
+            throw new IllegalStateException("Missing id for transaction " + transactionRestWrapper);
+        }
+        if (transactionId.equals(transactionRestWrapper.getParentId())) {
+            throw new IllegalStateException("Cycle detected in the transaction tree");
+        }
+    }
+
+    /**
+     * Append the writes to the log and the queue in the same order, then wait for the log to be on the disk.
+     */
+    private void enqueue(List<PendingWrite> writes) {
+        long lastSequence = 0;
+        synchronized (appendLock) {
+            for (int i = 0; i < writes.size(); i++) {
+                PendingWrite write = writes.get(i);
+                if (writeAheadLog != null) {
+                    try {
+                        TransactionRestWrapper wrapper = write.wrapper;
+                        write.sequence = lastSequence = wrapper == null ?
+                                writeAheadLog.append(write.operation, write.id, null, null, null) :
+                                writeAheadLog.append(write.operation, write.id, wrapper.getAmount(), wrapper.getType(), wrapper.getParentId());
+                    } catch (IOException e) {
+                        capacity.release(writes.size() - i);
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                pending.merge(write.id, 1, Integer::sum);
+                queue.add(write);
+            }
+        }
+        if (writeAheadLog != null) {
+            writeAheadLog.sync(lastSequence);
+        }
+    }
+
+    /**
+     * Save the writes left in the log by the previous run, in groups like the writer thread does.
+     */
+    private void replay() throws IOException {
+        List<PendingWrite> writes = new ArrayList<>();
+        writeAheadLog.replay(record -> {
+            PendingWrite write = PendingWrite.fromRecord(record);
+            write.replayed = true;
+            writes.add(write);
+        });
+        if (writes.isEmpty()) {
+            return;
+        }
+        log.info("Replaying {} transaction writes from the log", writes.size());
+        for (int from = 0; from < writes.size(); from += batchSize) {
+            List<PendingWrite> group = writes.subList(from, Math.min(from + batchSize, writes.size()));
+            group.forEach(write -> pending.merge(write.id, 1, Integer::sum));
+            write(group);
+        }
+    }
+
+    private void drain() {
+        List<PendingWrite> group = new ArrayList<>(batchSize);
+        while (accepting || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                queue.drainTo(group, batchSize - 1);
+                write(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Unexpected error while saving queued transactions", e);
+                /* Reported as failed, so they must not be replayed from the log either */
+                group.stream().filter(write -> !write.reported).forEach(write -> complete(write, WriteStatus.FAILED));
+                checkpoint(group);
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    /**
+     * Save a group of writes in a single database transaction when they are all creations, which is the common case
+     * of a burst. Otherwise, or if the group is refused, fall back to saving the writes one by one in their order.
+     * The log is checkpointed once the group is saved.
+     */
+    private void write(List<PendingWrite> group) {
+        if (group.stream().allMatch(write -> write.operation == Operation.CREATE)) {
+            List<BulkTransactionRestWrapper> wrappers = new ArrayList<>(group.size());
+            group.forEach(write -> wrappers.add((BulkTransactionRestWrapper) write.wrapper));
+            try {
+                transactionService.saveAll(wrappers);
+                group.forEach(write -> complete(write, WriteStatus.COMMITTED));
+                checkpoint(group);
+                return;
+            } catch (RuntimeException e) {
+                log.debug("Group of {} transactions refused, saving them one by one: {}", group.size(), e.getMessage());
+            }
+        }
+        for (PendingWrite write : group) {
+            try {
+                switch (write.operation) {
+                    case CREATE:
+                        if (transactionService.findOne(write.id) != null) {
+                            throw new IllegalStateException("Transaction " + write.id + " already exists");
+                        }
+                        transactionService.save(write.wrapper, write.id);
+                        break;
+                    case UPDATE:
+                        transactionService.save(write.wrapper, write.id);
+                        break;
+                    case DELETE:
+                        transactionService.delete(write.id);
+                        break;
+                }
+                complete(write, WriteStatus.COMMITTED);
+            } catch (RuntimeException e) {
+                log.warn("Queued transaction {} could not be saved: {}", write.id, e.getMessage());
+                complete(write, WriteStatus.FAILED);
+            }
+        }
+        checkpoint(group);
+    }
+
+    private void checkpoint(List<PendingWrite> group) {
+        if (writeAheadLog == null) {
+            return;
+        }
+        try {
+            writeAheadLog.checkpoint(group.get(group.size() - 1).sequence);
+        } catch (IOException e) {
+            /* The writes are saved, they will only be replayed again */
+            log.error("Could not checkpoint the transaction log", e);
+        }
+    }
+
+    private void complete(PendingWrite write, WriteStatus status) {
+        write.reported = true;
+        completed.put(write.id, status);
+        pending.computeIfPresent(write.id, (id, count) -> count == 1 ? null : count - 1);
+        if (!write.replayed) {
+            capacity.release();
+        }
+    }
+
+    /**
+     * State of the writes of a transaction
+     */
+    public enum WriteStatus {
+        PENDING, COMMITTED, FAILED
+    }
+
+    private static final class PendingWrite {
+
+        private final Operation operation;
+
+        private final Long id;
+
+        /**
+         * The transaction to create or update, null for a deletion
+         */
+        private final TransactionRestWrapper wrapper;
+
+        private long sequence;
+
+        /**
+         * Read back from the log, it holds no capacity of the queue
+         */
+        private boolean replayed;
+
+        /**
+         * Reported as committed or failed, the capacity it held is released
+         */
+        private boolean reported;
+
+        private PendingWrite(Operation operation, Long id, TransactionRestWrapper wrapper) {
+            this.operation = operation;
+            this.id = id;
+            this.wrapper = wrapper;
+        }
+
+        private static PendingWrite fromRecord(TransactionWriteAheadLog.Record record) {
+            TransactionRestWrapper wrapper = null;
+            if (record.getOperation() != Operation.DELETE) {
+                wrapper = record.getOperation() == Operation.CREATE ? new BulkTransactionRestWrapper() : new TransactionRestWrapper();
+                wrapper.setAmount(record.getAmount());
+                wrapper.setType(record.getType());
+                wrapper.setParentId(record.getParentId());
+                if (wrapper instanceof BulkTransactionRestWrapper) {
+                    ((BulkTransactionRestWrapper) wrapper).setId(record.getId());
+                }
+            }
+            PendingWrite write = new PendingWrite(record.getOperation(), record.getId(), wrapper);
+            write.sequence = record.getSequence();
+            return write;
+        }
+    }
+}
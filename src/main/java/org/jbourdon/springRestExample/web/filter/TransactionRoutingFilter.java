@@ -0,0 +1,123 @@
+package org.jbourdon.springRestExample.web.filter;
+
+import org.jbourdon.springRestExample.service.TransactionPartitionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Filter routing the requests of a single transaction to the node owning its tree, see TransactionPartitionService.
+ * The requests are either forwarded to the owner and its response copied back, or redirected to the owner with a
+ * 307 (Temporary Redirect) which the client follows with the same method and body. The forwarded bodies are streamed
+ * both ways rather than held in memory.
+ * <p>
+ * The forwarded requests carry the {@link TransactionPartitionService#FORWARDED_HEADER} header and are served by the
+ * node receiving them, whatever its own view of the owners, so that two nodes disagreeing during a rebalancing cannot
+ * bounce a request. If the owner cannot be reached, the request fails with a 503 (Service Unavailable) until the owner
+ * is back or removed from the nodes.
+ */
+public class TransactionRoutingFilter extends OncePerRequestFilter {
+
+    private static final Pattern ROUTED_PATH = Pattern.compile("/transactionservice/(?:transaction|sum)/(-?\\d{1,18})(?:/status)?");
+
+    private static final Set<String> HOP_BY_HOP_HEADERS = new HashSet<>(Arrays.asList("connection", "keep-alive",
+            "proxy-authenticate", "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade", "host", "content-length"));
+
+    private final Logger log = LoggerFactory.getLogger(TransactionRoutingFilter.class);
+
+    private final TransactionPartitionService transactionPartitionService;
+
+    private final RestTemplate restTemplate;
+
+    private final boolean redirect;
+
+    /**
+     * @param transactionPartitionService the service assigning the trees to the nodes
+     * @param restTemplate the client forwarding the requests, it must neither throw on error statuses nor buffer the request bodies
+     * @param redirect true to redirect the requests to their owner, false to forward them
+     */
+    public TransactionRoutingFilter(TransactionPartitionService transactionPartitionService, RestTemplate restTemplate, boolean redirect) {
+        this.transactionPartitionService = transactionPartitionService;
+        this.restTemplate = restTemplate;
+        this.redirect = redirect;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Matcher matcher = ROUTED_PATH.matcher(request.getRequestURI().substring(request.getContextPath().length()));
+        if (request.getHeader(TransactionPartitionService.FORWARDED_HEADER) != null || !matcher.matches()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        Optional<String> owner = transactionPartitionService.ownerOf(Long.valueOf(matcher.group(1)));
+        if (!owner.isPresent() || transactionPartitionService.isSelf(owner.get())) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        String location = owner.get() + request.getRequestURI() + (request.getQueryString() == null ? "" : "?" + request.getQueryString());
+        if (redirect) {
+            response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+            response.setHeader(HttpHeaders.LOCATION, location);
+            return;
+        }
+        try {
+            restTemplate.execute(URI.create(location), HttpMethod.valueOf(request.getMethod()), forwardedRequest -> {
+                forwardedRequest.getHeaders().putAll(forwardedHeadersOf(request));
+                if (hasBody(request)) {
+                    StreamUtils.copy(request.getInputStream(), forwardedRequest.getBody());
+                }
+            }, forwarded -> {
+                response.setStatus(forwarded.getRawStatusCode());
+                forwarded.getHeaders().forEach((name, values) -> {
+                    if (!HOP_BY_HOP_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                        values.forEach(value -> response.addHeader(name, value));
+                    }
+                });
+                StreamUtils.copy(forwarded.getBody(), response.getOutputStream());
+                return null;
+            });
+        } catch (ResourceAccessException e) {
+            if (response.isCommitted()) {
+                throw e;
+            }
+            log.warn("Transaction owner {} unreachable for {}: {}", owner.get(), request.getRequestURI(), e.getMessage());
+            response.reset();
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+        }
+    }
+
+    /**
+     * @return true if the request has a body to forward, of a known length or chunked
+     */
+    private static boolean hasBody(HttpServletRequest request) {
+        return request.getContentLengthLong() > 0 || request.getHeader(HttpHeaders.TRANSFER_ENCODING) != null;
+    }
+
+    private HttpHeaders forwardedHeadersOf(HttpServletRequest request) {
+        HttpHeaders headers = new HttpHeaders();
+        for (String name : Collections.list(request.getHeaderNames())) {
+            if (!HOP_BY_HOP_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                headers.put(name, Collections.list(request.getHeaders(name)));
+            }
+        }
+        headers.set(TransactionPartitionService.FORWARDED_HEADER, transactionPartitionService.getSelf());
+        return headers;
+    }
+}
@@ -0,0 +1,30 @@
+package org.jbourdon.springRestExample.web.rest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Object used to map a transaction of a bulk import, which carries its own id
+ */
+public class BulkTransactionRestWrapper extends TransactionRestWrapper {
+
+    @JsonProperty(value = "id")
+    private Long id;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkTransactionRestWrapper{" +
+                "id=" + id +
+                ", amount=" + getAmount() +
+                ", type='" + getType() + '\'' +
+                ", parentId=" + getParentId() +
+                '}';
+    }
+}
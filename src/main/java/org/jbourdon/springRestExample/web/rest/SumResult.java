@@ -1,10 +1,12 @@
 package org.jbourdon.springRestExample.web.rest;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 /**
  * Class representing a transaction SumResult
  */
+@JsonSerialize(using = SumResultSerializer.class)
 public class SumResult {
 
     private final Double sum;
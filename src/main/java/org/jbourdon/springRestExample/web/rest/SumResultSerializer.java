@@ -0,0 +1,32 @@
+package org.jbourdon.springRestExample.web.rest;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * Hand-written serializer of a SumResult, writing the sum straight to the generator with a pre-encoded name
+ */
+public class SumResultSerializer extends StdSerializer<SumResult> {
+
+    private static final SerializedString SUM = new SerializedString("sum");
+
+    public SumResultSerializer() {
+        super(SumResult.class);
+    }
+
+    @Override
+    public void serialize(SumResult sumResult, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(SUM);
+        if (sumResult.getSum() == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(sumResult.getSum());
+        }
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,82 @@
+package org.jbourdon.springRestExample.web.rest;
+
+import org.jbourdon.springRestExample.service.TransactionCacheService;
+import org.jbourdon.springRestExample.service.TransactionPartitionService;
+import org.jbourdon.springRestExample.web.util.SmileHttpMessageConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.inject.Inject;
+import java.util.List;
+
+/**
+ * REST controller managing the nodes sharing the transaction trees, when they are partitioned.
+ */
+@RestController
+@RequestMapping("/transactionservice")
+@ConditionalOnProperty(prefix = "transactions.partitioning", name = "enabled", havingValue = "true")
+public class TransactionPartitionResource {
+
+    private final Logger log = LoggerFactory.getLogger(TransactionPartitionResource.class);
+
+    @Inject
+    private TransactionPartitionService transactionPartitionService;
+
+    @Inject
+    private TransactionCacheService transactionCacheService;
+
+    /**
+     * GET  /partition/nodes : get the nodes sharing the transaction trees
+     *
+     * @return the ResponseEntity with status 200 (OK) and the base URLs of the nodes in body
+     */
+    @RequestMapping(value = "/partition/nodes",
+            method = RequestMethod.GET,
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<List<String>> getNodes() {
+        log.debug("REST request to get the partition nodes");
+        return ResponseEntity.ok(transactionPartitionService.getNodes());
+    }
+
+    /**
+     * PUT  /partition/nodes : replace the nodes sharing the transaction trees, when a node joins or leaves.
+     * The node receiving the request passes the new nodes on to the previous and the new nodes, the trees whose
+     * owner changes are rebalanced.
+     *
+     * @param nodes the base URLs of the nodes
+     * @param forwardedBy the node passing the new nodes on, if any
+     * @return the ResponseEntity with status 200 (OK) and the base URLs of the nodes in body
+     */
+    @RequestMapping(value = "/partition/nodes",
+            method = RequestMethod.PUT,
+            consumes = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<List<String>> setNodes(@RequestBody List<String> nodes,
+                                                 @RequestHeader(value = TransactionPartitionService.FORWARDED_HEADER, required = false) String forwardedBy) {
+        log.debug("REST request to set the partition nodes : {}, from {}", nodes, forwardedBy);
+        return ResponseEntity.ok(forwardedBy == null ? transactionPartitionService.publishNodes(nodes) : transactionPartitionService.setNodes(nodes));
+    }
+
+    /**
+     * POST  /partition/invalidations : drop transactions written by another node from the cache of this one
+     *
+     * @param ids the ids of the written transactions
+     * @return the ResponseEntity with status 200 (OK)
+     */
+    @RequestMapping(value = "/partition/invalidations",
+            method = RequestMethod.POST,
+            consumes = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<Void> invalidateTransactions(@RequestBody List<Long> ids) {
+        log.debug("REST request to invalidate the cached transactions : {}", ids);
+        ids.forEach(transactionCacheService::invalidate);
+        return ResponseEntity.ok().build();
+    }
+}
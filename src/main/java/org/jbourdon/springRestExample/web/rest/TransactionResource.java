@@ -1,22 +1,51 @@
 package org.jbourdon.springRestExample.web.rest;
 
-import com.fasterxml.jackson.annotation.JsonView;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.jbourdon.springRestExample.domain.Transaction;
-import org.jbourdon.springRestExample.domain.TransactionView;
+import org.jbourdon.springRestExample.domain.TransactionTypeStats;
+import org.jbourdon.springRestExample.service.TransactionAggregateService;
+import org.jbourdon.springRestExample.service.TransactionCacheService;
 import org.jbourdon.springRestExample.service.TransactionService;
+import org.jbourdon.springRestExample.service.TransactionSnapshotService;
+import org.jbourdon.springRestExample.service.TransactionWriteBehindService;
 import org.jbourdon.springRestExample.web.util.HeaderUtil;
+import org.jbourdon.springRestExample.web.util.IdStreamWriter;
+import org.jbourdon.springRestExample.web.util.SmileHttpMessageConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * REST controller for managing Transaction.
@@ -26,36 +55,134 @@ import java.util.Optional;
 @RequestMapping("/transactionservice")
 public class TransactionResource {
 
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private static final int MAX_PAGE_SIZE = 10000;
+
+    private static final int MAX_LOOKUP_SIZE = 10000;
+
+    private static final int MAX_SUM_SIZE = 1000;
+
+    private static final byte[] MISSING_TRANSACTION = "null".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String NEXT_AFTER_HEADER = "X-transactionsApp-next-after";
+
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+
+    private static final HttpHeaders QUEUE_FULL_ALERT = HeaderUtil.createStaticFailureAlert("transaction", "queuefull",
+            "The transaction write queue is full");
+
+    private static final HttpHeaders TOO_MANY_LOOKUP_IDS_ALERT = HeaderUtil.createStaticFailureAlert("transaction", "toomanyids",
+            "At most " + MAX_LOOKUP_SIZE + " ids can be looked up at once");
+
+    private static final HttpHeaders TOO_MANY_SUM_IDS_ALERT = HeaderUtil.createStaticFailureAlert("transaction", "toomanyids",
+            "At most " + MAX_SUM_SIZE + " sums can be computed at once");
+
+    private static final HttpHeaders TIMEOUT_ALERT = HeaderUtil.createStaticFailureAlert("transaction", "timeout",
+            "The aggregate query timed out");
+
+    private static final HttpHeaders BUSY_ALERT = HeaderUtil.createStaticFailureAlert("transaction", "busy",
+            "Too many aggregate queries running");
+
     private final Logger log = LoggerFactory.getLogger(TransactionResource.class);
 
     @Inject
     private TransactionService transactionService;
 
+    @Inject
+    private TransactionAggregateService transactionAggregateService;
+
+    @Inject
+    private TransactionCacheService transactionCacheService;
+
+    @Inject
+    private TransactionSnapshotService transactionSnapshotService;
+
+    @Inject
+    private ObjectMapper objectMapper;
+
+    @Inject
+    private SmileHttpMessageConverter smileHttpMessageConverter;
+
+    @Inject
+    private Optional<TransactionWriteBehindService> transactionWriteBehindService;
+
     /**
      * POST  /transaction : Create a new transaction.
      *
      * @param transactionRestWrapper the wrapper representing the transaction to create
-     * @return the ResponseEntity with status 201 (Created) and with body the new transaction, or with status 400 (Bad Request) if the transaction has already an ID
+     * @return the ResponseEntity with status 201 (Created) and with body the new transaction, or with status 400 (Bad Request)
+     * as the transaction has no ID here, the ids being given by the clients with PUT /transaction/:id
      * @throws URISyntaxException if the Location URI syntax is incorrect
      */
     @RequestMapping(value = "/transaction",
             method = RequestMethod.POST,
-            produces = MediaType.APPLICATION_JSON_VALUE)
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
     public ResponseEntity<UpdateStatus> createTransaction(@RequestBody TransactionRestWrapper transactionRestWrapper) throws URISyntaxException {
         log.debug("REST request to save Transaction : {}", transactionRestWrapper);
-        UpdateStatus updateStatus = new UpdateStatus("ok");
         try {
             Transaction result = transactionService.save(transactionRestWrapper);
             return ResponseEntity.created(new URI("//transactionservice/transaction/" + result.getId()))
                     .headers(HeaderUtil.createEntityCreationAlert("transaction", result.getId().toString()))
-                    .body(updateStatus);
+                    .body(UpdateStatus.OK);
         } catch (IllegalStateException e) {
-            updateStatus = new UpdateStatus("error");
-            return ResponseEntity.badRequest().headers(HeaderUtil.createFailureAlert("transaction", "illegalstate", e.getMessage())).body(updateStatus);
+            return ResponseEntity.badRequest().headers(HeaderUtil.createFailureAlert("transaction", "illegalstate", e.getMessage())).body(UpdateStatus.ERROR);
         }
 
     }
 
+    /**
+     * POST  /transactions : Create new transactions in bulk from a JSON array.
+     *
+     * @param transactionRestWrappers the wrappers representing the transactions to create, with their ids
+     * @return the ResponseEntity with status 200 (OK) and with body the ok status, or with status 400 (Bad Request)
+     * if the batch is not valid (e.g. existing id, unknown parent or cycle)
+     */
+    @RequestMapping(value = "/transactions",
+            method = RequestMethod.POST,
+            consumes = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<UpdateStatus> createTransactions(@RequestBody List<BulkTransactionRestWrapper> transactionRestWrappers) {
+        log.debug("REST request to save {} Transactions", transactionRestWrappers.size());
+        try {
+            if (transactionWriteBehindService.isPresent()) {
+                if (!transactionWriteBehindService.get().submitAll(transactionRestWrappers)) {
+                    return queueFull();
+                }
+                return ResponseEntity.status(HttpStatus.ACCEPTED)
+                        .headers(HeaderUtil.createAlert(transactionRestWrappers.size() + " transactions are queued",
+                                String.valueOf(transactionRestWrappers.size())))
+                        .body(UpdateStatus.ACCEPTED);
+            }
+            int created = transactionService.saveAll(transactionRestWrappers);
+            return ResponseEntity.ok()
+                    .headers(HeaderUtil.createAlert(created + " transactions are created", String.valueOf(created)))
+                    .body(UpdateStatus.OK);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest().headers(HeaderUtil.createFailureAlert("transaction", "illegalstate", e.getMessage())).body(UpdateStatus.ERROR);
+        }
+    }
+
+    /**
+     * POST  /transactions : Create new transactions in bulk from newline delimited JSON objects.
+     *
+     * @param inputStream the request body
+     * @return the ResponseEntity with status 200 (OK) and with body the ok status, or with status 400 (Bad Request)
+     * if the batch is not valid (e.g. existing id, unknown parent or cycle)
+     * @throws IOException if the request body cannot be read
+     */
+    @RequestMapping(value = "/transactions",
+            method = RequestMethod.POST,
+            consumes = NDJSON_VALUE,
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<UpdateStatus> createTransactionsFromStream(InputStream inputStream) throws IOException {
+        List<BulkTransactionRestWrapper> transactionRestWrappers = new ArrayList<>();
+        try (MappingIterator<BulkTransactionRestWrapper> iterator = objectMapper.readerFor(BulkTransactionRestWrapper.class).readValues(inputStream)) {
+            iterator.forEachRemaining(transactionRestWrappers::add);
+        }
+        return createTransactions(transactionRestWrappers);
+    }
+
     /**
      * PUT  /transaction/:id : Updates the "id" transaction
      *
@@ -67,86 +194,461 @@ public class TransactionResource {
      */
     @RequestMapping(value = "/transaction/{id}",
             method = RequestMethod.PUT,
-            produces = MediaType.APPLICATION_JSON_VALUE)
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
     public ResponseEntity<UpdateStatus> updateTransaction(@PathVariable Long id, @RequestBody TransactionRestWrapper transactionRestWrapper) throws URISyntaxException {
         log.debug("REST request to update Transaction : {}, id: {}", transactionRestWrapper, id);
         if (id == null) {
             return createTransaction(transactionRestWrapper);
         }
-        UpdateStatus updateStatus = new UpdateStatus("ok");
         try {
+            if (transactionWriteBehindService.isPresent()) {
+                if (!transactionWriteBehindService.get().submit(transactionRestWrapper, id)) {
+                    return queueFull();
+                }
+                return ResponseEntity.accepted()
+                        .location(new URI("//transactionservice/transaction/" + id + "/status"))
+                        .headers(HeaderUtil.createAlert("A transaction is queued with identifier " + id, id.toString()))
+                        .body(UpdateStatus.ACCEPTED);
+            }
             Transaction result = transactionService.save(transactionRestWrapper, id);
             return ResponseEntity.ok()
                     .headers(HeaderUtil.createEntityUpdateAlert("transaction", result.getId().toString()))
-                    .body(updateStatus);
+                    .body(UpdateStatus.OK);
         } catch (IllegalStateException e) {
-            updateStatus = new UpdateStatus("error");
-            return ResponseEntity.badRequest().headers(HeaderUtil.createFailureAlert("transaction", "illegalstate", e.getMessage())).body(updateStatus);
+            return ResponseEntity.badRequest().headers(HeaderUtil.createFailureAlert("transaction", "illegalstate", e.getMessage())).body(UpdateStatus.ERROR);
         }
 
     }
 
+    /**
+     * GET  /transaction/:id/status : get the state of the queued writes of the "id" transaction,
+     * when the writes are acknowledged before being committed.
+     *
+     * @param id the id of the transaction
+     * @return the ResponseEntity with status 200 (OK) and with body the pending, committed or failed status,
+     * or with status 404 (Not Found) if no write of this transaction is known
+     */
+    @RequestMapping(value = "/transaction/{id}/status",
+            method = RequestMethod.GET,
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<UpdateStatus> getTransactionWriteStatus(@PathVariable Long id) {
+        log.debug("REST request to get the write status of Transaction : {}", id);
+        return transactionWriteBehindService
+                .map(service -> service.getStatus(id))
+                .map(status -> ResponseEntity.ok(new UpdateStatus(status.name().toLowerCase(Locale.ROOT))))
+                .orElse(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
     /**
      * GET  /transaction/:id : get the "id" transaction.
+     * The JSON or Smile representation of the transaction is served from the transaction cache when possible.
      *
      * @param id the id of the transaction to retrieve
+     * @param accept the accepted media types
      * @return the ResponseEntity with status 200 (OK) and with body the transaction, or with status 404 (Not Found)
      */
-    @JsonView(TransactionView.Rest.class)
     @RequestMapping(value = "/transaction/{id}",
             method = RequestMethod.GET,
-            produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Transaction> getTransaction(@PathVariable Long id) {
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<byte[]> getTransaction(@PathVariable Long id,
+                                                 @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
         log.debug("REST request to get Transaction : {}", id);
-        Transaction transaction = transactionService.findOne(id);
+        MediaType mediaType = representationOf(accept);
+        byte[] transaction = transactionCacheService.get(id, mediaType, transactionId -> findSerializedTransaction(transactionId, mediaType));
         return Optional.ofNullable(transaction)
-                .map(result -> new ResponseEntity<>(
-                        result,
-                        HttpStatus.OK))
+                .map(result -> ResponseEntity.ok()
+                        .contentType(mediaType)
+                        .body(result))
                 .orElse(new ResponseEntity<>(HttpStatus.NOT_FOUND));
     }
 
+    /**
+     * GET  /transaction?ids=:ids : get several transactions at once, "ids" being a comma separated list of ids.
+     *
+     * @param ids the ids of the transactions to retrieve
+     * @param accept the accepted media types
+     * @return the ResponseEntity with status 200 (OK) and with body the array of the transactions in the order of the ids,
+     * null standing for the missing ones, or with status 400 (Bad Request) if there are too many ids
+     */
+    @RequestMapping(value = "/transaction",
+            method = RequestMethod.GET,
+            params = "ids",
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<byte[]> getTransactions(@RequestParam List<Long> ids,
+                                                  @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        log.debug("REST request to get {} Transactions", ids.size());
+        return lookupTransactions(ids, accept);
+    }
+
+    /**
+     * POST  /transaction/lookup : get several transactions at once, for id lists too long for a query string.
+     *
+     * @param ids the array of the ids of the transactions to retrieve
+     * @param accept the accepted media types
+     * @return the ResponseEntity with status 200 (OK) and with body the array of the transactions in the order of the ids,
+     * null standing for the missing ones, or with status 400 (Bad Request) if there are too many ids
+     */
+    @RequestMapping(value = "/transaction/lookup",
+            method = RequestMethod.POST,
+            consumes = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<byte[]> lookupTransactions(@RequestBody List<Long> ids,
+                                                     @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        log.debug("REST request to look up {} Transactions", ids.size());
+        if (ids.size() > MAX_LOOKUP_SIZE) {
+            return ResponseEntity.badRequest().headers(TOO_MANY_LOOKUP_IDS_ALERT).body(null);
+        }
+        MediaType mediaType = representationOf(accept);
+        /* The cached representations of the transactions are concatenated as they are */
+        Map<Long, byte[]> transactions = transactionCacheService.getAll(
+                ids.stream().filter(Objects::nonNull).collect(Collectors.toSet()), mediaType,
+                transactionIds -> findSerializedTransactions(transactionIds, mediaType));
+        ByteArrayOutputStream body = new ByteArrayOutputStream(ids.size() * 64);
+        if (SmileHttpMessageConverter.SMILE.equals(mediaType)) {
+            /* Each cached Smile document is a header followed by the transaction, the array only has one header */
+            body.write(SmileHttpMessageConverter.ARRAY_START, 0, SmileHttpMessageConverter.ARRAY_START.length);
+            for (Long id : ids) {
+                byte[] transaction = transactions.get(id);
+                if (transaction == null) {
+                    body.write(SmileHttpMessageConverter.NULL);
+                } else {
+                    body.write(transaction, SmileHttpMessageConverter.HEADER_SIZE, transaction.length - SmileHttpMessageConverter.HEADER_SIZE);
+                }
+            }
+            body.write(SmileHttpMessageConverter.ARRAY_END);
+        } else {
+            body.write('[');
+            for (int i = 0; i < ids.size(); i++) {
+                if (i > 0) {
+                    body.write(',');
+                }
+                byte[] transaction = transactions.getOrDefault(ids.get(i), MISSING_TRANSACTION);
+                body.write(transaction, 0, transaction.length);
+            }
+            body.write(']');
+        }
+        return ResponseEntity.ok()
+                .contentType(mediaType)
+                .body(body.toByteArray());
+    }
+
+    private Map<Long, byte[]> findSerializedTransactions(Collection<Long> ids, MediaType mediaType) {
+        List<Transaction> transactions = transactionService.findAll(ids);
+        JsonFactory factory = factoryOf(mediaType);
+        Map<Long, byte[]> serialized = new HashMap<>(transactions.size() * 2);
+        for (Transaction transaction : transactions) {
+            serialized.put(transaction.getId(), serialize(transaction, factory));
+        }
+        return serialized;
+    }
+
+    private byte[] findSerializedTransaction(Long id, MediaType mediaType) {
+        Transaction transaction = transactionService.findOne(id);
+        return transaction == null ? null : serialize(transaction, factoryOf(mediaType));
+    }
+
+    private static byte[] serialize(Transaction transaction, JsonFactory factory) {
+        try {
+            return TransactionRestSerializer.toBytes(transaction, factory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private JsonFactory factoryOf(MediaType mediaType) {
+        ObjectMapper mapper = SmileHttpMessageConverter.SMILE.equals(mediaType) ? smileHttpMessageConverter.getConcatenableObjectMapper() : objectMapper;
+        return mapper.getFactory();
+    }
+
+    /**
+     * Choose the representation of the transactions served as bytes: Smile if the client prefers it to JSON, JSON otherwise.
+     * The usual single media type headers are matched without being parsed.
+     *
+     * @param accept the accepted media types, which include JSON or Smile as the request mapping matched
+     * @return the media type of the representation
+     */
+    private static MediaType representationOf(String accept) {
+        if (accept == null || MediaType.APPLICATION_JSON_VALUE.equals(accept) || MediaType.ALL_VALUE.equals(accept)) {
+            return MediaType.APPLICATION_JSON;
+        }
+        if (SmileHttpMessageConverter.SMILE_VALUE.equals(accept)) {
+            return SmileHttpMessageConverter.SMILE;
+        }
+        List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(mediaTypes);
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.includes(MediaType.APPLICATION_JSON)) {
+                return MediaType.APPLICATION_JSON;
+            }
+            if (mediaType.includes(SmileHttpMessageConverter.SMILE)) {
+                return SmileHttpMessageConverter.SMILE;
+            }
+        }
+        return MediaType.APPLICATION_JSON;
+    }
+
     /**
      * DELETE  /transaction/:id : delete the "id" transaction.
      *
      * @param id the id of the transaction to delete
-     * @return the ResponseEntity with status 200 (OK)
+     * @return the ResponseEntity with status 200 (OK), or with status 202 (Accepted) if the deletion is queued,
+     * or with status 429 (Too Many Requests) if the write queue is full
      */
     @RequestMapping(value = "/transaction/{id}",
             method = RequestMethod.DELETE,
-            produces = MediaType.APPLICATION_JSON_VALUE)
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
     public ResponseEntity<Void> deleteTransaction(@PathVariable Long id) {
         log.debug("REST request to delete Transaction : {}", id);
+        if (transactionWriteBehindService.isPresent()) {
+            if (!transactionWriteBehindService.get().submitDelete(id)) {
+                return new ResponseEntity<>(QUEUE_FULL_ALERT, HttpStatus.TOO_MANY_REQUESTS);
+            }
+            return ResponseEntity.accepted().headers(HeaderUtil.createAlert("A transaction deletion is queued with identifier " + id, id.toString())).build();
+        }
         transactionService.delete(id);
         return ResponseEntity.ok().headers(HeaderUtil.createEntityDeletionAlert("transaction", id.toString())).build();
     }
 
     /**
-     * GET /types/:type : get the array of transaction ids of type "type"
+     * GET /types/:type : get the array of transaction ids of type "type".
+     * When "after" or "limit" is given, only one page of ids greater than "after" is returned, in ascending order,
+     * and the cursor of the next page is given in a header if the page is full.
      *
      * @param type the transaction type to get
-     * @return the array of transaction ids of this type
+     * @param after the last id of the previous page
+     * @param limit the maximum number of ids in the page
+     * @return the array of transaction ids of this type, computed on the aggregate executor,
+     * or the status 503 (Service Unavailable) if the executor is saturated or the query times out
      */
     @RequestMapping(value = "/types/{type}",
             method = RequestMethod.GET,
-            produces = MediaType.APPLICATION_JSON_VALUE)
-    public List<Long> getTransactionIdsWithType(@PathVariable String type) {
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public DeferredResult<ResponseEntity<List<Long>>> getTransactionIdsWithType(@PathVariable String type,
+                                                                                @RequestParam(required = false) Long after,
+                                                                                @RequestParam(required = false) Integer limit) {
         log.debug("REST request to get transaction ids of type : {}", type);
-        return transactionService.findTransactionIdsOfType(type);
+        if (after == null && limit == null) {
+            return defer(() -> transactionAggregateService.findTransactionIdsOfType(type), ResponseEntity::ok);
+        }
+        int pageSize = Math.max(1, Math.min(limit == null ? DEFAULT_PAGE_SIZE : limit, MAX_PAGE_SIZE));
+        return defer(() -> transactionAggregateService.findTransactionIdsOfType(type, after, pageSize), ids -> {
+            HttpHeaders headers = new HttpHeaders();
+            if (ids.size() == pageSize) {
+                headers.add(NEXT_AFTER_HEADER, ids.get(ids.size() - 1).toString());
+            }
+            return new ResponseEntity<>(ids, headers, HttpStatus.OK);
+        });
+    }
+
+    /**
+     * GET /types/:type/stats : get the count, sum, min and max of the amounts of the transactions of type "type",
+     * read from the aggregates maintained by the writes.
+     *
+     * @param type the transaction type
+     * @return the ResponseEntity with status 200 (OK) and the aggregates, or with status 404 (Not Found) for an unknown type
+     */
+    @RequestMapping(value = "/types/{type}/stats",
+            method = RequestMethod.GET,
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<TypeStatsResult> getTransactionTypeStats(@PathVariable String type) {
+        log.debug("REST request to get the aggregates of type : {}", type);
+        TransactionTypeStats stats = transactionService.findTypeStats(type);
+        if (stats == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return ResponseEntity.ok(new TypeStatsResult(type, stats));
+    }
+
+    /**
+     * POST /types/stats/rebuild : compute the aggregates of every transaction type again from the transactions
+     *
+     * @return the ResponseEntity with status 200 (OK) and the number of transaction types in the alert header
+     */
+    @RequestMapping(value = "/types/stats/rebuild",
+            method = RequestMethod.POST,
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<UpdateStatus> rebuildTypeStats() {
+        log.debug("REST request to rebuild the transaction type aggregates");
+        int types = transactionService.rebuildTypeStats();
+        return ResponseEntity.ok()
+                .headers(HeaderUtil.createAlert("Aggregates rebuilt for " + types + " transaction types", String.valueOf(types)))
+                .body(UpdateStatus.OK);
+    }
+
+    /**
+     * GET /types/:type/stream : stream the transaction ids of type "type" in ascending order, straight from
+     * a database cursor, so that the memory used does not depend on the number of ids.
+     *
+     * @param type the transaction type to get
+     * @param format the encoding of the ids: json (an array), ndjson (one id per line)
+     *               or varint (zigzag varint encoded deltas)
+     * @return the ResponseEntity with status 200 (OK) and the streamed ids, or with status 400 (Bad Request) for an unknown format
+     */
+    @RequestMapping(value = "/types/{type}/stream",
+            method = RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> streamTransactionIdsWithType(@PathVariable String type,
+                                                                              @RequestParam(defaultValue = "json") String format) {
+        log.debug("REST request to stream transaction ids of type : {} as {}", type, format);
+        IdStreamWriter.Format idFormat;
+        try {
+            idFormat = IdStreamWriter.Format.fromParameter(format);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().headers(HeaderUtil.createFailureAlert("transaction", "badformat", "Unknown format " + format)).body(null);
+        }
+        StreamingResponseBody body = outputStream -> {
+            IdStreamWriter writer = new IdStreamWriter(outputStream, idFormat);
+            writer.begin();
+            transactionService.streamTransactionIdsOfType(type, id -> {
+                try {
+                    writer.write(id);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.end();
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(idFormat.getContentType())).body(body);
     }
 
     /**
      * GET /sum/:id : get the sum of the transaction with id "id" and its descendants
      *
      * @param id the id of the root transaction
-     * @return the sum the transaction amount and its descendants
+     * @return the sum the transaction amount and its descendants, computed on the aggregate executor,
+     * or the status 503 (Service Unavailable) if the executor is saturated or the query times out
      */
     @RequestMapping(value = "/sum/{id}",
             method = RequestMethod.GET,
-            produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<SumResult> getSumOfChildrenOfTransaction(@PathVariable Long id) {
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public DeferredResult<ResponseEntity<SumResult>> getSumOfChildrenOfTransaction(@PathVariable Long id) {
         log.debug("REST request to get sum of children of transaction : {}", id);
-        Double sum = transactionService.sumChildren(id);
-        return new ResponseEntity<>(new SumResult(sum), HttpStatus.OK);
+        return defer(() -> transactionAggregateService.sumChildren(id), sum -> new ResponseEntity<>(new SumResult(sum), HttpStatus.OK));
+    }
+
+    /**
+     * GET /sum?ids=:ids : get the sums of several transactions and their descendants at once, "ids" being a comma
+     * separated list of ids. The subtrees shared by several of the transactions are only summed once.
+     *
+     * @param ids the ids of the root transactions
+     * @return the array of the sums in the order of the ids, a null sum standing for a missing transaction,
+     * computed on the aggregate executor, or the status 400 (Bad Request) if there are too many ids,
+     * or the status 503 (Service Unavailable) if the executor is saturated or the query times out
+     */
+    @RequestMapping(value = "/sum",
+            method = RequestMethod.GET,
+            params = "ids",
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public DeferredResult<ResponseEntity<List<SumResult>>> getSumsOfChildrenOfTransactions(@RequestParam List<Long> ids) {
+        log.debug("REST request to get the sums of children of {} transactions", ids.size());
+        if (ids.size() > MAX_SUM_SIZE) {
+            DeferredResult<ResponseEntity<List<SumResult>>> result = new DeferredResult<>();
+            result.setResult(ResponseEntity.badRequest().headers(TOO_MANY_SUM_IDS_ALERT).body(null));
+            return result;
+        }
+        Set<Long> distinctIds = ids.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+        return defer(() -> transactionAggregateService.sumChildren(distinctIds), sums -> ResponseEntity.ok(ids.stream()
+                .map(id -> new SumResult(sums.get(id)))
+                .collect(Collectors.toList())));
+    }
+
+    /**
+     * POST /sum/rebuild : check the maintained subtree sums of all the transactions and rebuild the inconsistent ones
+     *
+     * @return the ResponseEntity with status 200 (OK) and the number of rebuilt transactions in the alert header
+     */
+    @RequestMapping(value = "/sum/rebuild",
+            method = RequestMethod.POST,
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<UpdateStatus> rebuildSums() {
+        log.debug("REST request to rebuild the transaction subtree sums");
+        int rebuilt = transactionService.rebuildSubtreeSums();
+        return ResponseEntity.ok()
+                .headers(HeaderUtil.createAlert("Subtree sums rebuilt for " + rebuilt + " transactions", String.valueOf(rebuilt)))
+                .body(UpdateStatus.OK);
+    }
+
+    /**
+     * POST /closure/rebuild : rebuild the closure table of the transaction tree from the parent of each transaction
+     *
+     * @return the ResponseEntity with status 200 (OK) and the number of closure rows in the alert header
+     */
+    @RequestMapping(value = "/closure/rebuild",
+            method = RequestMethod.POST,
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<UpdateStatus> rebuildClosure() {
+        log.debug("REST request to rebuild the transaction closure table");
+        int rows = transactionService.rebuildClosure();
+        return ResponseEntity.ok()
+                .headers(HeaderUtil.createAlert("Closure table rebuilt with " + rows + " rows", String.valueOf(rows)))
+                .body(UpdateStatus.OK);
+    }
+
+    /**
+     * POST /snapshot : write a point-in-time snapshot of all the transactions to a new file of the snapshot directory,
+     * which can be imported on startup by setting transactions.snapshot.import-file
+     *
+     * @return the ResponseEntity with status 200 (OK) and the name of the snapshot file in the alert header
+     * @throws IOException if the snapshot file cannot be written
+     */
+    @RequestMapping(value = "/snapshot",
+            method = RequestMethod.POST,
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<UpdateStatus> exportSnapshot() throws IOException {
+        log.debug("REST request to export a snapshot of the transactions");
+        Path file = transactionSnapshotService.export();
+        return ResponseEntity.ok()
+                .headers(HeaderUtil.createAlert("Snapshot of the transactions written to " + file, file.getFileName().toString()))
+                .body(UpdateStatus.OK);
+    }
+
+    /**
+     * POST /path/rebuild : check the materialized paths of all the transactions and rebuild the inconsistent ones
+     *
+     * @return the ResponseEntity with status 200 (OK) and the number of rebuilt transactions in the alert header
+     */
+    @RequestMapping(value = "/path/rebuild",
+            method = RequestMethod.POST,
+            produces = {MediaType.APPLICATION_JSON_VALUE, SmileHttpMessageConverter.SMILE_VALUE})
+    public ResponseEntity<UpdateStatus> rebuildPaths() {
+        log.debug("REST request to rebuild the transaction paths");
+        int rebuilt = transactionService.rebuildPaths();
+        return ResponseEntity.ok()
+                .headers(HeaderUtil.createAlert("Paths rebuilt for " + rebuilt + " transactions", String.valueOf(rebuilt)))
+                .body(UpdateStatus.OK);
+    }
+
+    /**
+     * Run an aggregate query asynchronously, releasing the request thread while it runs.
+     * The query is cancelled if the request times out or the client goes away, and a saturated aggregate executor
+     * is reported as 503 (Service Unavailable) instead of queueing more work.
+     *
+     * @param query the submission of the query to the aggregate executor
+     * @param response the mapping of the query result to the response
+     * @return the deferred response
+     */
+    private <T, R> DeferredResult<ResponseEntity<R>> defer(Supplier<ListenableFuture<T>> query,
+                                                            Function<T, ResponseEntity<R>> response) {
+        DeferredResult<ResponseEntity<R>> result = new DeferredResult<>(transactionAggregateService.getTimeoutMillis(),
+                unavailable(TIMEOUT_ALERT));
+        ListenableFuture<T> future;
+        try {
+            future = query.get();
+        } catch (TaskRejectedException e) {
+            log.warn("Aggregate query refused: {}", e.getMessage());
+            result.setResult(unavailable(BUSY_ALERT));
+            return result;
+        }
+        result.onCompletion(() -> future.cancel(true));
+        future.addCallback(value -> result.setResult(response.apply(value)), result::setErrorResult);
+        return result;
+    }
+
+    private static <R> ResponseEntity<R> unavailable(HttpHeaders alert) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).headers(alert).body(null);
+    }
+
+    private ResponseEntity<UpdateStatus> queueFull() {
+        log.warn("Transaction write refused, the write queue is full");
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).headers(QUEUE_FULL_ALERT).body(UpdateStatus.ERROR);
     }
 }
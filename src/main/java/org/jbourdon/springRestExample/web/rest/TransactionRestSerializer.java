@@ -0,0 +1,74 @@
+package org.jbourdon.springRestExample.web.rest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.jbourdon.springRestExample.domain.Transaction;
+
+import java.io.IOException;
+
+/**
+ * Hand-written serializer of the REST view of a transaction: it writes the same fields as the TransactionView.Rest
+ * view, straight to the generator with pre-encoded names, instead of going through the bean properties and the view
+ * filtering of Jackson.
+ */
+public class TransactionRestSerializer extends StdSerializer<Transaction> {
+
+    private static final SerializedString AMOUNT = new SerializedString("amount");
+
+    private static final SerializedString TYPE = new SerializedString("type");
+
+    private static final SerializedString PARENT_ID = new SerializedString("parent_id");
+
+    public TransactionRestSerializer() {
+        super(Transaction.class);
+    }
+
+    @Override
+    public void serialize(Transaction transaction, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        write(transaction, generator);
+    }
+
+    /**
+     * Serialize a transaction into a byte array, through the recycled buffers of the factory.
+     *
+     * @param transaction the transaction
+     * @param factory the factory of the format, JSON or Smile
+     * @return the serialized REST view of the transaction
+     * @throws IOException if the transaction cannot be serialized
+     */
+    public static byte[] toBytes(Transaction transaction, JsonFactory factory) throws IOException {
+        ByteArrayBuilder buffer = new ByteArrayBuilder(factory._getBufferRecycler());
+        try {
+            try (JsonGenerator generator = factory.createGenerator(buffer)) {
+                write(transaction, generator);
+            }
+            return buffer.toByteArray();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static void write(Transaction transaction, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(AMOUNT);
+        if (transaction.getAmount() == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(transaction.getAmount());
+        }
+        generator.writeFieldName(TYPE);
+        generator.writeString(transaction.getType());
+        generator.writeFieldName(PARENT_ID);
+        Long parentId = transaction.getParentId();
+        if (parentId == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(parentId);
+        }
+        generator.writeEndObject();
+    }
+}
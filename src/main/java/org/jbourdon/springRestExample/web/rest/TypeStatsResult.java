@@ -0,0 +1,45 @@
+package org.jbourdon.springRestExample.web.rest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.jbourdon.springRestExample.domain.TransactionTypeStats;
+
+/**
+ * Class representing the aggregates of the amounts of the transactions of a type
+ */
+public class TypeStatsResult {
+
+    private final String type;
+
+    private final TransactionTypeStats stats;
+
+    public TypeStatsResult(String type, TransactionTypeStats stats) {
+        this.type = type;
+        this.stats = stats;
+    }
+
+    @JsonProperty(value = "type")
+    public String getType() {
+        return this.type;
+    }
+
+    @JsonProperty(value = "count")
+    public Long getCount() {
+        return this.stats.getCount();
+    }
+
+    @JsonProperty(value = "sum")
+    public Double getSum() {
+        return this.stats.getSum();
+    }
+
+    @JsonProperty(value = "min")
+    public Double getMin() {
+        return this.stats.getMin();
+    }
+
+    @JsonProperty(value = "max")
+    public Double getMax() {
+        return this.stats.getMax();
+    }
+
+}
@@ -1,12 +1,20 @@
 package org.jbourdon.springRestExample.web.rest;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 /**
  * This POJO is used to return the status after an update operation
  */
+@JsonSerialize(using = UpdateStatusSerializer.class)
 public class UpdateStatus {
 
+    public static final UpdateStatus OK = new UpdateStatus("ok");
+
+    public static final UpdateStatus ACCEPTED = new UpdateStatus("accepted");
+
+    public static final UpdateStatus ERROR = new UpdateStatus("error");
+
     @JsonProperty
     private final String status;
 
@@ -0,0 +1,28 @@
+package org.jbourdon.springRestExample.web.rest;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * Hand-written serializer of an UpdateStatus, writing the status straight to the generator with a pre-encoded name
+ */
+public class UpdateStatusSerializer extends StdSerializer<UpdateStatus> {
+
+    private static final SerializedString STATUS = new SerializedString("status");
+
+    public UpdateStatusSerializer() {
+        super(UpdateStatus.class);
+    }
+
+    @Override
+    public void serialize(UpdateStatus updateStatus, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(STATUS);
+        generator.writeString(updateStatus.getStatus());
+        generator.writeEndObject();
+    }
+}
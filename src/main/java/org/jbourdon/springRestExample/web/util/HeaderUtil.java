@@ -33,6 +33,20 @@ public class HeaderUtil {
 
     public static HttpHeaders createFailureAlert(String entityName, String errorKey, String defaultMessage) {
         log.error("Entity creation failed, {}", defaultMessage);
+        return failureAlert(entityName, defaultMessage);
+    }
+
+    /**
+     * Create the headers of a failure whose message never changes, to be created once and shared by the responses.
+     * The failure is not logged.
+     *
+     * @return read-only headers
+     */
+    public static HttpHeaders createStaticFailureAlert(String entityName, String errorKey, String defaultMessage) {
+        return HttpHeaders.readOnlyHttpHeaders(failureAlert(entityName, defaultMessage));
+    }
+
+    private static HttpHeaders failureAlert(String entityName, String defaultMessage) {
         HttpHeaders headers = new HttpHeaders();
         headers.add("X-transactionsApp-error", defaultMessage);
         headers.add("X-transactionsApp-params", entityName);
@@ -0,0 +1,119 @@
+package org.jbourdon.springRestExample.web.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Writer of a stream of ids into an HTTP response body, without building any intermediate collection or string.
+ */
+public class IdStreamWriter {
+
+    /**
+     * The encodings available for a stream of ids
+     */
+    public enum Format {
+        /** a JSON array of numbers */
+        JSON("application/json"),
+        /** one decimal id per line */
+        NDJSON("application/x-ndjson"),
+        /** the zigzag varint encoded differences between consecutive ids, the first one being relative to 0 */
+        VARINT("application/octet-stream");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Get the format from a request parameter value, case insensitive.
+         *
+         * @param value the parameter value
+         * @return the format
+         * @throws IllegalArgumentException if there is no such format
+         */
+        public static Format fromParameter(String value) {
+            return Format.valueOf(value.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+
+    private final Format format;
+
+    private final byte[] digits = new byte[20];
+
+    private long previous;
+
+    private boolean first = true;
+
+    public IdStreamWriter(OutputStream out, Format format) {
+        this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+        this.format = format;
+    }
+
+    public void begin() throws IOException {
+        if (format == Format.JSON) {
+            out.write('[');
+        }
+    }
+
+    public void write(long id) throws IOException {
+        switch (format) {
+            case JSON:
+                if (!first) {
+                    out.write(',');
+                }
+                writeDecimal(id);
+                break;
+            case NDJSON:
+                writeDecimal(id);
+                out.write('\n');
+                break;
+            case VARINT:
+                writeVarint(id - previous);
+                break;
+        }
+        previous = id;
+        first = false;
+    }
+
+    public void end() throws IOException {
+        if (format == Format.JSON) {
+            out.write(']');
+        }
+        out.flush();
+    }
+
+    private void writeDecimal(long value) throws IOException {
+        /* Accumulate on the negative side so that Long.MIN_VALUE does not overflow */
+        boolean negative = value < 0;
+        long remaining = negative ? value : -value;
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' - (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        if (negative) {
+            digits[--position] = '-';
+        }
+        out.write(digits, position, digits.length - position);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.write((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.write((int) zigzag);
+    }
+}
@@ -0,0 +1,65 @@
+package org.jbourdon.springRestExample.web.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+
+/**
+ * Message converter of the Smile binary JSON format, negotiated alongside JSON for the service to service calls.
+ * <p>
+ * The documents written by the converter refer back to the field names already written, which saves most of the
+ * size of the names in arrays of objects. The {@link #getConcatenableObjectMapper() concatenable mapper} writes
+ * documents without such references, so that the serialized transactions kept by the transaction cache can be
+ * concatenated into an array as they are: each one is {@link #HEADER_SIZE} bytes of header followed by the value.
+ */
+public class SmileHttpMessageConverter extends AbstractJackson2HttpMessageConverter {
+
+    public static final String SMILE_VALUE = "application/x-jackson-smile";
+
+    public static final MediaType SMILE = MediaType.valueOf(SMILE_VALUE);
+
+    /**
+     * Size of the header of a Smile document
+     */
+    public static final int HEADER_SIZE = 4;
+
+    /**
+     * Start of a Smile document holding an array: the header, without shared names, shared strings or raw binary
+     */
+    public static final byte[] ARRAY_START = {SmileConstants.HEADER_BYTE_1, SmileConstants.HEADER_BYTE_2,
+            SmileConstants.HEADER_BYTE_3, SmileConstants.HEADER_VERSION_0, SmileConstants.TOKEN_LITERAL_START_ARRAY};
+
+    public static final byte ARRAY_END = SmileConstants.TOKEN_LITERAL_END_ARRAY;
+
+    public static final byte NULL = SmileConstants.TOKEN_LITERAL_NULL;
+
+    private final ObjectMapper concatenableObjectMapper;
+
+    /**
+     * @param objectMapper the mapper of the converter, configured as the JSON mapper and built on a {@link SmileFactory}
+     */
+    public SmileHttpMessageConverter(ObjectMapper objectMapper) {
+        super(objectMapper, SMILE);
+        concatenableObjectMapper = objectMapper.copy();
+        ((SmileFactory) concatenableObjectMapper.getFactory()).disable(SmileGenerator.Feature.CHECK_SHARED_NAMES);
+    }
+
+    /**
+     * @return a copy of the mapper of the converter, writing documents which start with {@link #ARRAY_START}
+     * minus its last byte and which can be concatenated
+     */
+    public ObjectMapper getConcatenableObjectMapper() {
+        return concatenableObjectMapper;
+    }
+
+    /**
+     * Leave the byte arrays to the ByteArrayHttpMessageConverter, which writes the cached representations as they are
+     */
+    @Override
+    public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+        return clazz != byte[].class && super.canWrite(clazz, mediaType);
+    }
+}
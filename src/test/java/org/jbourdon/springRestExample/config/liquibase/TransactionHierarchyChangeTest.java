@@ -0,0 +1,159 @@
+package org.jbourdon.springRestExample.config.liquibase;
+
+import liquibase.Liquibase;
+import liquibase.exception.LiquibaseException;
+import liquibase.integration.spring.SpringLiquibase;
+import org.jbourdon.springRestExample.domain.TransactionPath;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test of the migration of a database holding the transactions of the first version, before the hierarchy columns
+ * and tables were added: they have to be derived from the existing transactions by the migration itself.
+ */
+public class TransactionHierarchyChangeTest {
+
+    /**
+     * Changesets of the first version, the Transaction entity and its constraints
+     */
+    private static final int FIRST_VERSION_CHANGESETS = 2;
+
+    private Connection connection;
+
+    @Before
+    public void migrateExistingTransactions() throws Exception {
+        connection = DriverManager.getConnection("jdbc:h2:mem:migration");
+        Liquibase liquibase = new MigrationLiquibase().open(connection);
+        liquibase.update(FIRST_VERSION_CHANGESETS, "");
+        /* 1 -> (2 -> 3, 4), 5, and the cycle 6 -> 7 -> 6 */
+        insert(1L, null, 10d);
+        insert(2L, 1L, 20d);
+        insert(3L, 2L, null);
+        insert(4L, 1L, 5d);
+        insert(5L, null, 1d);
+        insert(6L, null, 100d);
+        insert(7L, 6L, 100d);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("update transaction set parent_id = 7 where id = 6");
+        }
+        /* Liquibase leaves the connection out of auto-commit */
+        connection.commit();
+        liquibase.update("");
+    }
+
+    @After
+    public void closeDatabase() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void subtree_sums_of_the_existing_transactions_should_be_computed() throws SQLException {
+        assertThat(subtreeSumOf(1L)).isEqualTo(35d);
+        assertThat(subtreeSumOf(2L)).isEqualTo(20d);
+        assertThat(subtreeSumOf(3L)).isEqualTo(0d);
+        assertThat(subtreeSumOf(4L)).isEqualTo(5d);
+        assertThat(subtreeSumOf(5L)).isEqualTo(1d);
+        assertThat(subtreeSumOf(6L)).as("left out, on a cycle").isEqualTo(0d);
+    }
+
+    @Test
+    public void closure_of_the_existing_transactions_should_be_filled() throws SQLException {
+        assertThat(closureOf(3L)).containsExactly("3:0", "2:1", "1:2");
+        assertThat(closureOf(4L)).containsExactly("4:0", "1:1");
+        assertThat(closureOf(5L)).containsExactly("5:0");
+        assertThat(closureOf(6L)).as("left out, on a cycle").isEmpty();
+    }
+
+    @Test
+    public void paths_of_the_existing_transactions_should_be_computed() throws SQLException {
+        assertThat(pathEntryOf(3L)).containsExactly(1L, 2, TransactionPath.of(TransactionPath.of(TransactionPath.of(null, 1L), 2L), 3L));
+        assertThat(pathEntryOf(4L)).containsExactly(1L, 1, TransactionPath.of(TransactionPath.of(null, 1L), 4L));
+        assertThat(pathEntryOf(5L)).containsExactly(5L, 0, TransactionPath.of(null, 5L));
+        assertThat(pathEntryOf(6L)).as("left out, on a cycle").containsExactly(null, 0, null);
+        List<String> indexes = new ArrayList<>();
+        try (ResultSet rs = connection.getMetaData().getIndexInfo(null, null, "TRANSACTION", false, false)) {
+            while (rs.next()) {
+                indexes.add(rs.getString("INDEX_NAME"));
+            }
+        }
+        assertThat(indexes).contains("IDX_TRANSACTION_PATH");
+    }
+
+    /**
+     * The Liquibase of the application, opening the changelogs included from the classpath the same way
+     */
+    private static class MigrationLiquibase extends SpringLiquibase {
+
+        MigrationLiquibase() {
+            setChangeLog("classpath:config/liquibase/master.xml");
+            setResourceLoader(new DefaultResourceLoader());
+        }
+
+        Liquibase open(Connection connection) throws LiquibaseException {
+            return createLiquibase(connection);
+        }
+    }
+
+    private void insert(Long id, Long parentId, Double amount) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("insert into transaction (id, parent_id, amount) values (?, ?, ?)")) {
+            statement.setLong(1, id);
+            statement.setObject(2, parentId, Types.BIGINT);
+            statement.setObject(3, amount, Types.DOUBLE);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * @return the ancestor:depth pairs of the closure rows of a descendant, closest first
+     */
+    private List<String> closureOf(Long id) throws SQLException {
+        List<String> ancestors = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "select ancestor_id, depth from transaction_closure where descendant_id = ? order by depth")) {
+            statement.setLong(1, id);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    ancestors.add(rs.getLong(1) + ":" + rs.getInt(2));
+                }
+            }
+        }
+        return ancestors;
+    }
+
+    /**
+     * @return the root, the depth and the path of a transaction
+     */
+    private Object[] pathEntryOf(Long id) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("select root_id, depth, path from transaction where id = ?")) {
+            statement.setLong(1, id);
+            try (ResultSet rs = statement.executeQuery()) {
+                assertThat(rs.next()).isTrue();
+                return new Object[]{rs.getObject(1), rs.getInt(2), rs.getString(3)};
+            }
+        }
+    }
+
+    private double subtreeSumOf(Long id) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("select subtree_sum from transaction where id = ?")) {
+            statement.setLong(1, id);
+            try (ResultSet rs = statement.executeQuery()) {
+                assertThat(rs.next()).isTrue();
+                return rs.getDouble(1);
+            }
+        }
+    }
+}
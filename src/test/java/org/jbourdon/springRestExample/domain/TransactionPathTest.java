@@ -0,0 +1,70 @@
+package org.jbourdon.springRestExample.domain;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test of the encoding of the materialized paths of the transactions
+ */
+public class TransactionPathTest {
+
+    @Test
+    public void path_should_list_the_ancestors_root_first() {
+        String path = TransactionPath.of(TransactionPath.of(TransactionPath.of(null, 1L), 100L), 36L);
+        assertEquals("1/2s/10/", path);
+        assertEquals(Arrays.asList(100L, 1L), TransactionPath.ancestorIds(path));
+    }
+
+    @Test
+    public void root_path_should_have_no_ancestors() {
+        assertEquals(Collections.emptyList(), TransactionPath.ancestorIds(TransactionPath.of(null, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void path_should_be_a_prefix_of_the_descendants_only() {
+        String path = TransactionPath.of(null, 1L);
+        String child = TransactionPath.of(path, 2L);
+        String sibling = TransactionPath.of(null, 12L);
+        assertTrue(child.startsWith(path));
+        assertFalse(sibling.startsWith(path));
+        assertEquals(path + "_%", TransactionPath.descendantsPattern(path));
+    }
+
+    @Test
+    public void too_long_path_should_be_left_out_with_the_ones_of_the_descendants() {
+        // The largest ids take 13 digits and a separator
+        String path = TransactionPath.of(null, Long.MAX_VALUE);
+        int transactions = 1;
+        for (String child = TransactionPath.ofChild(path, Long.MAX_VALUE - 1); child != null;
+             child = TransactionPath.ofChild(path, Long.MAX_VALUE - transactions)) {
+            path = child;
+            transactions++;
+        }
+        assertEquals(TransactionPath.MAX_LENGTH / 14, transactions);
+        assertEquals(Long.valueOf(Long.MAX_VALUE), TransactionPath.ancestorIds(path).get(transactions - 2));
+        assertFalse(TransactionPath.fitsChildren(path.length()));
+        assertTrue(TransactionPath.fitsChildren(TransactionPath.of(null, Long.MIN_VALUE).length()));
+        assertNull(TransactionPath.ofChild(null, 1L));
+    }
+
+    @Test
+    public void update_path_should_follow_the_parent() {
+        Transaction root = new Transaction();
+        root.setId(1L);
+        root.updatePath();
+        Transaction child = new Transaction();
+        child.setId(2L);
+        child.setParent(root);
+        child.updatePath();
+        assertEquals(Long.valueOf(1L), child.getRootId());
+        assertEquals(Integer.valueOf(1), child.getDepth());
+        assertEquals("1/2/", child.getPath());
+    }
+}
@@ -3,7 +3,12 @@ package org.jbourdon.springRestExample.domain;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.HashSet;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -45,4 +50,59 @@ public class TransactionTest {
         assertTrue(transaction.hasCycle());
     }
 
+    @Test
+    public void has_cycle_should_return_true_if_a_cycle_exists_above_self() {
+        Transaction parentTransaction = new Transaction();
+        Transaction grandParentTransaction = new Transaction();
+        transaction.setParent(parentTransaction);
+        parentTransaction.setParent(grandParentTransaction);
+        grandParentTransaction.setParent(parentTransaction);
+        assertTrue(transaction.hasCycle());
+    }
+
+    @Test
+    public void has_cycle_should_walk_deep_chains_without_recursion() {
+        Transaction deepest = transaction;
+        for (int i = 0; i < 10000; i++) {
+            Transaction child = new Transaction();
+            child.setParent(deepest);
+            deepest = child;
+        }
+        assertFalse(deepest.hasCycle());
+
+        transaction.setParent(deepest);
+        assertTrue(transaction.hasCycle());
+    }
+
+    @Test
+    public void has_cycle_should_not_walk_the_children_of_wide_transactions() {
+        Transaction parentTransaction = new Transaction();
+        transaction.setParent(parentTransaction);
+        for (long i = 0; i < 100000; i++) {
+            Transaction child = new Transaction();
+            child.setId(i);
+            child.setParent(transaction);
+        }
+        transaction.setChildren(new HashSet<Transaction>(transaction.getChildren()) {
+            @Override
+            public Iterator<Transaction> iterator() {
+                throw new AssertionError("The children must not be walked");
+            }
+        });
+        assertFalse(transaction.hasCycle());
+    }
+
+    @Test
+    public void flattened_should_walk_deep_chains_without_recursion() {
+        transaction.setAmount(1d);
+        Transaction deepest = transaction;
+        for (int i = 0; i < 100000; i++) {
+            Transaction child = new Transaction();
+            child.setAmount(1d);
+            deepest.addChild(child);
+            deepest = child;
+        }
+        assertEquals(100001d, transaction.flattened().mapToDouble(Transaction::getAmount).sum(), 0d);
+        assertSame(transaction, transaction.flattened().findFirst().get());
+    }
 }
@@ -0,0 +1,63 @@
+package org.jbourdon.springRestExample.service;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test of the cache of the serialized transactions
+ */
+public class TransactionCacheServiceTest {
+
+    private TransactionCacheService transactionCacheService;
+
+    @Before
+    public void setup() {
+        transactionCacheService = new TransactionCacheService();
+        ReflectionTestUtils.setField(transactionCacheService, "maximumSize", 100L);
+        ReflectionTestUtils.setField(transactionCacheService, "expireAfterWriteSeconds", 600L);
+        ReflectionTestUtils.setField(transactionCacheService, "metricRegistry", new MetricRegistry());
+        transactionCacheService.init();
+    }
+
+    @Test
+    public void multi_get_should_cache_the_loaded_transactions() {
+        transactionCacheService.getAll(Arrays.asList(1L, 2L), MediaType.APPLICATION_JSON, ids -> load("cached", 1L, 2L));
+
+        Map<Long, byte[]> transactions = transactionCacheService.getAll(Arrays.asList(1L, 2L), MediaType.APPLICATION_JSON,
+                ids -> load("loaded again", 1L, 2L));
+        assertThat(new String(transactions.get(1L), StandardCharsets.UTF_8)).isEqualTo("cached");
+        assertThat(new String(transactions.get(2L), StandardCharsets.UTF_8)).isEqualTo("cached");
+    }
+
+    @Test
+    public void multi_get_should_not_cache_a_state_invalidated_during_the_load() {
+        transactionCacheService.getAll(Arrays.asList(1L, 2L), MediaType.APPLICATION_JSON, ids -> {
+            /* A write of the first transaction is committed after it was read, before the load is cached */
+            transactionCacheService.invalidate(1L);
+            return load("previous", 1L, 2L);
+        });
+
+        Map<Long, byte[]> transactions = transactionCacheService.getAll(Arrays.asList(1L, 2L), MediaType.APPLICATION_JSON,
+                ids -> load("current", ids.toArray(new Long[ids.size()])));
+        assertThat(new String(transactions.get(1L), StandardCharsets.UTF_8)).isEqualTo("current");
+        assertThat(new String(transactions.get(2L), StandardCharsets.UTF_8)).isEqualTo("previous");
+    }
+
+    private static Map<Long, byte[]> load(String state, Long... ids) {
+        Map<Long, byte[]> transactions = new HashMap<>();
+        for (Long id : ids) {
+            transactions.put(id, state.getBytes(StandardCharsets.UTF_8));
+        }
+        return transactions;
+    }
+}
@@ -0,0 +1,82 @@
+package org.jbourdon.springRestExample.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test of the in-memory transaction forest
+ */
+public class TransactionForestTest {
+
+    private static final int TYPE = 1;
+    private static final int OTHER_TYPE = 2;
+
+    private TransactionForest forest;
+
+    @Before
+    public void setUp() {
+        // 1 <- 2 <- 3, 1 <- 4, built children first
+        forest = new TransactionForest.Builder()
+                .add(3L, 2L, 3d, TYPE)
+                .add(2L, 1L, 2d, OTHER_TYPE)
+                .add(1L, null, 1d, TYPE)
+                .add(4L, 1L, 4d, TYPE)
+                .build();
+    }
+
+    @Test
+    public void builder_should_compute_subtree_sums() {
+        assertThat(forest.size()).isEqualTo(4);
+        assertThat(forest.subtreeSum(1L)).isEqualTo(10d);
+        assertThat(forest.subtreeSum(2L)).isEqualTo(5d);
+        assertThat(forest.subtreeSum(3L)).isEqualTo(3d);
+        assertThat(forest.subtreeSum(5L)).isNull();
+    }
+
+    @Test
+    public void put_should_update_ancestor_sums() {
+        forest.put(5L, 3L, 5d, OTHER_TYPE);
+        assertThat(forest.subtreeSum(1L)).isEqualTo(15d);
+
+        // Update the amount
+        forest.put(3L, 2L, 1d, TYPE);
+        assertThat(forest.subtreeSum(2L)).isEqualTo(8d);
+        assertThat(forest.subtreeSum(1L)).isEqualTo(13d);
+    }
+
+    @Test
+    public void put_should_move_the_whole_subtree_when_reparenting() {
+        forest.put(2L, 4L, 2d, OTHER_TYPE);
+        assertThat(forest.subtreeSum(4L)).isEqualTo(9d);
+        assertThat(forest.subtreeSum(1L)).isEqualTo(10d);
+        assertThat(forest.createsCycle(4L, 3L)).isTrue();
+        assertThat(forest.createsCycle(3L, 4L)).isFalse();
+    }
+
+    @Test
+    public void remove_should_update_ancestor_sums_and_free_the_slot() {
+        forest.remove(3L);
+        assertThat(forest.subtreeSum(1L)).isEqualTo(7d);
+        assertThat(forest.contains(3L)).isFalse();
+
+        forest.put(6L, 2L, 6d, TYPE);
+        assertThat(forest.subtreeSum(1L)).isEqualTo(13d);
+        assertThat(forest.idsOfType(TYPE)).containsOnly(1L, 4L, 6L);
+    }
+
+    @Test
+    public void creates_cycle_should_detect_ancestors_and_self() {
+        assertThat(forest.createsCycle(1L, 3L)).isTrue();
+        assertThat(forest.createsCycle(2L, 2L)).isTrue();
+        assertThat(forest.createsCycle(4L, 3L)).isFalse();
+        assertThat(forest.createsCycle(7L, 7L)).isTrue();
+    }
+
+    @Test
+    public void ids_of_type_should_only_return_the_transactions_of_the_type() {
+        assertThat(forest.idsOfType(TYPE)).containsOnly(1L, 3L, 4L);
+        assertThat(forest.idsOfType(OTHER_TYPE)).containsOnly(2L);
+    }
+}
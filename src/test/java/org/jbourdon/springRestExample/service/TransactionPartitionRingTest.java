@@ -0,0 +1,74 @@
+package org.jbourdon.springRestExample.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test of the consistent hash ring of the transaction partitions
+ */
+public class TransactionPartitionRingTest {
+
+    private static final int ROOTS = 100_000;
+
+    private static final int VIRTUAL_NODES = 128;
+
+    private final TransactionPartitionRing ring = new TransactionPartitionRing(
+            Arrays.asList("http://localhost:8080", "http://localhost:8081", "http://localhost:8082"), VIRTUAL_NODES);
+
+    @Test
+    public void trees_should_be_spread_evenly_over_the_nodes() {
+        Map<String, Integer> trees = new HashMap<>();
+        for (long root = 0; root < ROOTS; root++) {
+            trees.merge(ring.ownerOf(root), 1, Integer::sum);
+        }
+        assertThat(trees).hasSize(3);
+        trees.values().forEach(count -> assertThat(count).isBetween(ROOTS / 3 * 8 / 10, ROOTS / 3 * 12 / 10));
+    }
+
+    @Test
+    public void rings_of_the_same_nodes_should_agree() {
+        TransactionPartitionRing other = new TransactionPartitionRing(
+                Arrays.asList("http://localhost:8082", "http://localhost:8080", "http://localhost:8081"), VIRTUAL_NODES);
+        for (long root = 0; root < ROOTS; root++) {
+            assertThat(other.ownerOf(root)).isEqualTo(ring.ownerOf(root));
+        }
+    }
+
+    @Test
+    public void joining_node_should_only_take_trees() {
+        TransactionPartitionRing joined = ring.withNode("http://localhost:8083");
+        int moved = 0;
+        for (long root = 0; root < ROOTS; root++) {
+            String owner = joined.ownerOf(root);
+            if (!owner.equals(ring.ownerOf(root))) {
+                assertThat(owner).isEqualTo("http://localhost:8083");
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(ROOTS / 4 * 8 / 10, ROOTS / 4 * 12 / 10);
+    }
+
+    @Test
+    public void leaving_node_should_only_give_its_trees() {
+        TransactionPartitionRing left = ring.withoutNode("http://localhost:8081");
+        for (long root = 0; root < ROOTS; root++) {
+            String owner = ring.ownerOf(root);
+            if (owner.equals("http://localhost:8081")) {
+                assertThat(left.ownerOf(root)).isNotEqualTo(owner);
+            } else {
+                assertThat(left.ownerOf(root)).isEqualTo(owner);
+            }
+        }
+        assertThat(left.withNode("http://localhost:8081").getNodes()).isEqualTo(ring.getNodes());
+    }
+
+    @Test
+    public void empty_ring_should_have_no_owner() {
+        assertThat(new TransactionPartitionRing(Arrays.asList(), VIRTUAL_NODES).ownerOf(1L)).isNull();
+    }
+}
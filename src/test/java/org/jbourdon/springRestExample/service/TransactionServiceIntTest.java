@@ -0,0 +1,178 @@
+package org.jbourdon.springRestExample.service;
+
+import org.jbourdon.springRestExample.TransactionsApp;
+import org.jbourdon.springRestExample.domain.TransactionPath;
+import org.jbourdon.springRestExample.repository.TransactionRepository;
+import org.jbourdon.springRestExample.web.rest.BulkTransactionRestWrapper;
+import org.jbourdon.springRestExample.web.rest.TransactionRestWrapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.inject.Inject;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Stress test of the concurrent writes of TransactionService.
+ * The transactions are committed by the writer threads, so this test is not transactional and removes its
+ * transactions afterwards.
+ *
+ * @see TransactionService
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = TransactionsApp.class)
+@WebAppConfiguration
+@IntegrationTest
+public class TransactionServiceIntTest {
+
+    private final Logger log = LoggerFactory.getLogger(TransactionServiceIntTest.class);
+
+    private static final long FIRST_ID = Long.MAX_VALUE / 2;
+    private static final int TREES = 8;
+    private static final int TREE_SIZE = 16;
+    private static final int THREADS = 8;
+    private static final int MOVES_PER_THREAD = 100;
+    private static final String TYPE = "stress";
+
+    @Inject
+    private TransactionService transactionService;
+
+    @Inject
+    private TransactionRepository transactionRepository;
+
+    private final List<Long> ids = new ArrayList<>();
+
+    @Before
+    public void initTest() {
+        List<BulkTransactionRestWrapper> wrappers = new ArrayList<>();
+        for (int tree = 0; tree < TREES; tree++) {
+            for (int node = 0; node < TREE_SIZE; node++) {
+                BulkTransactionRestWrapper wrapper = new BulkTransactionRestWrapper();
+                wrapper.setId(idOf(tree, node));
+                wrapper.setAmount(1d);
+                wrapper.setType(TYPE);
+                wrapper.setParentId(node == 0 ? null : idOf(tree, (node - 1) / 2));
+                wrappers.add(wrapper);
+                ids.add(wrapper.getId());
+            }
+        }
+        transactionService.saveAll(wrappers);
+    }
+
+    @After
+    public void cleanUp() {
+        /* Delete the leaves first, the parents are referenced by their children */
+        Map<Long, Long> parents = parents();
+        Map<Long, Integer> depths = new HashMap<>();
+        ids.forEach(id -> depths.put(id, depthOf(id, parents)));
+        ids.stream()
+                .sorted(Comparator.comparing(depths::get).reversed())
+                .forEach(transactionService::delete);
+    }
+
+    @Test
+    public void concurrent_reparenting_should_never_create_a_cycle() throws Exception {
+        AtomicInteger refused = new AtomicInteger();
+        run(THREADS, thread -> {
+            Random random = new Random(thread);
+            for (int move = 0; move < MOVES_PER_THREAD; move++) {
+                Long id = ids.get(random.nextInt(ids.size()));
+                Long parentId = random.nextInt(10) == 0 ? null : ids.get(random.nextInt(ids.size()));
+                if (!reparent(id, parentId)) {
+                    refused.incrementAndGet();
+                }
+            }
+        });
+        log.info("{} of {} re-parentings refused as cycles", refused.get(), THREADS * MOVES_PER_THREAD);
+        /* Random moves in small trees keep hitting the descendants of the moved transaction */
+        assertThat(refused.get()).isGreaterThan(0).isLessThan(THREADS * MOVES_PER_THREAD);
+
+        Map<Long, Long> parents = parents();
+        for (Long id : ids) {
+            assertThat(depthOf(id, parents)).as("depth of %s", id).isLessThan(ids.size());
+            List<Long> ancestors = new ArrayList<>();
+            for (Long ancestor = parents.get(id); ancestor != null; ancestor = parents.get(ancestor)) {
+                ancestors.add(ancestor);
+            }
+            /* Every transaction goes up to a root, which has no parent */
+            Long root = ancestors.isEmpty() ? id : ancestors.get(ancestors.size() - 1);
+            assertThat(parents).as("parent of the root of %s", id).doesNotContainKey(root);
+            assertThat(transactionRepository.findRootIds(Collections.singleton(id))).as("root of %s", id).containsExactly(root);
+            assertThat(transactionRepository.findAncestorIds(id)).as("ancestors of %s", id).isEqualTo(ancestors);
+            assertThat(TransactionPath.ancestorIds(transactionRepository.findPathById(id))).as("path of %s", id).isEqualTo(ancestors);
+            assertThat(transactionRepository.findDepthById(id)).as("depth of %s", id).isEqualTo(ancestors.size());
+        }
+        assertThat(transactionService.rebuildSubtreeSums()).isEqualTo(0);
+        assertThat(transactionService.rebuildPaths()).isEqualTo(0);
+    }
+
+    private boolean reparent(Long id, Long parentId) {
+        TransactionRestWrapper wrapper = new TransactionRestWrapper();
+        wrapper.setAmount(1d);
+        wrapper.setType(TYPE);
+        wrapper.setParentId(parentId);
+        try {
+            transactionService.save(wrapper, id);
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    private void run(int threads, ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                int index = thread;
+                futures.add(executor.submit(() -> task.run(index)));
+            }
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Map<Long, Long> parents() {
+        Set<Long> stressIds = new HashSet<>(ids);
+        Map<Long, Long> parents = new HashMap<>();
+        transactionRepository.findAllSubtreeSumEntries().stream()
+                .filter(entry -> stressIds.contains((Long) entry[0]) && entry[1] != null)
+                .forEach(entry -> parents.put((Long) entry[0], (Long) entry[1]));
+        return parents;
+    }
+
+    /**
+     * @return the depth of the transaction, capped to the number of transactions on a cycle
+     */
+    private int depthOf(Long id, Map<Long, Long> parents) {
+        int depth = 0;
+        for (Long ancestor = parents.get(id); ancestor != null && depth < ids.size(); ancestor = parents.get(ancestor)) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private static long idOf(int tree, int node) {
+        return FIRST_ID + tree * TREE_SIZE + node;
+    }
+
+    @FunctionalInterface
+    private interface ThreadTask {
+
+        void run(int thread);
+    }
+}
@@ -0,0 +1,154 @@
+package org.jbourdon.springRestExample.service;
+
+import org.jbourdon.springRestExample.TransactionsApp;
+import org.jbourdon.springRestExample.domain.Transaction;
+import org.jbourdon.springRestExample.domain.TransactionPath;
+import org.jbourdon.springRestExample.domain.TransactionTypeStats;
+import org.jbourdon.springRestExample.repository.TransactionRepository;
+import org.jbourdon.springRestExample.web.rest.BulkTransactionRestWrapper;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test of the export of the transactions of a node to a snapshot, imported by another node on startup.
+ * Each node has its own database.
+ *
+ * @see TransactionSnapshotService
+ */
+public class TransactionSnapshotServiceIntTest {
+
+    private static final int TREES = 4;
+
+    private static final int TREE_SIZE = 15;
+
+    private static final long FIRST_ID = 1_000L;
+
+    /**
+     * Length of a chain of transactions too deep for the paths of its last transactions, see TransactionPath
+     */
+    private static final int CHAIN_LENGTH = 200;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static ConfigurableApplicationContext exporting;
+
+    private static ConfigurableApplicationContext importing;
+
+    private static int exported;
+
+    @BeforeClass
+    public static void startNodes() throws IOException {
+        exporting = start("snapshot-export");
+        List<BulkTransactionRestWrapper> wrappers = new ArrayList<>();
+        for (int tree = 0; tree < TREES; tree++) {
+            for (int node = 0; node < TREE_SIZE; node++) {
+                BulkTransactionRestWrapper wrapper = new BulkTransactionRestWrapper();
+                wrapper.setId(idOf(tree, node));
+                wrapper.setAmount((double) node);
+                wrapper.setType(tree % 2 == 0 ? "even" : "odd");
+                wrapper.setParentId(node == 0 ? null : idOf(tree, (node - 1) / 2));
+                wrappers.add(wrapper);
+            }
+        }
+        for (int node = 0; node < CHAIN_LENGTH; node++) {
+            BulkTransactionRestWrapper wrapper = new BulkTransactionRestWrapper();
+            wrapper.setId(chainIdOf(node));
+            wrapper.setAmount(1d);
+            wrapper.setParentId(node == 0 ? null : chainIdOf(node - 1));
+            wrappers.add(wrapper);
+        }
+        exporting.getBean(TransactionService.class).saveAll(wrappers);
+        Path file = folder.getRoot().toPath().resolve("transactions.snapshot");
+        exported = exporting.getBean(TransactionSnapshotService.class).export(file);
+        importing = start("snapshot-import", "--transactions.snapshot.import-file=" + file);
+    }
+
+    @AfterClass
+    public static void stopNodes() {
+        importing.close();
+        exporting.close();
+    }
+
+    @Test
+    public void every_transaction_should_be_imported() {
+        assertThat(exported).isEqualTo(TREES * TREE_SIZE + CHAIN_LENGTH);
+        assertThat(importing.getBean(TransactionRepository.class).count()).isEqualTo(exported);
+        Transaction leaf = importing.getBean(TransactionService.class).findOne(idOf(1, 14));
+        assertThat(leaf.getAmount()).isEqualTo(14d);
+        assertThat(leaf.getType()).isEqualTo("odd");
+        assertThat(leaf.getParentId()).isEqualTo(idOf(1, 6));
+        Transaction untyped = importing.getBean(TransactionService.class).findOne(chainIdOf(0));
+        assertThat(untyped.getType()).isNull();
+        assertThat(untyped.getTypeId()).isNull();
+    }
+
+    @Test
+    public void hierarchy_should_be_derived_from_the_parents() {
+        TransactionRepository transactionRepository = importing.getBean(TransactionRepository.class);
+        long leafId = idOf(2, 13);
+        assertThat(transactionRepository.findDepthById(leafId)).isEqualTo(3);
+        assertThat(transactionRepository.findPathById(leafId)).isEqualTo(
+                TransactionPath.of(TransactionPath.of(TransactionPath.of(TransactionPath.of(null, idOf(2, 0)), idOf(2, 2)), idOf(2, 6)), leafId));
+        assertThat(transactionRepository.findRootIds(Collections.singleton(leafId))).containsExactly(idOf(2, 0));
+        assertThat(transactionRepository.findAncestorIds(leafId)).containsExactly(idOf(2, 6), idOf(2, 2), idOf(2, 0));
+        assertThat(transactionRepository.findDescendantIds(idOf(2, 0))).hasSize(TREE_SIZE - 1);
+    }
+
+    @Test
+    public void transactions_too_deep_for_a_path_should_be_imported_without_one() {
+        TransactionRepository exportingRepository = exporting.getBean(TransactionRepository.class);
+        TransactionRepository importingRepository = importing.getBean(TransactionRepository.class);
+        long leafId = chainIdOf(CHAIN_LENGTH - 1);
+        assertThat(importingRepository.findPathById(leafId)).isNull();
+        assertThat(importingRepository.findDepthById(leafId)).isEqualTo(CHAIN_LENGTH - 1);
+        assertThat(importingRepository.findAncestorIds(leafId)).hasSize(CHAIN_LENGTH - 1).endsWith(chainIdOf(0));
+        for (int node = 0; node < CHAIN_LENGTH; node++) {
+            assertThat(importingRepository.findPathById(chainIdOf(node))).as("path of %s", node)
+                    .isEqualTo(exportingRepository.findPathById(chainIdOf(node)));
+        }
+        assertThat(importing.getBean(TransactionService.class).rebuildPaths()).isEqualTo(0);
+    }
+
+    @Test
+    public void aggregates_should_match_the_exported_ones() {
+        TransactionService exportingService = exporting.getBean(TransactionService.class);
+        TransactionService importingService = importing.getBean(TransactionService.class);
+        assertThat(importingService.sumChildren(idOf(3, 0))).isEqualTo((double) (TREE_SIZE - 1) * TREE_SIZE / 2);
+        assertThat(importingService.sumChildren(idOf(3, 1))).isEqualTo(exportingService.sumChildren(idOf(3, 1)));
+        TransactionTypeStats stats = importingService.findTypeStats("even");
+        assertThat(stats.getCount()).isEqualTo((long) TREE_SIZE * TREES / 2);
+        assertThat(stats.getMax()).isEqualTo(TREE_SIZE - 1d);
+    }
+
+    private static long idOf(int tree, int node) {
+        return FIRST_ID + tree * TREE_SIZE + node;
+    }
+
+    private static long chainIdOf(int node) {
+        return Long.MAX_VALUE / 3 - node;
+    }
+
+    private static ConfigurableApplicationContext start(String database, String... args) {
+        List<String> arguments = new ArrayList<>(Arrays.asList(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1",
+                "--spring.jpa.show-sql=false"));
+        arguments.addAll(Arrays.asList(args));
+        return new SpringApplicationBuilder(TransactionsApp.class).run(arguments.toArray(new String[arguments.size()]));
+    }
+}
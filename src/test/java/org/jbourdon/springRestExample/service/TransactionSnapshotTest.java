@@ -0,0 +1,118 @@
+package org.jbourdon.springRestExample.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Test of the columnar snapshot file of the transactions
+ */
+public class TransactionSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void transactions_should_be_read_back_parents_first() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("transactions.snapshot");
+        TransactionSnapshot.Writer writer = new TransactionSnapshot.Writer();
+        writer.addType(7, "cars");
+        writer.addType(9, "shopping");
+        writer.add(3L, 2L, 3d, 9, 3d);
+        writer.add(2L, 1L, null, 7, 3d);
+        writer.add(1L, null, 1d, TransactionSnapshot.NO_TYPE, 4d);
+        assertThat(writer.write(file)).isEqualTo(3);
+
+        TransactionSnapshot snapshot = TransactionSnapshot.open(file);
+        assertThat(snapshot.size()).isEqualTo(3);
+        assertThat(snapshot.getTypes()).containsEntry(7, "cars").containsEntry(9, "shopping").hasSize(2);
+        assertThat(snapshot.getId(0)).isEqualTo(1L);
+        assertThat(snapshot.getParentId(0)).isNull();
+        assertThat(snapshot.getAmount(0)).isEqualTo(1d);
+        assertThat(snapshot.getTypeId(0)).isEqualTo(TransactionSnapshot.NO_TYPE);
+        assertThat(snapshot.getSubtreeSum(0)).isEqualTo(4d);
+        assertThat(snapshot.getId(1)).isEqualTo(2L);
+        assertThat(snapshot.getParentId(1)).isEqualTo(1L);
+        assertThat(snapshot.getAmount(1)).isNull();
+        assertThat(snapshot.getTypeId(1)).isEqualTo(7);
+        assertThat(snapshot.getId(2)).isEqualTo(3L);
+        assertThat(snapshot.getParentId(2)).isEqualTo(2L);
+        assertThat(folder.getRoot().list()).containsExactly("transactions.snapshot");
+    }
+
+    @Test
+    public void every_parent_should_precede_its_children() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("transactions.snapshot");
+        TransactionSnapshot.Writer writer = new TransactionSnapshot.Writer();
+        for (long id = 1000; id > 1; id--) {
+            writer.add(id, id / 2, (double) id, TransactionSnapshot.NO_TYPE, 0d);
+        }
+        writer.add(1L, null, 1d, TransactionSnapshot.NO_TYPE, 0d);
+        writer.write(file);
+
+        TransactionSnapshot snapshot = TransactionSnapshot.open(file);
+        assertThat(snapshot.size()).isEqualTo(1000);
+        Set<Long> read = new HashSet<>();
+        for (int row = 0; row < snapshot.size(); row++) {
+            Long parentId = snapshot.getParentId(row);
+            assertThat(parentId == null || read.contains(parentId)).as("parent of %s read before it", snapshot.getId(row)).isTrue();
+            read.add(snapshot.getId(row));
+        }
+    }
+
+    @Test
+    public void transactions_on_a_cycle_should_be_left_out() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("transactions.snapshot");
+        TransactionSnapshot.Writer writer = new TransactionSnapshot.Writer();
+        writer.add(1L, null, 1d, TransactionSnapshot.NO_TYPE, 1d);
+        writer.add(2L, 3L, 2d, TransactionSnapshot.NO_TYPE, 0d);
+        writer.add(3L, 2L, 3d, TransactionSnapshot.NO_TYPE, 0d);
+        assertThat(writer.write(file)).isEqualTo(1);
+        assertThat(TransactionSnapshot.open(file).size()).isEqualTo(1);
+    }
+
+    @Test
+    public void corrupted_column_should_be_rejected() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("transactions.snapshot");
+        TransactionSnapshot.Writer writer = new TransactionSnapshot.Writer();
+        writer.addType(1, "cars");
+        for (long id = 1; id <= 100; id++) {
+            writer.add(id, null, (double) id, 1, (double) id);
+        }
+        writer.write(file);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            /* A bit flipped in the last column, the subtree sums */
+            raf.seek(raf.length() - 3);
+            int b = raf.read();
+            raf.seek(raf.length() - 3);
+            raf.write(b ^ 1);
+        }
+        try {
+            TransactionSnapshot.open(file);
+            fail("the corrupted snapshot should be rejected");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("checksum mismatch of the SUBTREE_SUMS column");
+        }
+    }
+
+    @Test
+    public void other_files_should_be_rejected() throws Exception {
+        Path file = folder.newFile("transactions.snapshot").toPath();
+        try {
+            TransactionSnapshot.open(file);
+            fail("an empty file should be rejected");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("truncated header");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.jbourdon.springRestExample.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.offset;
+
+/**
+ * Test of the summing of a union of transaction subtrees
+ */
+public class TransactionSubtreeUnionTest {
+
+    @Test
+    public void overlapping_subtrees_should_be_summed_in_one_pass() {
+        // 1 <- 2 <- 3, 1 <- 4, 5 alone, built children first
+        TransactionSubtreeUnion union = new TransactionSubtreeUnion.Builder()
+                .add(3L, 2L, 3d)
+                .add(2L, 1L, 2d)
+                .add(1L, null, 1d)
+                .add(4L, 1L, 4d)
+                .add(5L, 42L, 5d)
+                .build();
+
+        Map<Long, Double> sums = union.subtreeSums(Arrays.asList(1L, 2L, 5L, 6L), new ForkJoinPool(2));
+        assertThat(sums).containsOnly(entry(1L, 10d), entry(2L, 5d), entry(5L, 5d));
+    }
+
+    @Test
+    public void deep_chains_should_not_overflow_the_stack() {
+        int depth = 200000;
+        TransactionSubtreeUnion.Builder builder = new TransactionSubtreeUnion.Builder();
+        for (long id = 0; id < depth; id++) {
+            builder.add(id, id == 0 ? null : id - 1, 1d);
+        }
+
+        Map<Long, Double> sums = builder.build().subtreeSums(Arrays.asList(0L, depth / 2L), new ForkJoinPool(4));
+        assertThat(sums).containsOnly(entry(0L, (double) depth), entry(depth / 2L, depth / 2d));
+    }
+
+    @Test
+    public void wide_trees_should_be_split_into_independent_subtrees() {
+        // A root with 1000 children of 10 leaves each
+        TransactionSubtreeUnion.Builder builder = new TransactionSubtreeUnion.Builder().add(0L, null, 1d);
+        long id = 1;
+        for (int child = 0; child < 1000; child++) {
+            long childId = id++;
+            builder.add(childId, 0L, 1d);
+            for (int leaf = 0; leaf < 10; leaf++) {
+                builder.add(id++, childId, 1d);
+            }
+        }
+        TransactionSubtreeUnion union = builder.build();
+
+        assertThat(union.size()).isEqualTo(11001);
+        assertThat(union.subtreeSums(Arrays.asList(0L, 1L), new ForkJoinPool(8)))
+                .containsOnly(entry(0L, 11001d), entry(1L, 11d));
+        assertThat(union.subtreeSums(Arrays.asList(0L, 1L), new ForkJoinPool(1)))
+                .containsOnly(entry(0L, 11001d), entry(1L, 11d));
+    }
+
+    @Test
+    public void large_child_sets_should_be_split_with_stable_sums() {
+        // A root with 300000 leaves whose amounts cannot be added exactly
+        TransactionSubtreeUnion.Builder builder = new TransactionSubtreeUnion.Builder().add(0L, null, 0.1d);
+        for (long id = 1; id <= 300000; id++) {
+            builder.add(id, 0L, 0.1d);
+        }
+        TransactionSubtreeUnion union = builder.build();
+
+        double sequential = union.subtreeSums(Arrays.asList(0L), null).get(0L);
+        assertThat(sequential).isEqualTo(30000.1d, offset(1e-9));
+        for (int parallelism = 1; parallelism <= 8; parallelism *= 2) {
+            assertThat(union.subtreeSums(Arrays.asList(0L), new ForkJoinPool(parallelism)).get(0L)).isEqualTo(sequential);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.jbourdon.springRestExample.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test of the transaction write-ahead log
+ */
+public class TransactionWriteAheadLogTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void records_should_be_replayed_after_a_reopen() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (TransactionWriteAheadLog log = new TransactionWriteAheadLog(directory, SEGMENT_SIZE)) {
+            log.append(TransactionWriteAheadLog.Operation.CREATE, 1L, 1d, "cars", null);
+            log.append(TransactionWriteAheadLog.Operation.UPDATE, 2L, null, "shopping", 1L);
+            long last = log.append(TransactionWriteAheadLog.Operation.DELETE, 3L, null, null, null);
+            log.sync(last);
+        }
+
+        try (TransactionWriteAheadLog log = new TransactionWriteAheadLog(directory, SEGMENT_SIZE)) {
+            List<TransactionWriteAheadLog.Record> records = replay(log);
+            assertThat(records).hasSize(3);
+            assertThat(records.get(0).getOperation()).isEqualTo(TransactionWriteAheadLog.Operation.CREATE);
+            assertThat(records.get(0).getAmount()).isEqualTo(1d);
+            assertThat(records.get(0).getType()).isEqualTo("cars");
+            assertThat(records.get(0).getParentId()).isNull();
+            assertThat(records.get(1).getAmount()).isNull();
+            assertThat(records.get(1).getParentId()).isEqualTo(1L);
+            assertThat(records.get(2).getOperation()).isEqualTo(TransactionWriteAheadLog.Operation.DELETE);
+            assertThat(records.get(2).getType()).isNull();
+            assertThat(log.append(TransactionWriteAheadLog.Operation.CREATE, 4L, 4d, "cars", null)).isEqualTo(4L);
+        }
+    }
+
+    @Test
+    public void checkpoint_should_skip_and_delete_the_applied_records() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        long last = 0;
+        try (TransactionWriteAheadLog log = new TransactionWriteAheadLog(directory, SEGMENT_SIZE)) {
+            for (long id = 1; id <= 200; id++) {
+                last = log.append(TransactionWriteAheadLog.Operation.CREATE, id, (double) id, "cars", null);
+            }
+            log.sync(last);
+            assertThat(log.getSegments().size()).isGreaterThan(2);
+            log.checkpoint(150);
+            assertThat(replay(log)).extracting(TransactionWriteAheadLog.Record::getId).startsWith(151L).endsWith(200L);
+            log.checkpoint(last);
+            assertThat(log.getSegments()).hasSize(1);
+        }
+
+        try (TransactionWriteAheadLog log = new TransactionWriteAheadLog(directory, SEGMENT_SIZE)) {
+            assertThat(replay(log)).isEmpty();
+            assertThat(log.getCheckpointSequence()).isEqualTo(last);
+            assertThat(log.append(TransactionWriteAheadLog.Operation.CREATE, 201L, 1d, "cars", null)).isEqualTo(last + 1);
+        }
+    }
+
+    @Test
+    public void torn_record_should_be_truncated() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (TransactionWriteAheadLog log = new TransactionWriteAheadLog(directory, SEGMENT_SIZE)) {
+            log.append(TransactionWriteAheadLog.Operation.CREATE, 1L, 1d, "cars", null);
+            log.sync(log.append(TransactionWriteAheadLog.Operation.CREATE, 2L, 2d, "cars", null));
+        }
+        // Corrupt the last byte of the second record
+        Path segment = folder.getRoot().listFiles((dir, name) -> name.endsWith(".wal"))[0].toPath();
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            int recordSize = 8 + 36 + "cars".length();
+            file.seek(2 * recordSize - 1);
+            file.write(0xFF);
+        }
+
+        try (TransactionWriteAheadLog log = new TransactionWriteAheadLog(directory, SEGMENT_SIZE)) {
+            assertThat(replay(log)).extracting(TransactionWriteAheadLog.Record::getId).containsExactly(1L);
+            log.sync(log.append(TransactionWriteAheadLog.Operation.CREATE, 3L, 3d, "cars", null));
+            assertThat(replay(log)).extracting(TransactionWriteAheadLog.Record::getSequence).containsExactly(1L, 2L);
+        }
+    }
+
+    private static List<TransactionWriteAheadLog.Record> replay(TransactionWriteAheadLog log) throws Exception {
+        List<TransactionWriteAheadLog.Record> records = new ArrayList<>();
+        log.replay(records::add);
+        return records;
+    }
+}
@@ -0,0 +1,310 @@
+package org.jbourdon.springRestExample.web.filter;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.jbourdon.springRestExample.TransactionsApp;
+import org.jbourdon.springRestExample.service.TransactionPartitionService;
+import org.jbourdon.springRestExample.service.TransactionService;
+import org.jbourdon.springRestExample.web.rest.BulkTransactionRestWrapper;
+import org.jbourdon.springRestExample.web.rest.TransactionRestWrapper;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.beans.BeansException;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Test of the routing of the transaction requests between two nodes started on localhost, sharing a database.
+ * The first node redirects the requests of the trees of the second one, which forwards the requests of the trees
+ * of the first one. Both nodes keep their own cache and locks, which have to stay consistent.
+ *
+ * @see TransactionRoutingFilter
+ */
+public class TransactionRoutingFilterIntTest {
+
+    private static final int ROOTS = 16;
+
+    private static final long FIRST_ID = 1_000_000L;
+
+    private static ConfigurableApplicationContext redirecting;
+
+    private static ConfigurableApplicationContext forwarding;
+
+    private static String redirectingUrl;
+
+    private static String forwardingUrl;
+
+    private final RestTemplate restTemplate = new RestTemplate(new SimpleClientHttpRequestFactory() {
+        @Override
+        protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+            super.prepareConnection(connection, httpMethod);
+            connection.setInstanceFollowRedirects(false);
+        }
+    });
+
+    private long redirectingTreeId;
+
+    private long forwardingTreeId;
+
+    @BeforeClass
+    public static void startNodes() throws IOException {
+        redirectingUrl = "http://localhost:" + freePort();
+        forwardingUrl = "http://localhost:" + freePort();
+        String nodes = redirectingUrl + "," + forwardingUrl;
+        redirecting = start(redirectingUrl, nodes, "redirect");
+        forwarding = start(forwardingUrl, nodes, "forward");
+        List<BulkTransactionRestWrapper> wrappers = new ArrayList<>();
+        for (long root = FIRST_ID; root < FIRST_ID + ROOTS; root++) {
+            wrappers.add(wrapper(root, null));
+            wrappers.add(wrapper(root + ROOTS, root));
+        }
+        redirecting.getBean(TransactionService.class).saveAll(wrappers);
+    }
+
+    @AfterClass
+    public static void stopNodes() {
+        forwarding.close();
+        redirecting.close();
+    }
+
+    @Before
+    public void setUp() {
+        restTemplate.setErrorHandler(new DefaultResponseErrorHandler() {
+            @Override
+            public boolean hasError(ClientHttpResponse response) {
+                return false;
+            }
+        });
+        List<String> nodes = Arrays.asList(redirectingUrl, forwardingUrl);
+        redirecting.getBean(TransactionPartitionService.class).setNodes(nodes);
+        forwarding.getBean(TransactionPartitionService.class).setNodes(nodes);
+        /* The children of a root of each node, both nodes agree on the owners */
+        TransactionPartitionService partitions = redirecting.getBean(TransactionPartitionService.class);
+        for (long root = FIRST_ID; root < FIRST_ID + ROOTS; root++) {
+            String owner = partitions.ownerOf(root + ROOTS).get();
+            assertThat(forwarding.getBean(TransactionPartitionService.class).ownerOf(root + ROOTS).get()).isEqualTo(owner);
+            if (owner.equals(redirectingUrl)) {
+                redirectingTreeId = root + ROOTS;
+            } else {
+                forwardingTreeId = root + ROOTS;
+            }
+        }
+        assertThat(redirectingTreeId).as("a tree of the redirecting node").isNotZero();
+        assertThat(forwardingTreeId).as("a tree of the forwarding node").isNotZero();
+    }
+
+    @Test
+    public void requests_of_a_tree_of_another_node_should_be_redirected_to_it() {
+        ResponseEntity<String> response = restTemplate.getForEntity(redirectingUrl + "/transactionservice/transaction/" + forwardingTreeId, String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.TEMPORARY_REDIRECT);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.LOCATION))
+                .isEqualTo(forwardingUrl + "/transactionservice/transaction/" + forwardingTreeId);
+    }
+
+    @Test
+    public void requests_of_a_tree_of_another_node_should_be_forwarded_to_it() {
+        long cachedByOwner = cachedTransactions(redirecting);
+        ResponseEntity<String> response = restTemplate.getForEntity(forwardingUrl + "/transactionservice/transaction/" + redirectingTreeId, String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).contains("\"parent_id\":" + (redirectingTreeId - ROOTS));
+        assertThat(cachedTransactions(redirecting)).isEqualTo(cachedByOwner + 1);
+        assertThat(cachedTransactions(forwarding)).isZero();
+    }
+
+    @Test
+    public void bodies_of_the_requests_forwarded_to_another_node_should_be_streamed_to_it() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        String url = "/transactionservice/transaction/" + redirectingTreeId;
+        ResponseEntity<String> response = restTemplate.exchange(forwardingUrl + url, HttpMethod.PUT,
+                new HttpEntity<>("{\"amount\":3.0,\"type\":\"partitioned\",\"parent_id\":" + (redirectingTreeId - ROOTS) + "}", headers), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(restTemplate.getForEntity(redirectingUrl + url, String.class).getBody()).contains("\"amount\":3.0");
+
+        /* The errors of the owner are copied back */
+        response = restTemplate.exchange(forwardingUrl + url, HttpMethod.PUT,
+                new HttpEntity<>("{\"amount\":1.0,\"type\":\"partitioned\",\"parent_id\":" + redirectingTreeId + "}", headers), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        redirecting.getBean(TransactionService.class).save(restWrapper(1d, redirectingTreeId - ROOTS), redirectingTreeId);
+    }
+
+    @Test
+    public void requests_of_a_local_or_unknown_tree_should_be_served_locally() {
+        assertThat(restTemplate.getForEntity(redirectingUrl + "/transactionservice/sum/" + redirectingTreeId, String.class).getStatusCode())
+                .isEqualTo(HttpStatus.OK);
+        assertThat(restTemplate.getForEntity(redirectingUrl + "/transactionservice/transaction/" + (FIRST_ID - 1), String.class).getStatusCode())
+                .isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    public void trees_of_a_leaving_node_should_be_served_by_the_remaining_node_until_it_joins_again() {
+        TransactionPartitionService partitions = redirecting.getBean(TransactionPartitionService.class);
+        assertThat(partitions.leave(forwardingUrl)).containsExactly(redirectingUrl);
+        assertThat(restTemplate.getForEntity(redirectingUrl + "/transactionservice/transaction/" + forwardingTreeId, String.class).getStatusCode())
+                .isEqualTo(HttpStatus.OK);
+
+        assertThat(partitions.join(forwardingUrl)).containsOnly(redirectingUrl, forwardingUrl);
+        assertThat(restTemplate.getForEntity(redirectingUrl + "/transactionservice/transaction/" + forwardingTreeId, String.class).getStatusCode())
+                .isEqualTo(HttpStatus.TEMPORARY_REDIRECT);
+    }
+
+    @Test
+    public void requests_of_an_unreachable_owner_should_fail() throws IOException {
+        String unreachableUrl = "http://localhost:" + freePort();
+        TransactionPartitionService partitions = forwarding.getBean(TransactionPartitionService.class);
+        partitions.setNodes(Arrays.asList(forwardingUrl, unreachableUrl));
+        long unreachableTreeId = 0;
+        for (long root = FIRST_ID; root < FIRST_ID + ROOTS; root++) {
+            if (partitions.ownerOf(root).get().equals(unreachableUrl)) {
+                unreachableTreeId = root;
+            }
+        }
+        assertThat(unreachableTreeId).as("a tree of the unreachable node").isNotZero();
+        assertThat(restTemplate.getForEntity(forwardingUrl + "/transactionservice/transaction/" + unreachableTreeId, String.class).getStatusCode())
+                .isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @Test
+    public void writes_on_a_node_should_drop_the_transaction_from_the_cache_of_the_others() {
+        String url = forwardingUrl + "/transactionservice/transaction/" + forwardingTreeId;
+        assertThat(restTemplate.getForEntity(url, String.class).getBody()).contains("\"amount\":1.0");
+        long cachedByOwner = cachedTransactions(forwarding);
+
+        redirecting.getBean(TransactionService.class).save(restWrapper(2d, forwardingTreeId - ROOTS), forwardingTreeId);
+        assertThat(cachedTransactions(forwarding)).isEqualTo(cachedByOwner - 1);
+        assertThat(restTemplate.getForEntity(url, String.class).getBody()).contains("\"amount\":2.0");
+        redirecting.getBean(TransactionService.class).save(restWrapper(1d, forwardingTreeId - ROOTS), forwardingTreeId);
+    }
+
+    @Test
+    public void writes_of_a_tree_should_be_serialized_across_the_nodes() throws Exception {
+        /* Warm up the invalidation of the other node, the waiting write must be slowed down by the lock only */
+        forwarding.getBean(TransactionService.class).save(restWrapper(1d, null), forwardingTreeId - ROOTS);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = executor.submit(() -> new TransactionTemplate(redirecting.getBean(PlatformTransactionManager.class)).execute(status -> {
+                redirecting.getBean(TransactionService.class).save(restWrapper(1d, redirectingTreeId - ROOTS), redirectingTreeId);
+                locked.countDown();
+                awaitQuietly(release);
+                return null;
+            }));
+            assertThat(locked.await(10, TimeUnit.SECONDS)).isTrue();
+            /* Another row of the same tree, only the lock of the tree can make the write wait */
+            Future<?> second = executor.submit(() ->
+                    forwarding.getBean(TransactionService.class).save(restWrapper(1d, null), redirectingTreeId - ROOTS));
+            Thread.sleep(300);
+            assertThat(second.isDone()).as("the second write waits for the first one").isFalse();
+            release.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            second.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void nodes_set_on_a_node_should_be_passed_on_to_the_others() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<String> response = restTemplate.exchange(redirectingUrl + "/transactionservice/partition/nodes", HttpMethod.PUT,
+                new HttpEntity<>("[\"" + redirectingUrl + "\"]", headers), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(redirecting.getBean(TransactionPartitionService.class).getNodes()).containsExactly(redirectingUrl);
+        assertThat(forwarding.getBean(TransactionPartitionService.class).getNodes()).containsExactly(redirectingUrl);
+    }
+
+    @Test
+    public void partitioning_should_refuse_the_in_memory_forest() {
+        try {
+            /* A database of its own, the shared one would be shut down with the failed context */
+            new SpringApplicationBuilder(TransactionsApp.class).web(false).run(
+                    "--spring.datasource.url=jdbc:h2:mem:partitions-forest;DB_CLOSE_DELAY=-1",
+                    "--spring.jpa.show-sql=false",
+                    "--transactions.partitioning.enabled=true",
+                    "--transactions.hierarchy.in-memory=true").close();
+            fail("the in-memory forest should be refused");
+        } catch (BeansException e) {
+            assertThat(e.getMostSpecificCause().getMessage()).contains("transactions.hierarchy.in-memory");
+        }
+    }
+
+    private static long cachedTransactions(ConfigurableApplicationContext node) {
+        @SuppressWarnings("unchecked")
+        Gauge<Long> size = node.getBean(MetricRegistry.class).getGauges().get("cache.transaction.size");
+        return size.getValue();
+    }
+
+    private static ConfigurableApplicationContext start(String url, String nodes, String routing) {
+        return new SpringApplicationBuilder(TransactionsApp.class).run(
+                "--server.port=" + url.substring(url.lastIndexOf(':') + 1),
+                "--spring.datasource.url=jdbc:h2:mem:partitions;DB_CLOSE_DELAY=-1",
+                "--spring.jpa.show-sql=false",
+                "--transactions.partitioning.enabled=true",
+                "--transactions.partitioning.self=" + url,
+                "--transactions.partitioning.nodes=" + nodes,
+                "--transactions.partitioning.routing=" + routing);
+    }
+
+    private static TransactionRestWrapper restWrapper(double amount, Long parentId) {
+        TransactionRestWrapper wrapper = new TransactionRestWrapper();
+        wrapper.setAmount(amount);
+        wrapper.setType("partitioned");
+        wrapper.setParentId(parentId);
+        return wrapper;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static BulkTransactionRestWrapper wrapper(long id, Long parentId) {
+        BulkTransactionRestWrapper wrapper = new BulkTransactionRestWrapper();
+        wrapper.setId(id);
+        wrapper.setAmount(1d);
+        wrapper.setType("partitioned");
+        wrapper.setParentId(parentId);
+        return wrapper;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
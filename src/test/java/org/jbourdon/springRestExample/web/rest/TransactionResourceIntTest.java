@@ -1,31 +1,66 @@
 package org.jbourdon.springRestExample.web.rest;
 
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.jbourdon.springRestExample.TransactionsApp;
+import org.jbourdon.springRestExample.config.metrics.EndpointMetricsInterceptor;
+import org.jbourdon.springRestExample.config.metrics.HibernateStatementInterceptor;
 import org.jbourdon.springRestExample.domain.Transaction;
+import org.jbourdon.springRestExample.domain.TransactionPath;
+import org.jbourdon.springRestExample.repository.TransactionJdbcRepository;
 import org.jbourdon.springRestExample.repository.TransactionRepository;
+import org.jbourdon.springRestExample.service.TransactionAggregateService;
+import org.jbourdon.springRestExample.service.TransactionCacheService;
 import org.jbourdon.springRestExample.service.TransactionService;
+import org.jbourdon.springRestExample.service.TransactionSubtreeUnion;
+import org.jbourdon.springRestExample.service.TransactionWriteBehindService;
+import org.jbourdon.springRestExample.web.util.SmileHttpMessageConverter;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.MockitoAnnotations;
 import org.springframework.boot.test.IntegrationTest;
 import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
 import org.springframework.data.web.PageableHandlerMethodArgumentResolver;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.startsWith;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -47,18 +82,44 @@ public class TransactionResourceIntTest {
     private static final String UPDATED_TYPE = "BBBBB";
     private static final String ALTERNATIVE_TYPE = "CCCCC";
 
+    /**
+     * The transaction ids are given by the clients, the entities of the tests get theirs from this sequence
+     */
+    private static final AtomicLong IDS = new AtomicLong(1_000_000_000L);
+
     @Inject
     private TransactionRepository transactionRepository;
 
     @Inject
     private TransactionService transactionService;
 
+    @Inject
+    private TransactionJdbcRepository transactionJdbcRepository;
+
+    @Inject
+    private DataSource dataSource;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
     @Inject
     private MappingJackson2HttpMessageConverter jacksonMessageConverter;
 
+    @Inject
+    private SmileHttpMessageConverter smileHttpMessageConverter;
+
     @Inject
     private PageableHandlerMethodArgumentResolver pageableArgumentResolver;
 
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    @Inject
+    private TransactionCacheService transactionCacheService;
+
+    @Inject
+    private PlatformTransactionManager transactionManager;
+
     private MockMvc restTransactionMockMvc;
 
     private Transaction transaction;
@@ -70,20 +131,28 @@ public class TransactionResourceIntTest {
         MockitoAnnotations.initMocks(this);
         TransactionResource transactionResource = new TransactionResource();
         ReflectionTestUtils.setField(transactionResource, "transactionService", transactionService);
+        ReflectionTestUtils.setField(transactionResource, "transactionAggregateService", aggregateService(new SyncTaskExecutor()));
+        ReflectionTestUtils.setField(transactionResource, "transactionCacheService", transactionCacheService);
+        ReflectionTestUtils.setField(transactionResource, "objectMapper", jacksonMessageConverter.getObjectMapper());
+        ReflectionTestUtils.setField(transactionResource, "smileHttpMessageConverter", smileHttpMessageConverter);
+        ReflectionTestUtils.setField(transactionResource, "transactionWriteBehindService", Optional.empty());
         this.restTransactionMockMvc = MockMvcBuilders.standaloneSetup(transactionResource)
-                .setMessageConverters(jacksonMessageConverter).build();
+                .setMessageConverters(new ByteArrayHttpMessageConverter(), jacksonMessageConverter, smileHttpMessageConverter).build();
     }
 
     @Before
     public void initTest() {
         transaction = new Transaction();
+        transaction.setId(nextId());
         transaction.setAmount(DEFAULT_AMOUNT);
         transaction.setType(DEFAULT_TYPE);
         childTransaction1 = new Transaction();
+        childTransaction1.setId(nextId());
         childTransaction1.setAmount(DEFAULT_AMOUNT);
         childTransaction1.setType(DEFAULT_TYPE);
         childTransaction1.setParent(transaction);
         childTransaction2 = new Transaction();
+        childTransaction2.setId(nextId());
         childTransaction2.setAmount(ALTERNATIVE_AMOUNT);
         childTransaction2.setType(ALTERNATIVE_TYPE);
         childTransaction2.setParent(transaction);
@@ -94,11 +163,11 @@ public class TransactionResourceIntTest {
     public void createTransaction() throws Exception {
         int databaseSizeBeforeCreate = transactionRepository.findAll().size();
 
-        // Create the Transaction
-        restTransactionMockMvc.perform(post("/transactionservice/transaction")
+        // Create the Transaction, with the id given by the client
+        restTransactionMockMvc.perform(put("/transactionservice/transaction/" + transaction.getId())
                 .contentType(TestUtil.APPLICATION_JSON_UTF8)
                 .content(TestUtil.convertObjectToJsonBytes(TransactionRestWrapper.fromTransaction(transaction))))
-                .andExpect(status().isCreated())
+                .andExpect(status().isOk())
                 .andExpect(jsonPath("$.status").value("ok"));
 
         // Validate the Transaction in the database
@@ -109,6 +178,20 @@ public class TransactionResourceIntTest {
         assertThat(testTransaction.getType()).isEqualTo(DEFAULT_TYPE);
     }
 
+    @Test
+    @Transactional
+    public void creation_without_id_should_return_an_error() throws Exception {
+        int databaseSizeBeforeCreate = transactionRepository.findAll().size();
+
+        restTransactionMockMvc.perform(post("/transactionservice/transaction")
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(TransactionRestWrapper.fromTransaction(transaction))))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.status").value("error"));
+
+        assertThat(transactionRepository.findAll()).hasSize(databaseSizeBeforeCreate);
+    }
+
     @Test
     @Transactional
     public void should_be_ableto_get_transaction_from_database() throws Exception {
@@ -210,7 +293,7 @@ public class TransactionResourceIntTest {
         transactionService.save(childTransaction2);
 
         // Get the transaction ids list
-        restTransactionMockMvc.perform(get("/transactionservice/types/{type}", DEFAULT_TYPE)
+        performAsync(get("/transactionservice/types/{type}", DEFAULT_TYPE)
                 .accept(TestUtil.APPLICATION_JSON_UTF8))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8))
@@ -226,11 +309,736 @@ public class TransactionResourceIntTest {
         transactionService.save(childTransaction1);
         transactionService.save(childTransaction2);
 
-        restTransactionMockMvc.perform(get("/transactionservice/sum/" + transaction.getId())
+        performAsync(get("/transactionservice/sum/" + transaction.getId())
                 .accept(TestUtil.APPLICATION_JSON_UTF8))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8))
                 .andExpect(jsonPath("$.sum").value(transaction.getAmount() + childTransaction1.getAmount() + childTransaction2.getAmount()));
     }
 
+    @Test
+    @Transactional
+    public void should_be_able_to_sum_several_transactions_at_once() throws Exception {
+        // Initialize the database
+        transactionService.save(transaction);
+        transactionService.save(childTransaction1);
+        transactionService.save(childTransaction2);
+
+        performAsync(get("/transactionservice/sum?ids={ids}",
+                childTransaction2.getId() + "," + transaction.getId() + "," + Long.MAX_VALUE)
+                .accept(TestUtil.APPLICATION_JSON_UTF8))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$[0].sum").value(ALTERNATIVE_AMOUNT))
+                .andExpect(jsonPath("$[1].sum").value(transaction.getAmount() + childTransaction1.getAmount() + childTransaction2.getAmount()))
+                .andExpect(jsonPath("$[2].sum").doesNotExist());
+    }
+
+    @Test
+    @Transactional
+    public void sum_should_follow_updates_and_deletes_of_descendants() throws Exception {
+        // Initialize the database
+        transactionService.save(transaction);
+        transactionService.save(childTransaction1);
+        transactionService.save(childTransaction2);
+
+        // Update a child amount
+        TransactionRestWrapper updatedChild = TransactionRestWrapper.fromTransaction(childTransaction1);
+        updatedChild.setAmount(UPDATED_AMOUNT);
+        transactionService.save(updatedChild, childTransaction1.getId());
+        assertThat(transactionService.sumChildren(transaction.getId())).isEqualTo(DEFAULT_AMOUNT + UPDATED_AMOUNT + ALTERNATIVE_AMOUNT);
+
+        // Delete the other child
+        transactionService.delete(childTransaction2.getId());
+        assertThat(transactionService.sumChildren(transaction.getId())).isEqualTo(DEFAULT_AMOUNT + UPDATED_AMOUNT);
+    }
+
+    @Test
+    @Transactional
+    public void rebuild_should_fix_inconsistent_sums() throws Exception {
+        // Initialize the database
+        transactionService.save(transaction);
+        transactionService.save(childTransaction1);
+        transactionRepository.updateSubtreeSum(transaction.getId(), 0d);
+
+        restTransactionMockMvc.perform(post("/transactionservice/sum/rebuild")
+                .accept(TestUtil.APPLICATION_JSON_UTF8))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("ok"));
+
+        assertThat(transactionService.sumChildren(transaction.getId())).isEqualTo(DEFAULT_AMOUNT + DEFAULT_AMOUNT);
+    }
+
+    @Test
+    @Transactional
+    public void closure_should_follow_the_transaction_tree() throws Exception {
+        // Initialize the database
+        Transaction grandChildTransaction = new Transaction();
+        grandChildTransaction.setId(nextId());
+        grandChildTransaction.setAmount(UPDATED_AMOUNT);
+        grandChildTransaction.setType(UPDATED_TYPE);
+        grandChildTransaction.setParent(childTransaction1);
+        transactionService.save(transaction);
+        transactionService.save(childTransaction1);
+        transactionService.save(childTransaction2);
+        transactionService.save(grandChildTransaction);
+
+        assertThat(transactionRepository.findDescendantIds(transaction.getId()))
+                .containsOnly(childTransaction1.getId(), childTransaction2.getId(), grandChildTransaction.getId());
+        assertThat(transactionRepository.findAncestorIds(grandChildTransaction.getId()))
+                .containsExactly(childTransaction1.getId(), transaction.getId());
+        assertThat(transactionRepository.sumSubtreeAmounts(transaction.getId()))
+                .isEqualTo(transactionService.sumChildren(transaction.getId()));
+
+        // Move the first child and its subtree under the second child
+        TransactionRestWrapper movedChild = TransactionRestWrapper.fromTransaction(childTransaction1);
+        movedChild.setParentId(childTransaction2.getId());
+        transactionService.save(movedChild, childTransaction1.getId());
+
+        assertThat(transactionRepository.findAncestorIds(grandChildTransaction.getId()))
+                .containsExactly(childTransaction1.getId(), childTransaction2.getId(), transaction.getId());
+        assertThat(transactionRepository.findDescendantIds(childTransaction2.getId()))
+                .containsOnly(childTransaction1.getId(), grandChildTransaction.getId());
+
+        // Rebuilding gives back the same closure table
+        restTransactionMockMvc.perform(post("/transactionservice/closure/rebuild")
+                .accept(TestUtil.APPLICATION_JSON_UTF8))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("ok"));
+        assertThat(transactionRepository.findAncestorIds(grandChildTransaction.getId()))
+                .containsExactly(childTransaction1.getId(), childTransaction2.getId(), transaction.getId());
+    }
+
+    @Test
+    @Transactional
+    public void transactions_too_deep_for_a_path_should_use_the_closure() throws Exception {
+        // A chain of transactions whose paths outgrow TransactionPath.MAX_LENGTH half way, with long ids to keep it short
+        long firstId = Long.MAX_VALUE / 4;
+        int fitting = TransactionPath.MAX_LENGTH / (Long.toString(firstId, Character.MAX_RADIX).length() + 1);
+        int chainLength = 2 * fitting - 10;
+        List<Long> chain = new ArrayList<>();
+        List<BulkTransactionRestWrapper> wrappers = new ArrayList<>();
+        for (int i = 0; i < chainLength; i++) {
+            BulkTransactionRestWrapper wrapper = new BulkTransactionRestWrapper();
+            wrapper.setId(firstId + nextId());
+            wrapper.setAmount(1d);
+            wrapper.setType(DEFAULT_TYPE);
+            wrapper.setParentId(i == 0 ? null : chain.get(i - 1));
+            wrappers.add(wrapper);
+            chain.add(wrapper.getId());
+        }
+        transactionService.saveAll(wrappers);
+        Long leafId = chain.get(chainLength - 1);
+        assertThat(transactionRepository.findPathById(chain.get(0))).isNotNull();
+        assertThat(transactionRepository.findPathById(leafId)).isNull();
+        assertThat(transactionRepository.findDepthById(leafId)).isEqualTo(chainLength - 1);
+
+        // A child of the leaf has no path either, and the leaf cannot become an ancestor of its own ancestors
+        Transaction child = new Transaction();
+        child.setId(firstId + nextId());
+        child.setAmount(1d);
+        child.setParent(transactionService.findOne(leafId));
+        transactionService.save(child);
+        assertThat(transactionRepository.findPathById(child.getId())).isNull();
+        assertThat(transactionRepository.findRootIds(Collections.singleton(child.getId()))).containsExactly(chain.get(0));
+        restTransactionMockMvc.perform(put("/transactionservice/transaction/" + chain.get(1))
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(TransactionRestWrapper.fromTransaction(child))))
+                .andExpect(status().isBadRequest());
+
+        // Cut in the middle, both halves have paths again
+        Long middleId = chain.get(chainLength / 2);
+        TransactionRestWrapper middle = new TransactionRestWrapper();
+        middle.setAmount(1d);
+        transactionService.save(middle, middleId);
+        String childPath = transactionRepository.findPathById(child.getId());
+        assertThat(childPath).isNotNull();
+        assertThat(TransactionPath.ancestorIds(childPath)).hasSize(chainLength - chainLength / 2).endsWith(middleId);
+        assertThat(transactionRepository.findDepthById(child.getId())).isEqualTo(chainLength - chainLength / 2);
+
+        // Joined again, the paths stop at the same transaction
+        middle.setParentId(chain.get(chainLength / 2 - 1));
+        transactionService.save(middle, middleId);
+        assertThat(transactionRepository.findPathById(chain.get(fitting - 1))).isNotNull();
+        assertThat(transactionRepository.findPathById(chain.get(fitting))).isNull();
+        middle.setParentId(chain.get(chainLength - 2));
+        restTransactionMockMvc.perform(put("/transactionservice/transaction/" + middleId)
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(middle)))
+                .andExpect(status().isBadRequest());
+        assertThat(transactionRepository.findDepthById(child.getId())).isEqualTo(chainLength);
+
+        // A tree moved under a transaction without a path loses its paths
+        transactionService.save(transaction);
+        transactionService.save(childTransaction1);
+        TransactionRestWrapper movedRoot = TransactionRestWrapper.fromTransaction(transaction);
+        movedRoot.setParentId(child.getId());
+        transactionService.save(movedRoot, transaction.getId());
+        assertThat(transactionRepository.findPathById(childTransaction1.getId())).isNull();
+        assertThat(transactionRepository.findDepthById(childTransaction1.getId())).isEqualTo(chainLength + 2);
+        assertThat(transactionRepository.findRootIds(Collections.singleton(childTransaction1.getId()))).containsExactly(chain.get(0));
+        assertThat(transactionService.sumChildren(chain.get(0))).isEqualTo(chainLength + 1d + DEFAULT_AMOUNT + DEFAULT_AMOUNT);
+        assertThat(transactionService.rebuildPaths()).isEqualTo(0);
+    }
+
+    @Test
+    @Transactional
+    public void subtree_queries_should_follow_the_parent_links() throws Exception {
+        // Initialize the database
+        Transaction grandChildTransaction = new Transaction();
+        grandChildTransaction.setId(nextId());
+        grandChildTransaction.setAmount(UPDATED_AMOUNT);
+        grandChildTransaction.setType(UPDATED_TYPE);
+        grandChildTransaction.setParent(childTransaction1);
+        transactionService.save(transaction);
+        transactionService.save(childTransaction1);
+        transactionService.save(childTransaction2);
+        transactionService.save(grandChildTransaction);
+        transactionRepository.flush();
+
+        for (TransactionJdbcRepository.SubtreeQueries subtreeQueries : TransactionJdbcRepository.SubtreeQueries.values()) {
+            TransactionJdbcRepository repository = new TransactionJdbcRepository(dataSource, subtreeQueries);
+            // The union of overlapping subtrees gives each transaction once
+            List<Long> ids = Arrays.asList(childTransaction1.getId(), transaction.getId(), Long.MAX_VALUE);
+            TransactionSubtreeUnion.Builder builder = new TransactionSubtreeUnion.Builder();
+            List<Long> unionIds = new ArrayList<>();
+            repository.streamSubtreeUnion(ids, (id, parentId, amount, typeId) -> {
+                unionIds.add(id);
+                builder.add(id, parentId, amount);
+            });
+            assertThat(unionIds).containsOnly(transaction.getId(), childTransaction1.getId(),
+                    childTransaction2.getId(), grandChildTransaction.getId()).doesNotHaveDuplicates();
+            assertThat(builder.build().subtreeSums(ids, ForkJoinPool.commonPool()))
+                    .containsOnly(entry(transaction.getId(), transactionService.sumChildren(transaction.getId())),
+                            entry(childTransaction1.getId(), DEFAULT_AMOUNT + UPDATED_AMOUNT));
+        }
+        assertThat(transactionJdbcRepository.getSubtreeQueries()).isEqualTo(TransactionJdbcRepository.SubtreeQueries.RECURSIVE_CTE);
+    }
+
+    @Test
+    @Transactional
+    public void types_should_be_interned_in_the_type_dictionary() throws Exception {
+        // Initialize the database
+        transactionService.save(transaction);
+        transactionService.save(childTransaction1);
+        transactionService.save(childTransaction2);
+
+        assertThat(transaction.getTypeId()).isNotNull().isEqualTo(childTransaction1.getTypeId());
+        assertThat(childTransaction2.getTypeId()).isNotEqualTo(transaction.getTypeId());
+
+        performAsync(get("/transactionservice/types/{type}", "unknown-type")
+                .accept(TestUtil.APPLICATION_JSON_UTF8))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$").isArray())
+                .andExpect(jsonPath("$", hasSize(0)));
+    }
+
+    @Test
+    @Transactional
+    public void should_be_able_to_page_through_transactions_of_a_type() throws Exception {
+        // Initialize the database
+        transactionService.save(transaction);
+        transactionService.save(childTransaction1);
+        transactionService.save(childTransaction2);
+        Long firstId = Math.min(transaction.getId(), childTransaction1.getId());
+        Long lastId = Math.max(transaction.getId(), childTransaction1.getId());
+
+        performAsync(get("/transactionservice/types/{type}?limit=1", DEFAULT_TYPE)
+                .accept(TestUtil.APPLICATION_JSON_UTF8))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0]").value(firstId.intValue()))
+                .andExpect(header().string("X-transactionsApp-next-after", firstId.toString()));
+
+        performAsync(get("/transactionservice/types/{type}?after={after}&limit=2", DEFAULT_TYPE, firstId)
+                .accept(TestUtil.APPLICATION_JSON_UTF8))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0]").value(lastId.intValue()))
+                .andExpect(header().doesNotExist("X-transactionsApp-next-after"));
+    }
+
+    @Test
+    @Transactional
+    public void type_stats_should_follow_creations_updates_and_deletes() throws Exception {
+        // Initialize the database
+        transaction.setType("stats-a");
+        childTransaction1.setType("stats-a");
+        childTransaction1.setAmount(5D);
+        childTransaction2.setType("stats-a");
+        childTransaction2.setAmount(-3D);
+        transactionService.save(transaction);
+        transactionService.save(childTransaction1);
+        transactionService.save(childTransaction2);
+
+        restTransactionMockMvc.perform(get("/transactionservice/types/{type}/stats", "stats-a")
+                .accept(TestUtil.APPLICATION_JSON_UTF8))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.type").value("stats-a"))
+                .andExpect(jsonPath("$.count").value(3))
+                .andExpect(jsonPath("$.sum").value(DEFAULT_AMOUNT + 5D - 3D))
+                .andExpect(jsonPath("$.min").value(-3D))
+                .andExpect(jsonPath("$.max").value(5D));
+
+        // Move the maximum to another type, and change the amount of the minimum
+        TransactionRestWrapper moved = TransactionRestWrapper.fromTransaction(childTransaction1);
+        moved.setType("stats-b");
+        transactionService.save(moved, childTransaction1.getId());
+        TransactionRestWrapper updated = TransactionRestWrapper.fromTransaction(childTransaction2);
+        updated.setAmount(UPDATED_AMOUNT);
+        transactionService.save(updated, childTransaction2.getId());
+
+        assertThat(transactionService.findTypeStats("stats-a").getCount()).isEqualTo(2L);
+        assertThat(transactionService.findTypeStats("stats-a").getSum()).isEqualTo(DEFAULT_AMOUNT + UPDATED_AMOUNT);
+        assertThat(transactionService.findTypeStats("stats-a").getMin()).isEqualTo(DEFAULT_AMOUNT);
+        assertThat(transactionService.findTypeStats("stats-a").getMax()).isEqualTo(UPDATED_AMOUNT);
+        assertThat(transactionService.findTypeStats("stats-b").getCount()).isEqualTo(1L);
+        assertThat(transactionService.findTypeStats("stats-b").getMax()).isEqualTo(5D);
+
+        // Delete the last transaction of a type
+        transactionService.delete(childTransaction1.getId());
+        assertThat(transactionService.findTypeStats("stats-b").getCount()).isEqualTo(0L);
+        assertThat(transactionService.findTypeStats("stats-b").getSum()).isEqualTo(0D);
+        assertThat(transactionService.findTypeStats("stats-b").getMin()).isNull();
+        assertThat(transactionService.findTypeStats("stats-b").getMax()).isNull();
+        assertThat(transactionService.rebuildTypeStats()).isGreaterThanOrEqualTo(2);
+        assertThat(transactionService.findTypeStats("stats-a").getCount()).isEqualTo(2L);
+
+        restTransactionMockMvc.perform(get("/transactionservice/types/{type}/stats", "unknown-type")
+                .accept(TestUtil.APPLICATION_JSON_UTF8))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @Transactional
+    public void should_be_able_to_create_transactions_in_bulk() throws Exception {
+        // Initialize the database
+        transactionService.save(transaction);
+        Long existingId = transaction.getId();
+        long firstId = existingId + 1000;
+
+        // Children are given before their parents on purpose
+        String ndjson = "{\"id\":" + (firstId + 1) + ",\"amount\":2.0,\"type\":\"" + UPDATED_TYPE + "\",\"parent_id\":" + firstId + "}\n" +
+                "{\"id\":" + firstId + ",\"amount\":3.0,\"type\":\"" + UPDATED_TYPE + "\",\"parent_id\":" + existingId + "}\n";
+        restTransactionMockMvc.perform(post("/transactionservice/transactions")
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .content(ndjson))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("ok"));
+
+        assertThat(transactionService.sumChildren(existingId)).isEqualTo(DEFAULT_AMOUNT + 2.0 + 3.0);
+        assertThat(transactionService.sumChildren(firstId)).isEqualTo(2.0 + 3.0);
+        assertThat(transactionRepository.findAncestorIds(firstId + 1)).containsExactly(firstId, existingId);
+        assertThat(transactionService.findTransactionIdsOfType(UPDATED_TYPE)).containsOnly(firstId, firstId + 1);
+    }
+
+    @Test
+    @Transactional
+    public void bulk_creation_with_a_cycle_should_return_an_error() throws Exception {
+        BulkTransactionRestWrapper first = new BulkTransactionRestWrapper();
+        first.setId(Long.MAX_VALUE - 1);
+        first.setParentId(Long.MAX_VALUE - 2);
+        BulkTransactionRestWrapper second = new BulkTransactionRestWrapper();
+        second.setId(Long.MAX_VALUE - 2);
+        second.setParentId(Long.MAX_VALUE - 1);
+        int databaseSizeBeforeCreate = transactionRepository.findAll().size();
+
+        restTransactionMockMvc.perform(post("/transactionservice/transactions")
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(Arrays.asList(first, second))))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.status").value("error"));
+
+        assertThat(transactionRepository.findAll()).hasSize(databaseSizeBeforeCreate);
+    }
+
+    @Test
+    @Transactional
+    public void endpoints_and_repositories_should_be_timed() throws Exception {
+        // Initialize the database
+        transactionService.save(transaction);
+        TransactionResource transactionResource = new TransactionResource();
+        ReflectionTestUtils.setField(transactionResource, "transactionService", transactionService);
+        ReflectionTestUtils.setField(transactionResource, "transactionAggregateService", aggregateService(new SyncTaskExecutor()));
+        ReflectionTestUtils.setField(transactionResource, "transactionCacheService", transactionCacheService);
+        ReflectionTestUtils.setField(transactionResource, "objectMapper", jacksonMessageConverter.getObjectMapper());
+        ReflectionTestUtils.setField(transactionResource, "transactionWriteBehindService", Optional.empty());
+        MockMvc instrumentedMockMvc = MockMvcBuilders.standaloneSetup(transactionResource)
+                .setMessageConverters(new ByteArrayHttpMessageConverter(), jacksonMessageConverter)
+                .addInterceptors(new EndpointMetricsInterceptor(metricRegistry)).build();
+
+        instrumentedMockMvc.perform(get("/transactionservice/transaction/{id}", transaction.getId()))
+                .andExpect(status().isOk());
+        instrumentedMockMvc.perform(get("/transactionservice/transaction/{id}", Long.MAX_VALUE))
+                .andExpect(status().isNotFound());
+
+        assertThat(metricRegistry.getTimers().get("rest.TransactionResource.getTransaction").getCount()).isGreaterThanOrEqualTo(2);
+        assertThat(metricRegistry.getMeters().get("rest.TransactionResource.getTransaction.errors").getCount()).isGreaterThanOrEqualTo(1);
+        assertThat(metricRegistry.getHistograms()).containsKey("rest.TransactionResource.getTransaction.hibernate.statements");
+        assertThat(metricRegistry.getTimers()).containsKey("repository.TransactionRepository.findOne");
+    }
+
+    @Test
+    public void deferred_endpoints_should_be_timed_from_their_first_dispatch() throws Exception {
+        long delayMillis = 200;
+        TransactionResource transactionResource = new TransactionResource();
+        /* The aggregate query runs on another thread, outside of the transaction of the request, once the delay is over */
+        ReflectionTestUtils.setField(transactionResource, "transactionAggregateService", aggregateService(task -> new Thread(() -> {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            task.run();
+        }).start()));
+        MockMvc instrumentedMockMvc = MockMvcBuilders.standaloneSetup(transactionResource)
+                .setMessageConverters(new ByteArrayHttpMessageConverter(), jacksonMessageConverter)
+                .addInterceptors(new EndpointMetricsInterceptor(metricRegistry)).build();
+
+        MvcResult result = instrumentedMockMvc.perform(get("/transactionservice/sum/" + Long.MAX_VALUE))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        instrumentedMockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk());
+
+        String name = "rest.TransactionResource.getSumOfChildrenOfTransaction";
+        assertThat(metricRegistry.getTimers().get(name).getSnapshot().getMax()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        assertThat(metricRegistry.getHistograms().get(name + ".hibernate.statements").getSnapshot().getMax()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    @Transactional
+    public void cached_transaction_should_be_invalidated_on_update() throws Exception {
+        // Initialize the database
+        transactionService.save(transaction);
+        long hitsBefore = (Long) metricRegistry.getGauges().get("cache.transaction.hits").getValue();
+
+        restTransactionMockMvc.perform(get("/transactionservice/transaction/{id}", transaction.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.amount").value(DEFAULT_AMOUNT));
+        restTransactionMockMvc.perform(get("/transactionservice/transaction/{id}", transaction.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.amount").value(DEFAULT_AMOUNT));
+        assertThat((Long) metricRegistry.getGauges().get("cache.transaction.hits").getValue()).isEqualTo(hitsBefore + 1);
+
+        // Update the transaction
+        TransactionRestWrapper updatedTransaction = TransactionRestWrapper.fromTransaction(transaction);
+        updatedTransaction.setAmount(UPDATED_AMOUNT);
+        restTransactionMockMvc.perform(put("/transactionservice/transaction/" + transaction.getId())
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(updatedTransaction)))
+                .andExpect(status().isOk());
+
+        restTransactionMockMvc.perform(get("/transactionservice/transaction/{id}", transaction.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.amount").value(UPDATED_AMOUNT));
+    }
+
+    @Test
+    @Transactional
+    public void getTransaction_should_cost_one_select_whatever_the_depth() throws Exception {
+        // Initialize the database with a chain of transactions
+        transactionService.save(transaction);
+        Transaction leaf = transaction;
+        for (int depth = 1; depth < 10; depth++) {
+            Transaction child = new Transaction();
+            child.setId(nextId());
+            child.setAmount(DEFAULT_AMOUNT);
+            child.setType(DEFAULT_TYPE);
+            child.setParent(leaf);
+            leaf = transactionService.save(child);
+        }
+        Long parentId = leaf.getParentId();
+        transactionRepository.flush();
+        entityManager.clear();
+        transactionCacheService.invalidate(leaf.getId());
+
+        HibernateStatementInterceptor.reset();
+        restTransactionMockMvc.perform(get("/transactionservice/transaction/{id}", leaf.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.parent_id").value(parentId.intValue()));
+        assertThat(HibernateStatementInterceptor.getStatementCount()).isEqualTo(1);
+        assertThat(HibernateStatementInterceptor.getEntityLoadCount()).isEqualTo(1);
+    }
+
+    @Test
+    @Transactional
+    public void saving_a_transaction_should_cost_the_same_whatever_the_depth() throws Exception {
+        // Initialize the database with a short and a long chain of transactions
+        Transaction shallowLeaf = saveChain(2);
+        Transaction deepLeaf = saveChain(50);
+        transactionRepository.flush();
+        entityManager.clear();
+
+        long shallowStatements = statementsToSaveUnder(shallowLeaf);
+        long deepStatements = statementsToSaveUnder(deepLeaf);
+        assertThat(deepStatements).isEqualTo(shallowStatements);
+        assertThat(transactionService.sumChildren(transactionRepository.findRootIds(Collections.singleton(deepLeaf.getId())).get(0)))
+                .isEqualTo(51 * DEFAULT_AMOUNT);
+        assertThat(transactionService.rebuildSubtreeSums()).isEqualTo(0);
+    }
+
+    private Transaction saveChain(int length) {
+        Transaction leaf = null;
+        for (int depth = 0; depth < length; depth++) {
+            Transaction child = new Transaction();
+            child.setId(nextId());
+            child.setAmount(DEFAULT_AMOUNT);
+            child.setType(DEFAULT_TYPE);
+            child.setParent(leaf);
+            leaf = transactionService.save(child);
+        }
+        return leaf;
+    }
+
+    private long statementsToSaveUnder(Transaction parent) {
+        Transaction child = new Transaction();
+        child.setId(nextId());
+        child.setAmount(DEFAULT_AMOUNT);
+        child.setType(DEFAULT_TYPE);
+        child.setParent(transactionRepository.findOne(parent.getId()));
+        HibernateStatementInterceptor.reset();
+        transactionService.save(child);
+        transactionRepository.flush();
+        return HibernateStatementInterceptor.getStatementCount();
+    }
+
+    @Test
+    @Transactional
+    public void multi_get_should_keep_the_request_order_in_one_select() throws Exception {
+        // Initialize the database
+        transactionService.save(transaction);
+        transactionService.save(childTransaction1);
+        transactionService.save(childTransaction2);
+        transactionRepository.flush();
+        entityManager.clear();
+
+        HibernateStatementInterceptor.reset();
+        restTransactionMockMvc.perform(get("/transactionservice/transaction?ids={ids}",
+                childTransaction2.getId() + "," + Long.MAX_VALUE + "," + transaction.getId() + "," + childTransaction1.getId()))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$", hasSize(4)))
+                .andExpect(jsonPath("$[0].type").value(ALTERNATIVE_TYPE))
+                .andExpect(jsonPath("$[0].parent_id").value(transaction.getId().intValue()))
+                .andExpect(jsonPath("$[2].amount").value(DEFAULT_AMOUNT))
+                .andExpect(jsonPath("$[3].type").value(DEFAULT_TYPE))
+                .andExpect(content().string(containsString("},null,{")));
+        assertThat(HibernateStatementInterceptor.getStatementCount()).isEqualTo(1);
+
+        // The found transactions are now cached, the missing one is not
+        HibernateStatementInterceptor.reset();
+        restTransactionMockMvc.perform(post("/transactionservice/transaction/lookup")
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(Arrays.asList(Long.MAX_VALUE, transaction.getId()))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[1].amount").value(DEFAULT_AMOUNT))
+                .andExpect(content().string(startsWith("[null,{")));
+        assertThat(HibernateStatementInterceptor.getStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    @Transactional
+    public void transactions_should_be_negotiated_as_smile() throws Exception {
+        // Initialize the database
+        transactionService.save(transaction);
+        transactionService.save(childTransaction1);
+        ObjectMapper smileMapper = smileHttpMessageConverter.getObjectMapper();
+
+        // The Smile representation follows the REST view
+        byte[] smileTransaction = restTransactionMockMvc.perform(get("/transactionservice/transaction/{id}", childTransaction1.getId())
+                .accept(SmileHttpMessageConverter.SMILE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(SmileHttpMessageConverter.SMILE))
+                .andReturn().getResponse().getContentAsByteArray();
+        JsonNode node = smileMapper.readTree(smileTransaction);
+        assertThat(node.size()).isEqualTo(3);
+        assertThat(node.get("amount").asDouble()).isEqualTo(DEFAULT_AMOUNT);
+        assertThat(node.get("parent_id").asLong()).isEqualTo(transaction.getId());
+
+        // JSON stays the default, and is cached apart from Smile
+        restTransactionMockMvc.perform(get("/transactionservice/transaction/{id}", childTransaction1.getId()))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.parent_id").value(transaction.getId().intValue()));
+
+        // The cached Smile documents are concatenated into one array
+        byte[] smileTransactions = restTransactionMockMvc.perform(post("/transactionservice/transaction/lookup")
+                .contentType(SmileHttpMessageConverter.SMILE)
+                .content(smileMapper.writeValueAsBytes(Arrays.asList(childTransaction1.getId(), Long.MAX_VALUE, transaction.getId())))
+                .accept(SmileHttpMessageConverter.SMILE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(SmileHttpMessageConverter.SMILE))
+                .andReturn().getResponse().getContentAsByteArray();
+        JsonNode array = smileMapper.readTree(smileTransactions);
+        assertThat(array.size()).isEqualTo(3);
+        assertThat(array.get(0).get("type").asText()).isEqualTo(DEFAULT_TYPE);
+        assertThat(array.get(1).isNull()).isTrue();
+        assertThat(array.get(2).get("parent_id").isNull()).isTrue();
+
+        byte[] smileSum = performAsync(get("/transactionservice/sum/{id}", transaction.getId())
+                .accept(SmileHttpMessageConverter.SMILE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(SmileHttpMessageConverter.SMILE))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertThat(smileMapper.readTree(smileSum).get("sum").asDouble()).isEqualTo(DEFAULT_AMOUNT + DEFAULT_AMOUNT);
+    }
+
+    @Test
+    @Transactional
+    public void subtree_walk_should_batch_the_children() throws Exception {
+        // Initialize the database
+        Transaction grandChildTransaction1 = new Transaction();
+        grandChildTransaction1.setId(nextId());
+        grandChildTransaction1.setAmount(UPDATED_AMOUNT);
+        grandChildTransaction1.setType(UPDATED_TYPE);
+        grandChildTransaction1.setParent(childTransaction1);
+        Transaction grandChildTransaction2 = new Transaction();
+        grandChildTransaction2.setId(nextId());
+        grandChildTransaction2.setAmount(UPDATED_AMOUNT);
+        grandChildTransaction2.setType(UPDATED_TYPE);
+        grandChildTransaction2.setParent(childTransaction2);
+        transactionService.save(transaction);
+        transactionService.save(childTransaction1);
+        transactionService.save(childTransaction2);
+        transactionService.save(grandChildTransaction1);
+        transactionService.save(grandChildTransaction2);
+        transactionRepository.flush();
+        entityManager.clear();
+
+        HibernateStatementInterceptor.reset();
+        Transaction root = transactionRepository.findOne(transaction.getId());
+        assertThat(root.getChildren()).hasSize(2);
+        assertThat(HibernateStatementInterceptor.getStatementCount()).isEqualTo(2);
+
+        // The children collections of the second level are initialized together
+        double sum = root.getChildren().stream()
+                .flatMap(child -> child.getChildren().stream())
+                .mapToDouble(Transaction::getAmount)
+                .sum();
+        assertThat(sum).isEqualTo(UPDATED_AMOUNT + UPDATED_AMOUNT);
+        assertThat(HibernateStatementInterceptor.getStatementCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void write_behind_should_acknowledge_then_commit_the_writes() throws Exception {
+        TransactionWriteBehindService writeBehindService = new TransactionWriteBehindService();
+        ReflectionTestUtils.setField(writeBehindService, "transactionService", transactionService);
+        ReflectionTestUtils.setField(writeBehindService, "metricRegistry", new MetricRegistry());
+        ReflectionTestUtils.setField(writeBehindService, "queueCapacity", 3);
+        ReflectionTestUtils.setField(writeBehindService, "batchSize", 1000);
+        ReflectionTestUtils.setField(writeBehindService, "statusRetention", 1000L);
+        ReflectionTestUtils.setField(writeBehindService, "shutdownTimeoutSeconds", 30L);
+        TransactionResource transactionResource = new TransactionResource();
+        ReflectionTestUtils.setField(transactionResource, "transactionService", transactionService);
+        ReflectionTestUtils.setField(transactionResource, "transactionAggregateService", aggregateService(new SyncTaskExecutor()));
+        ReflectionTestUtils.setField(transactionResource, "transactionCacheService", transactionCacheService);
+        ReflectionTestUtils.setField(transactionResource, "objectMapper", jacksonMessageConverter.getObjectMapper());
+        ReflectionTestUtils.setField(transactionResource, "transactionWriteBehindService", Optional.of(writeBehindService));
+        MockMvc writeBehindMockMvc = MockMvcBuilders.standaloneSetup(transactionResource)
+                .setMessageConverters(new ByteArrayHttpMessageConverter(), jacksonMessageConverter).build();
+
+        BulkTransactionRestWrapper root = new BulkTransactionRestWrapper();
+        root.setId(Long.MAX_VALUE - 10);
+        root.setAmount(DEFAULT_AMOUNT);
+        root.setType(DEFAULT_TYPE);
+        BulkTransactionRestWrapper child = new BulkTransactionRestWrapper();
+        child.setId(Long.MAX_VALUE - 11);
+        child.setAmount(UPDATED_AMOUNT);
+        child.setType(DEFAULT_TYPE);
+        child.setParentId(root.getId());
+        TransactionRestWrapper cycle = new TransactionRestWrapper();
+        cycle.setAmount(DEFAULT_AMOUNT);
+        cycle.setType(DEFAULT_TYPE);
+        cycle.setParentId(child.getId());
+        try {
+            writeBehindService.start();
+            writeBehindMockMvc.perform(post("/transactionservice/transactions")
+                    .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                    .content(TestUtil.convertObjectToJsonBytes(Arrays.asList(root, child))))
+                    .andExpect(status().isAccepted())
+                    .andExpect(jsonPath("$.status").value("accepted"));
+            writeBehindMockMvc.perform(put("/transactionservice/transaction/" + root.getId())
+                    .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                    .content(TestUtil.convertObjectToJsonBytes(cycle)))
+                    .andExpect(status().isAccepted());
+            writeBehindService.flush();
+
+            assertThat(writeBehindService.getStatus(child.getId())).isEqualTo(TransactionWriteBehindService.WriteStatus.COMMITTED);
+            writeBehindMockMvc.perform(get("/transactionservice/transaction/{id}/status", root.getId()))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.status").value("failed"));
+            writeBehindMockMvc.perform(get("/transactionservice/transaction/{id}/status", Long.MAX_VALUE - 12))
+                    .andExpect(status().isNotFound());
+            assertThat(transactionService.sumChildren(root.getId())).isEqualTo(DEFAULT_AMOUNT + UPDATED_AMOUNT);
+        } finally {
+            transactionService.delete(child.getId());
+            transactionService.delete(root.getId());
+        }
+    }
+
+    @Test
+    public void write_behind_should_refuse_writes_beyond_its_capacity() throws Exception {
+        TransactionWriteBehindService writeBehindService = new TransactionWriteBehindService();
+        ReflectionTestUtils.setField(writeBehindService, "capacity", new Semaphore(1));
+        ReflectionTestUtils.setField(writeBehindService, "accepting", true);
+
+        BulkTransactionRestWrapper first = new BulkTransactionRestWrapper();
+        first.setId(Long.MAX_VALUE - 20);
+        BulkTransactionRestWrapper second = new BulkTransactionRestWrapper();
+        second.setId(Long.MAX_VALUE - 21);
+        assertThat(writeBehindService.submitAll(Arrays.asList(first, second))).isFalse();
+        assertThat(writeBehindService.submit(first, first.getId())).isTrue();
+        assertThat(writeBehindService.submit(second, second.getId())).isFalse();
+        assertThat(writeBehindService.getStatus(first.getId())).isEqualTo(TransactionWriteBehindService.WriteStatus.PENDING);
+        assertThat(writeBehindService.getQueueSize()).isEqualTo(1);
+    }
+
+    @Test
+    @Transactional
+    public void aggregates_should_be_refused_when_their_executor_is_saturated() throws Exception {
+        // Initialize the database
+        transactionService.save(transaction);
+        TransactionResource transactionResource = new TransactionResource();
+        ReflectionTestUtils.setField(transactionResource, "transactionAggregateService", aggregateService(task -> {
+            throw new RejectedExecutionException("saturated");
+        }));
+        MockMvc saturatedMockMvc = MockMvcBuilders.standaloneSetup(transactionResource)
+                .setMessageConverters(new ByteArrayHttpMessageConverter(), jacksonMessageConverter).build();
+
+        MvcResult result = saturatedMockMvc.perform(get("/transactionservice/sum/" + transaction.getId()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        saturatedMockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("X-transactionsApp-error", "Too many aggregate queries running"));
+    }
+
+    /**
+     * @return an aggregate service running its queries on the given executor, the synchronous executor runs them
+     * in the transaction of the test
+     */
+    private TransactionAggregateService aggregateService(Executor executor) {
+        TransactionAggregateService aggregateService = new TransactionAggregateService();
+        ReflectionTestUtils.setField(aggregateService, "transactionService", transactionService);
+        ReflectionTestUtils.setField(aggregateService, "taskExecutor", new TaskExecutorAdapter(executor));
+        ReflectionTestUtils.setField(aggregateService, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(aggregateService, "timeoutMillis", 30000L);
+        return aggregateService;
+    }
+
+    /**
+     * Perform a request handled asynchronously, and dispatch its result.
+     */
+    private ResultActions performAsync(RequestBuilder requestBuilder) throws Exception {
+        MvcResult result = restTransactionMockMvc.perform(requestBuilder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return restTransactionMockMvc.perform(asyncDispatch(result));
+    }
+
+    private static long nextId() {
+        return IDS.incrementAndGet();
+    }
 }
@@ -0,0 +1,74 @@
+package org.jbourdon.springRestExample.web.rest;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.jbourdon.springRestExample.domain.Transaction;
+import org.jbourdon.springRestExample.domain.TransactionView;
+import org.jbourdon.springRestExample.web.util.SmileHttpMessageConverter;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test of the hand-written serializers of the REST payloads against the serialization of the bean properties
+ */
+public class TransactionRestSerializerTest {
+
+    private ObjectMapper jsonMapper;
+
+    private ObjectMapper smileMapper;
+
+    private Transaction transaction;
+
+    @Before
+    public void setUp() {
+        Jackson2ObjectMapperBuilder builder = new Jackson2ObjectMapperBuilder()
+                .featuresToDisable(MapperFeature.DEFAULT_VIEW_INCLUSION);
+        jsonMapper = builder.build();
+        ObjectMapper mapper = new ObjectMapper(new SmileFactory());
+        builder.configure(mapper);
+        smileMapper = new SmileHttpMessageConverter(mapper).getConcatenableObjectMapper();
+        Transaction parent = new Transaction();
+        parent.setId(10L);
+        transaction = new Transaction();
+        transaction.setId(11L);
+        transaction.setAmount(1234.5);
+        transaction.setType("cars \"new\" é");
+        transaction.setParent(parent);
+    }
+
+    @Test
+    public void transaction_should_be_serialized_as_its_rest_view() throws Exception {
+        assertSameAsRestView(jsonMapper);
+        assertSameAsRestView(smileMapper);
+    }
+
+    @Test
+    public void transaction_without_parent_nor_amount_should_be_serialized_as_its_rest_view() throws Exception {
+        transaction.setParent(null);
+        transaction.setAmount(null);
+        assertSameAsRestView(jsonMapper);
+        assertSameAsRestView(smileMapper);
+    }
+
+    @Test
+    public void sum_result_should_be_serialized_with_its_sum() throws Exception {
+        assertEquals("{\"sum\":3.0}", jsonMapper.writeValueAsString(new SumResult(3d)));
+        assertEquals("{\"sum\":null}", jsonMapper.writeValueAsString(new SumResult(null)));
+    }
+
+    @Test
+    public void update_status_should_be_serialized_with_its_status() throws Exception {
+        assertEquals("{\"status\":\"ok\"}", jsonMapper.writeValueAsString(UpdateStatus.OK));
+        assertEquals("{\"status\":\"accepted\"}", jsonMapper.writeValueAsString(UpdateStatus.ACCEPTED));
+    }
+
+    private void assertSameAsRestView(ObjectMapper mapper) throws Exception {
+        assertArrayEquals(mapper.writerWithView(TransactionView.Rest.class).writeValueAsBytes(transaction),
+                TransactionRestSerializer.toBytes(transaction, mapper.getFactory()));
+    }
+}
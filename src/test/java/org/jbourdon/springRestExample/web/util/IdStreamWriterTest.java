@@ -0,0 +1,58 @@
+package org.jbourdon.springRestExample.web.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test of the id stream writer
+ */
+public class IdStreamWriterTest {
+
+    private static byte[] write(IdStreamWriter.Format format, long... ids) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IdStreamWriter writer = new IdStreamWriter(out, format);
+        writer.begin();
+        for (long id : ids) {
+            writer.write(id);
+        }
+        writer.end();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void json_format_should_write_an_array() throws IOException {
+        assertThat(new String(write(IdStreamWriter.Format.JSON), StandardCharsets.US_ASCII)).isEqualTo("[]");
+        assertThat(new String(write(IdStreamWriter.Format.JSON, 0, 7, 1234567890123L, Long.MIN_VALUE), StandardCharsets.US_ASCII))
+                .isEqualTo("[0,7,1234567890123," + Long.MIN_VALUE + "]");
+    }
+
+    @Test
+    public void ndjson_format_should_write_one_id_per_line() throws IOException {
+        assertThat(new String(write(IdStreamWriter.Format.NDJSON, 10, -11), StandardCharsets.US_ASCII)).isEqualTo("10\n-11\n");
+    }
+
+    @Test
+    public void varint_format_should_write_zigzag_deltas() throws IOException {
+        // deltas 1, 63, 64, -1 are zigzag encoded as 2, 126, 128, 1
+        assertThat(write(IdStreamWriter.Format.VARINT, 1, 64, 128, 127))
+                .containsExactly(new byte[]{2, 126, (byte) 0x80, 0x01, 1});
+    }
+
+    @Test
+    public void format_parameter_should_not_depend_on_the_default_locale() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            /* The Turkish upper case of i is a dotted capital I */
+            Locale.setDefault(new Locale("tr", "TR"));
+            assertThat(IdStreamWriter.Format.fromParameter("varint")).isEqualTo(IdStreamWriter.Format.VARINT);
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+}